@@ -0,0 +1,83 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.benchmark;
+
+import com.nanalysis.sharepoint.MockSharepointServer;
+import com.nanalysis.sharepoint.SharepointClient;
+import com.nanalysis.sharepoint.auth.RealmDiscovery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a complete authentication, each request of the flow paying the simulated round trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AuthenticationBenchmark {
+    @Param({"0", "50"})
+    private int latencyMillis;
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new MockSharepointServer();
+        server.setRecordRequests(false);
+        server.setLatency(Duration.ofMillis(latencyMillis));
+        client = server.newClient();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public void oauth2() throws IOException, InterruptedException {
+        // include the realm discovery, which is otherwise cached for the whole process
+        RealmDiscovery.shared().clear();
+        client.authenticateWithOAuth2("client-id", "client-secret");
+    }
+
+    @Benchmark
+    public void oauth2WithKnownRealm() throws IOException, InterruptedException {
+        client.authenticateWithOAuth2("client-id", "client-secret");
+    }
+
+    @Benchmark
+    public void userCredentials() throws Exception {
+        client.authenticateWithUserCredentials("user@example.com", "password");
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.benchmark;
+
+import com.nanalysis.sharepoint.AdaptiveChunkSizer;
+import com.nanalysis.sharepoint.MockSharepointServer;
+import com.nanalysis.sharepoint.SharepointClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunked upload of a single file, depending on the chunk size, the latency and the bandwidth.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ChunkedUploadBenchmark {
+    private static final String FOLDER = "Shared Documents/upload";
+
+    @Param({"33554432"})
+    private int fileSize;
+
+    @Param({"262144", "1048576", "4194304", "10485760"})
+    private int chunkSize;
+
+    @Param({"0", "20"})
+    private int latencyMillis;
+
+    /** In bytes per second, 0 for no limit. */
+    @Param({"0", "104857600"})
+    private long bandwidth;
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+    private byte[] data;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new MockSharepointServer();
+        server.setRecordRequests(false);
+        server.setLatency(Duration.ofMillis(latencyMillis));
+        server.setBandwidth(bandwidth);
+        server.addFolder(FOLDER);
+        client = server.newClient();
+        client.setChunkSizer(AdaptiveChunkSizer.fixed(chunkSize));
+        data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public void uploadBigFile() throws IOException, InterruptedException {
+        client.uploadBigFile(FOLDER, "big.bin", data.length, new ByteArrayInputStream(data), progress -> {
+        });
+    }
+}
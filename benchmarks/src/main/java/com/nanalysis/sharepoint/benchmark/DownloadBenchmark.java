@@ -0,0 +1,126 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.benchmark;
+
+import com.nanalysis.sharepoint.DownloadResult;
+import com.nanalysis.sharepoint.MockSharepointServer;
+import com.nanalysis.sharepoint.SharepointClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Download throughput of a single file, streamed with one request or split in concurrent range requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class DownloadBenchmark {
+    private static final String FOLDER = "Shared Documents/download";
+    private static final String FILE = "big.bin";
+
+    @Param({"1048576", "33554432"})
+    private int fileSize;
+
+    @Param({"0", "20"})
+    private int latencyMillis;
+
+    /** In bytes per second, 0 for no limit. */
+    @Param({"0", "104857600"})
+    private long bandwidth;
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+    private Path target;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new MockSharepointServer();
+        server.setRecordRequests(false);
+        server.setLatency(Duration.ofMillis(latencyMillis));
+        server.setBandwidth(bandwidth);
+        byte[] data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+        server.putFile(FOLDER, FILE, data);
+        client = server.newClient();
+        target = Files.createTempFile("sharepoint-benchmark", ".bin");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public DownloadResult downloadToChannel() throws IOException, InterruptedException {
+        return client.downloadTo(FOLDER, FILE, new DiscardingChannel(), null);
+    }
+
+    @Benchmark
+    public DownloadResult downloadToChannelWithChecksum() throws IOException, InterruptedException {
+        return client.downloadTo(FOLDER, FILE, new DiscardingChannel(), "SHA-256");
+    }
+
+    @Benchmark
+    public void downloadSegmented() throws IOException, InterruptedException {
+        // start over each time instead of resuming the previous download
+        Files.deleteIfExists(target);
+        client.downloadSegmented(FOLDER, FILE, target, 4);
+    }
+
+    /**
+     * Drops everything written, so that only the transfer is measured.
+     */
+    private static class DiscardingChannel implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer source) {
+            int remaining = source.remaining();
+            source.position(source.limit());
+            return remaining;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
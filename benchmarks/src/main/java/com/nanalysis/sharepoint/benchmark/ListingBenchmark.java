@@ -0,0 +1,82 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.benchmark;
+
+import com.nanalysis.sharepoint.MockSharepointServer;
+import com.nanalysis.sharepoint.SharepointClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing a folder through the client, following the next links of each page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ListingBenchmark {
+    private static final String FOLDER = "Shared Documents/listing";
+
+    @Param({"100", "5000"})
+    private int fileCount;
+
+    @Param({"1000"})
+    private int pageSize;
+
+    @Param({"0", "20"})
+    private int latencyMillis;
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new MockSharepointServer();
+        server.setRecordRequests(false);
+        server.setLatency(Duration.ofMillis(latencyMillis));
+        for (int i = 0; i < fileCount; i++) {
+            server.putFile(FOLDER, String.format("file-%05d.txt", i), new byte[i % 1024]);
+        }
+        client = server.newClient();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public void listFiles(Blackhole blackhole) throws IOException, InterruptedException {
+        client.listFiles(FOLDER, pageSize, blackhole::consume);
+    }
+}
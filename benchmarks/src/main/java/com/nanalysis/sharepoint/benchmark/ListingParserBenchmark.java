@@ -0,0 +1,202 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.benchmark;
+
+import com.nanalysis.sharepoint.SharepointClient;
+import com.nanalysis.sharepoint.http.HttpTransport;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.CookieStore;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse cost of a listing page, through the client but without any HTTP exchange: the transport answers every
+ * request with the same page, from memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ListingParserBenchmark {
+    private static final String FOLDER = "Shared Documents";
+
+    @Param({"100", "5000"})
+    private int itemCount;
+
+    private SharepointClient client;
+
+    @Setup
+    public void setup() {
+        JSONArray value = new JSONArray();
+        for (int i = 0; i < itemCount; i++) {
+            value.put(new JSONObject()
+                    .put("odata.type", "SP.File")
+                    .put("odata.id", "https://example.sharepoint.com/sites/site/_api/Web/GetFileByServerRelativePath(decodedurl='/sites/site/Shared Documents/file-" + i + ".txt')")
+                    .put("Name", "file-" + i + ".txt")
+                    .put("Length", String.valueOf(i * 1024L))
+                    .put("TimeLastModified", "2022-06-01T12:00:00Z")
+                    .put("ETag", "\"{8B5E1D5C-6B3C-4B83-A5D3-4D7B1E2F" + String.format("%04X", i % 65536) + "},3\""));
+        }
+        // no next link, each listing is a single page
+        byte[] page = new JSONObject()
+                .put("odata.metadata", "https://example.sharepoint.com/sites/site/_api/$metadata#SP.ApiData.Files12")
+                .put("value", value)
+                .toString().getBytes(StandardCharsets.UTF_8);
+        client = new SharepointClient("https://example.sharepoint.com", "site", new CannedTransport(page));
+    }
+
+    @Benchmark
+    public void listItems(Blackhole blackhole) throws IOException, InterruptedException {
+        client.listFiles(FOLDER, itemCount, blackhole::consume);
+    }
+
+    @Benchmark
+    public List<String> listNames() throws IOException, InterruptedException {
+        return client.listFiles(FOLDER);
+    }
+
+    /**
+     * Answers every request with a 200 response and the given JSON body, delivered to the body handler at once.
+     */
+    private static class CannedTransport implements HttpTransport {
+        private static final HttpHeaders HEADERS = HttpHeaders.of(
+                Map.of("Content-Type", List.of("application/json")), (name, value) -> true);
+
+        private final byte[] body;
+        private final CookieStore cookieStore = new CookieManager().getCookieStore();
+
+        CannedTransport(byte[] body) {
+            this.body = body;
+        }
+
+        @Override
+        public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+            HttpResponse.BodySubscriber<T> subscriber = bodyHandler.apply(new HttpResponse.ResponseInfo() {
+                @Override
+                public int statusCode() {
+                    return 200;
+                }
+
+                @Override
+                public HttpHeaders headers() {
+                    return HEADERS;
+                }
+
+                @Override
+                public HttpClient.Version version() {
+                    return HttpClient.Version.HTTP_1_1;
+                }
+            });
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onNext(List.of(ByteBuffer.wrap(body)));
+            subscriber.onComplete();
+            return subscriber.getBody().toCompletableFuture().thenApply(content -> new CannedResponse<>(request, content));
+        }
+
+        @Override
+        public CookieStore getCookieStore() {
+            return cookieStore;
+        }
+    }
+
+    private static class CannedResponse<T> implements HttpResponse<T> {
+        private final HttpRequest request;
+        private final T body;
+
+        CannedResponse(HttpRequest request, T body) {
+            this.request = request;
+            this.body = body;
+        }
+
+        @Override
+        public int statusCode() {
+            return 200;
+        }
+
+        @Override
+        public HttpRequest request() {
+            return request;
+        }
+
+        @Override
+        public Optional<HttpResponse<T>> previousResponse() {
+            return Optional.empty();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return CannedTransport.HEADERS;
+        }
+
+        @Override
+        public T body() {
+            return body;
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return Optional.empty();
+        }
+
+        @Override
+        public URI uri() {
+            return request.uri();
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return HttpClient.Version.HTTP_1_1;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.benchmark;
+
+import com.nanalysis.sharepoint.PathEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of paths for request URLs, compared to the form encoding used before. Run with <code>-prof gc</code>
+ * to compare allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PathEncoderBenchmark {
+    /** More distinct paths than the encoder caches, so that each one is encoded again. */
+    private static final int UNIQUE_PATHS = 8192;
+
+    @Param({"Shared_Documents/reports/2022", "Shared Documents/Reports (2022)/Q1 r\u00e9sum\u00e9.pdf"})
+    private String path;
+
+    private String[] uniquePaths;
+    private int next;
+
+    @Setup
+    public void setup() {
+        uniquePaths = new String[UNIQUE_PATHS];
+        for (int i = 0; i < UNIQUE_PATHS; i++) {
+            uniquePaths[i] = path + "/" + i;
+        }
+    }
+
+    @Benchmark
+    public String pathEncoder() {
+        return PathEncoder.encode(path);
+    }
+
+    @Benchmark
+    public String pathEncoderUncached() {
+        next = (next + 1) % UNIQUE_PATHS;
+        return PathEncoder.encode(uniquePaths[next]);
+    }
+
+    @Benchmark
+    public String formEncoder() {
+        return URLEncoder.encode(path, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.benchmark;
+
+import com.nanalysis.sharepoint.MockSharepointServer;
+import com.nanalysis.sharepoint.SharepointClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of small operations whose content is negligible, so that the time and allocations measured are those of
+ * building the request and handling the response. Meant to be run with the GC profiler, which reports the
+ * allocations per operation as <code>gc.alloc.rate.norm</code>: either with <code>-prof gc</code>, or by running
+ * this class directly.
+ * <p>
+ * Allocations include those of the local server, running in the same JVM, which are the same for all versions
+ * of the client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RequestOverheadBenchmark {
+    private static final String FOLDER = "Shared Documents/Requests Overhead";
+    private static final byte[] CONTENT = new byte[1];
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        server = new MockSharepointServer();
+        server.setRecordRequests(false);
+        server.addFolder(FOLDER);
+        client = server.newClient();
+        client.authenticateWithOAuth2("client-id", "client-secret");
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public void createFolder() throws IOException, InterruptedException {
+        client.createFolder(FOLDER, "sub folder");
+    }
+
+    @Benchmark
+    public void uploadTinyFile() throws IOException, InterruptedException {
+        client.uploadFile(FOLDER, "tiny file.txt", CONTENT);
+    }
+
+    @Benchmark
+    public void deleteFile() throws IOException, InterruptedException {
+        // put back directly on the server, which is negligible next to a request
+        server.putFile(FOLDER, "deleted file.txt", CONTENT);
+        client.deleteFile(FOLDER, "deleted file.txt");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RequestOverheadBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
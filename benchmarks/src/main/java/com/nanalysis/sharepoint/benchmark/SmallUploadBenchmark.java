@@ -0,0 +1,90 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.benchmark;
+
+import com.nanalysis.sharepoint.MockSharepointServer;
+import com.nanalysis.sharepoint.SharepointClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Upload throughput: small files sent with a single request each, by concurrent threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SmallUploadBenchmark {
+    private static final String FOLDER = "Shared Documents/upload";
+    // uploads overwrite a fixed set of files, so that the server memory doesn't grow
+    private static final int FILE_NAMES = 64;
+
+    @Param({"4096", "262144"})
+    private int fileSize;
+
+    @Param({"0", "20"})
+    private int latencyMillis;
+
+    @Param({"0", "20"})
+    private int throttleEvery;
+
+    private final AtomicInteger counter = new AtomicInteger();
+    private MockSharepointServer server;
+    private SharepointClient client;
+    private byte[] data;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new MockSharepointServer();
+        server.setRecordRequests(false);
+        server.setLatency(Duration.ofMillis(latencyMillis));
+        server.setThrottleEvery(throttleEvery);
+        server.addFolder(FOLDER);
+        client = server.newClient();
+        data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void uploadSmallFiles() throws IOException, InterruptedException {
+        client.uploadFile(FOLDER, "small-" + counter.getAndIncrement() % FILE_NAMES + ".bin", data);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+
+/**
+ * Chooses upload chunk sizes from the measured upload throughput.
+ * <p>
+ * The goal is for each chunk request to last about <code>targetDuration</code>: long enough that the round trip
+ * overhead is negligible on fast links, short enough that a failed chunk is cheap to resend on slow ones.
+ * The size changes by at most a factor 2 between chunks, and is halved after a failure.
+ * <p>
+ * Files smaller than a few chunks, and than 100MB, are uploaded in a single request, so the same measurements
+ * also decide between single-shot and chunked uploads. Using equal minimum and maximum sizes disables adaptation.
+ */
+public class AdaptiveChunkSizer {
+    /** Files smaller than this many chunks are uploaded in a single request. */
+    private static final int SINGLE_SHOT_CHUNKS = 3;
+    /** Files at least this large are always uploaded in chunks, whatever the chunk size. */
+    private static final long MAX_SINGLE_SHOT_SIZE = 100L * 1024 * 1024;
+    /** Chunk sizes are rounded down to a multiple of this. */
+    private static final int ALIGNMENT = 64 * 1024;
+    /** Weight of the latest measurement in the moving averages. */
+    private static final double SMOOTHING = 0.3;
+    private static final int HISTORY_SIZE = 64;
+
+    private final int minChunkSize;
+    private final int maxChunkSize;
+    private final long targetNanos;
+
+    private int chunkSize;
+    private double throughput; // bytes per second, 0 until measured
+    private double averageNanos;
+    private long chunkCount;
+    private long failureCount;
+    private long bytesUploaded;
+    private final Deque<Integer> history = new ArrayDeque<>();
+
+    /**
+     * Adaptive chunk sizes starting at 10MB, between 1MB and 32MB, aiming for 5 seconds per chunk.
+     * Each chunk is held in memory until sent, so the maximum is kept low enough that a pipelined upload
+     * stays within a reasonable heap budget.
+     */
+    public AdaptiveChunkSizer() {
+        this(SharepointClient.UPLOAD_CHUNK_SIZE, 1024 * 1024, 32 * 1024 * 1024, Duration.ofSeconds(5));
+    }
+
+    public AdaptiveChunkSizer(int initialChunkSize, int minChunkSize, int maxChunkSize, Duration targetDuration) {
+        if (minChunkSize <= 0 || minChunkSize > maxChunkSize || initialChunkSize < minChunkSize || initialChunkSize > maxChunkSize) {
+            throw new IllegalArgumentException("Invalid chunk sizes: " + minChunkSize + " <= " + initialChunkSize + " <= " + maxChunkSize);
+        }
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.targetNanos = targetDuration.toNanos();
+        this.chunkSize = initialChunkSize;
+    }
+
+    /**
+     * A sizer that always uses the same chunk size.
+     */
+    public static AdaptiveChunkSizer fixed(int chunkSize) {
+        return new AdaptiveChunkSizer(chunkSize, chunkSize, chunkSize, Duration.ofSeconds(5));
+    }
+
+    /**
+     * @return the size to use for the next chunk.
+     */
+    public synchronized int nextChunkSize() {
+        history.addLast(chunkSize);
+        if (history.size() > HISTORY_SIZE) {
+            history.removeFirst();
+        }
+        return chunkSize;
+    }
+
+    /**
+     * @return the file size above which a chunked upload should be used.
+     */
+    public synchronized long singleShotThreshold() {
+        return Math.min((long) SINGLE_SHOT_CHUNKS * chunkSize, MAX_SINGLE_SHOT_SIZE);
+    }
+
+    /**
+     * Record a successful request, either a chunk or a single-shot upload.
+     */
+    public synchronized void recordSuccess(long bytes, long nanos) {
+        chunkCount++;
+        bytesUploaded += bytes;
+        if (nanos <= 0 || bytes <= 0) {
+            return;
+        }
+
+        double measured = bytes * 1e9 / nanos;
+        throughput = throughput == 0 ? measured : SMOOTHING * measured + (1 - SMOOTHING) * throughput;
+        averageNanos = averageNanos == 0 ? nanos : SMOOTHING * nanos + (1 - SMOOTHING) * averageNanos;
+
+        double wanted = throughput * targetNanos / 1e9;
+        if (nanos > 2 * targetNanos) {
+            // way too slow, shrink right away even if the average is still good
+            wanted = Math.min(wanted, chunkSize / 2.0);
+        }
+        resize(wanted);
+    }
+
+    /**
+     * Record a failed chunk request, the next chunks will be smaller.
+     */
+    public synchronized void recordFailure() {
+        failureCount++;
+        resize(chunkSize / 2.0);
+    }
+
+    /**
+     * @return a snapshot of the measurements and chosen sizes.
+     */
+    public synchronized UploadStats getStats() {
+        return new UploadStats(chunkSize, minChunkSize, maxChunkSize, singleShotThreshold(), throughput, averageNanos / 1e6,
+                chunkCount, failureCount, bytesUploaded, new ArrayList<>(history));
+    }
+
+    private void resize(double wanted) {
+        double bounded = Math.max(chunkSize / 2.0, Math.min(chunkSize * 2.0, wanted));
+        long aligned = (long) bounded / ALIGNMENT * ALIGNMENT;
+        chunkSize = (int) Math.max(minChunkSize, Math.min(maxChunkSize, aligned));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Collects folder and file operations, to send them with as few requests as possible using OData <code>$batch</code>.
+ * <p>
+ * Operations are executed in the order they were added, <code>batchSize</code> operations per request, one request
+ * after the other. A folder can therefore be created and filled in the same batch. A failed operation doesn't
+ * prevent the following ones from running.
+ */
+public class Batch {
+    private final SharepointClient client;
+    private final List<BatchCodec.Operation> operations = new ArrayList<>();
+    private int batchSize = 100;
+
+    public Batch(SharepointClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Set the maximum number of operations sent per request. Defaults to 100.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public void createFolder(String parent, String folderName) {
+        String path = parent + "/" + folderName;
+        operations.add(new BatchCodec.Operation("POST", client.getSiteUrl() + "/_api/web/folders",
+                new JSONObject().put("ServerRelativeUrl", path).toString(), "CREATE " + path));
+    }
+
+    public void deleteFolder(String path) {
+        operations.add(new BatchCodec.Operation("DELETE", client.folderUrl(path), null, "DELETE " + path + "/"));
+    }
+
+    public void deleteFile(String folder, String filename) {
+        operations.add(new BatchCodec.Operation("DELETE", client.fileUrl(folder, filename), null,
+                "DELETE " + folder + "/" + filename));
+    }
+
+    /**
+     * @return the number of operations waiting to be executed.
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * Execute all pending operations, see {@link #executeAsync()}.
+     */
+    public List<BatchResult> execute() throws IOException, InterruptedException {
+        return SharepointClient.await(executeAsync());
+    }
+
+    /**
+     * Execute all pending operations, and clear them.
+     * <p>
+     * The returned future holds one result per operation, in the order the operations were added. If a whole batch
+     * request fails, each of its operations reports that failure and the following batches are still sent.
+     */
+    public CompletableFuture<List<BatchResult>> executeAsync() {
+        List<BatchCodec.Operation> pending = new ArrayList<>(operations);
+        operations.clear();
+
+        List<BatchResult> results = new ArrayList<>(pending.size());
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+        for (int start = 0; start < pending.size(); start += batchSize) {
+            List<BatchCodec.Operation> chunk = pending.subList(start, Math.min(start + batchSize, pending.size()));
+            chain = chain.thenCompose(ignored -> client.sendBatchAsync(chunk)
+                    .handle((chunkResults, error) -> {
+                        if (error == null) {
+                            results.addAll(chunkResults);
+                        } else {
+                            IOException failure = asIOException(error);
+                            for (BatchCodec.Operation operation : chunk) {
+                                results.add(new BatchResult(operation.description, -1, failure));
+                            }
+                        }
+                        return null;
+                    }));
+        }
+        return chain.thenApply(ignored -> results);
+    }
+
+    private static IOException asIOException(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Encodes operations into an OData <code>$batch</code> multipart request, and decodes the multipart response.
+ * <p>
+ * Each write operation gets its own change set, so that a failure doesn't prevent the following operations from running.
+ */
+final class BatchCodec {
+    private static final String CRLF = "\r\n";
+
+    private BatchCodec() {
+    }
+
+    /**
+     * A request embedded in a batch.
+     */
+    static class Operation {
+        final String method;
+        final String url;
+        final String body;
+        final String description;
+
+        /**
+         * @param url the absolute URL of the request
+         * @param body a JSON body, or null
+         */
+        Operation(String method, String url, String body, String description) {
+            this.method = method;
+            this.url = url;
+            this.body = body;
+            this.description = description;
+        }
+    }
+
+    /**
+     * A response extracted from a batch response.
+     */
+    static class Response {
+        final int statusCode;
+        final String body;
+
+        Response(int statusCode, String body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+    }
+
+    static String newBoundary(String prefix) {
+        return prefix + "_" + UUID.randomUUID();
+    }
+
+    static String encode(String boundary, List<Operation> operations) {
+        StringBuilder builder = new StringBuilder();
+        for (Operation operation : operations) {
+            builder.append("--").append(boundary).append(CRLF);
+            if (operation.method.equals("GET")) {
+                appendRequest(builder, operation);
+            } else {
+                String changeSet = newBoundary("changeset");
+                builder.append("Content-Type: multipart/mixed; boundary=").append(changeSet).append(CRLF).append(CRLF);
+                builder.append("--").append(changeSet).append(CRLF);
+                appendRequest(builder, operation);
+                builder.append("--").append(changeSet).append("--").append(CRLF);
+            }
+        }
+        builder.append("--").append(boundary).append("--").append(CRLF);
+        return builder.toString();
+    }
+
+    private static void appendRequest(StringBuilder builder, Operation operation) {
+        builder.append("Content-Type: application/http").append(CRLF);
+        builder.append("Content-Transfer-Encoding: binary").append(CRLF).append(CRLF);
+        builder.append(operation.method).append(' ').append(operation.url).append(" HTTP/1.1").append(CRLF);
+        builder.append("Accept: application/json").append(CRLF);
+        if (operation.method.equals("DELETE")) {
+            builder.append("If-Match: *").append(CRLF);
+        }
+        if (operation.body != null) {
+            builder.append("Content-Type: application/json").append(CRLF).append(CRLF);
+            builder.append(operation.body).append(CRLF);
+        } else {
+            builder.append(CRLF);
+        }
+        builder.append(CRLF);
+    }
+
+    /**
+     * Extract the embedded responses, in order, from a batch response.
+     *
+     * @param contentType the content type of the batch response, holding the multipart boundary
+     */
+    static List<Response> decode(String contentType, String body) throws IOException {
+        List<Response> responses = new ArrayList<>();
+        parseMultipart(boundaryOf(contentType), body.replace(CRLF, "\n"), responses);
+        return responses;
+    }
+
+    private static void parseMultipart(String boundary, String body, List<Response> responses) throws IOException {
+        String delimiter = "--" + boundary;
+        int index = body.indexOf(delimiter);
+        while (index >= 0) {
+            int start = index + delimiter.length();
+            if (body.startsWith("--", start)) {
+                return;
+            }
+
+            int end = body.indexOf(delimiter, start);
+            if (end < 0) {
+                throw new IOException("Invalid batch response: missing closing boundary");
+            }
+            parsePart(body.substring(start, end).strip(), responses);
+            index = end;
+        }
+    }
+
+    private static void parsePart(String part, List<Response> responses) throws IOException {
+        int headersEnd = part.indexOf("\n\n");
+        String headers = headersEnd < 0 ? part : part.substring(0, headersEnd);
+        String content = headersEnd < 0 ? "" : part.substring(headersEnd + 2);
+
+        String contentType = headerValue(headers, "content-type");
+        if (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+            parseMultipart(boundaryOf(contentType), content, responses);
+            return;
+        }
+
+        // embedded HTTP message: status line, headers, blank line, body
+        int statusEnd = content.indexOf('\n');
+        String statusLine = statusEnd < 0 ? content : content.substring(0, statusEnd);
+        String[] status = statusLine.split(" ", 3);
+        if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+            throw new IOException("Invalid batch response, unexpected status line: " + statusLine);
+        }
+
+        int bodyStart = content.indexOf("\n\n");
+        String responseBody = bodyStart < 0 ? "" : content.substring(bodyStart + 2).strip();
+        try {
+            responses.add(new Response(Integer.parseInt(status[1]), responseBody));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid batch response, unexpected status line: " + statusLine, e);
+        }
+    }
+
+    private static String headerValue(String headers, String name) {
+        for (String line : headers.split("\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static String boundaryOf(String contentType) throws IOException {
+        for (String parameter : contentType.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.toLowerCase(Locale.ROOT).startsWith("boundary=")) {
+                String boundary = trimmed.substring("boundary=".length());
+                return boundary.startsWith("\"") && boundary.endsWith("\"") ? boundary.substring(1, boundary.length() - 1) : boundary;
+            }
+        }
+        throw new IOException("Invalid batch response, no multipart boundary in: " + contentType);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.io.IOException;
+
+/**
+ * Outcome of one operation of a {@link Batch}.
+ */
+public class BatchResult {
+    private final String operation;
+    private final int statusCode;
+    private final IOException error;
+
+    BatchResult(String operation, int statusCode, IOException error) {
+        this.operation = operation;
+        this.statusCode = statusCode;
+        this.error = error;
+    }
+
+    /**
+     * @return a description of the operation, for example "DELETE Shared Documents/file.txt".
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return the HTTP status of the operation, or -1 if it didn't get a response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return the failure, or null if the operation succeeded.
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return operation + ": " + (error == null ? "OK" : error.getMessage());
+    }
+}
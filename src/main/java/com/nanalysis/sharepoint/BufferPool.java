@@ -0,0 +1,60 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A small pool of reusable byte arrays, used to avoid allocating a new chunk buffer for each upload request.
+ * <p>
+ * Heap arrays are used rather than direct buffers, because the JDK HTTP client only publishes request bodies
+ * from byte arrays: a direct buffer would have to be copied back to the heap anyway.
+ */
+class BufferPool {
+    private final long maxRetainedBytes;
+    private final Deque<byte[]> available = new ArrayDeque<>();
+    private long retainedBytes;
+
+    BufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * Get a buffer of at least the given size, reusing a pooled one when possible.
+     */
+    synchronized byte[] acquire(int size) {
+        while (!available.isEmpty()) {
+            byte[] buffer = available.pop();
+            retainedBytes -= buffer.length;
+            if (buffer.length >= size) {
+                return buffer;
+            }
+            // too small, let it be garbage collected
+        }
+        return new byte[size];
+    }
+
+    /**
+     * Give back a buffer to the pool. Buffers which would take the pool over its size limit are dropped.
+     */
+    synchronized void release(byte[] buffer) {
+        if (buffer != null && retainedBytes + buffer.length <= maxRetainedBytes) {
+            available.push(buffer);
+            retainedBytes += buffer.length;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Follows the change log of a document library, to learn what changed since the last poll without listing folders.
+ * <p>
+ * The position in the change log is a change token, saved to a file after each page of changes so that polling
+ * resumes where it stopped, even after a restart. Changes are delivered at least once: if the consumer fails,
+ * the changes of the current page are delivered again by the next poll.
+ * <p>
+ * Sharepoint only keeps its change log for a limited time. Polling with an expired token fails, and the library
+ * should then be listed again before starting over with a new feed.
+ */
+public class ChangeFeed {
+    private final SharepointClient client;
+    private final String listTitle;
+    private final Path tokenFile;
+    private volatile String token;
+    private int pageSize = 1000;
+    private String folder;
+
+    /**
+     * @param listTitle the title of the document library, for example "Documents"
+     * @param tokenFile where the change token is kept between polls, or null to only keep it in memory
+     */
+    public ChangeFeed(SharepointClient client, String listTitle, Path tokenFile) throws IOException {
+        this.client = client;
+        this.listTitle = listTitle;
+        this.tokenFile = tokenFile;
+        if (tokenFile != null && Files.isRegularFile(tokenFile)) {
+            String saved = Files.readString(tokenFile, StandardCharsets.UTF_8).trim();
+            this.token = saved.isEmpty() ? null : saved;
+        }
+    }
+
+    /**
+     * @return the current position in the change log, or null if the feed was never polled.
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Set the position in the change log, for example to a token received with a {@link RemoteChange}.
+     */
+    public void setToken(String token) throws IOException {
+        this.token = token;
+        saveToken();
+    }
+
+    /**
+     * Set the maximum number of changes fetched per request. Defaults to 1000.
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1: " + pageSize);
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Only report changes to items below the given folder. Changes whose path is unknown are always reported.
+     */
+    public void setFolder(String folder) {
+        this.folder = folder == null || folder.endsWith("/") ? folder : folder + "/";
+    }
+
+    /**
+     * Stream the changes made since the last poll, oldest first, then save the new position.
+     * <p>
+     * The first poll of a new feed only records the current position, and doesn't report anything.
+     *
+     * @return the number of changes handed to the consumer
+     */
+    public synchronized int poll(Consumer<RemoteChange> consumer) throws IOException, InterruptedException {
+        if (token == null) {
+            token = SharepointClient.await(client.getCurrentChangeTokenAsync(listTitle));
+            saveToken();
+            return 0;
+        }
+
+        int delivered = 0;
+        while (true) {
+            JSONObject query = new JSONObject()
+                    .put("Add", true)
+                    .put("Update", true)
+                    .put("DeleteObject", true)
+                    .put("Rename", true)
+                    .put("Restore", true)
+                    .put("Move", true)
+                    .put("Item", true)
+                    .put("FetchLimit", pageSize)
+                    .put("ChangeTokenStart", new JSONObject().put("StringValue", token));
+
+            AtomicInteger received = new AtomicInteger();
+            AtomicInteger accepted = new AtomicInteger();
+            AtomicReference<String> lastToken = new AtomicReference<>();
+            SharepointClient.await(client.getChangesAsync(listTitle, query, json -> {
+                RemoteChange change = RemoteChange.fromJson(json, client::toSitePath);
+                received.incrementAndGet();
+                if (folder == null || change.getPath() == null || (change.getPath() + "/").startsWith(folder)) {
+                    consumer.accept(change);
+                    accepted.incrementAndGet();
+                }
+                if (change.getToken() != null) {
+                    lastToken.set(change.getToken());
+                }
+            }));
+
+            delivered += accepted.get();
+            if (lastToken.get() != null) {
+                token = lastToken.get();
+                saveToken();
+            }
+            if (received.get() < pageSize || lastToken.get() == null) {
+                return delivered;
+            }
+        }
+    }
+
+    private void saveToken() throws IOException {
+        if (tokenFile == null) {
+            return;
+        }
+
+        Path parent = tokenFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, tokenFile.getFileName().toString(), ".tmp");
+        Files.writeString(temp, token == null ? "" : token, StandardCharsets.UTF_8);
+        Files.move(temp, tokenFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Writes a response body directly to a channel, without copying it to intermediate arrays.
+ * <p>
+ * With a position, the content is written at that offset of a file channel, which allows several responses
+ * to write to different parts of the same file concurrently. The body value is the number of bytes written.
+ */
+class ChannelBodySubscriber implements HttpResponse.BodySubscriber<Long> {
+    private final WritableByteChannel channel;
+    private final long start;
+    private final MessageDigest digest;
+    private final CompletableFuture<Long> result = new CompletableFuture<>();
+    private Flow.Subscription subscription;
+    private long written;
+
+    /**
+     * @param channel where to write the content
+     * @param start   the position in the file to write to, or a negative value to write sequentially in any channel
+     * @param digest  updated with the content if not null
+     */
+    ChannelBodySubscriber(WritableByteChannel channel, long start, MessageDigest digest) {
+        if (start >= 0 && !(channel instanceof FileChannel)) {
+            throw new IllegalArgumentException("Positional writes require a file channel");
+        }
+        this.channel = channel;
+        this.start = start;
+        this.digest = digest;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        try {
+            for (ByteBuffer buffer : buffers) {
+                if (digest != null) {
+                    digest.update(buffer.duplicate());
+                }
+                while (buffer.hasRemaining()) {
+                    if (start >= 0) {
+                        written += ((FileChannel) channel).write(buffer, start + written);
+                    } else {
+                        written += channel.write(buffer);
+                    }
+                }
+            }
+            subscription.request(1);
+        } catch (IOException e) {
+            subscription.cancel();
+            result.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        result.complete(written);
+    }
+
+    @Override
+    public CompletionStage<Long> getBody() {
+        return result;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Chunked upload using the placeholder, StartUpload, ContinueUpload, FinishUpload protocol.
+ * <p>
+ * Reading from the input and sending to the server are pipelined: a reader thread fills pooled buffers
+ * up to <code>pipelineDepth</code> chunks ahead, while the calling thread sends them. SharePoint requires
+ * chunks of the same upload to be received in order, so there is only one request in flight at a time.
+ * <p>
+ * Chunk sizes are chosen by an {@link AdaptiveChunkSizer}, which is fed with the duration of each request.
+ * <p>
+ * When an {@link UploadJournal} is given, each acknowledged offset is recorded so that the upload can be resumed later.
+ */
+class ChunkedUploader {
+    private static final byte[] PLACEHOLDER = "PLACEHOLDER".getBytes();
+
+    private final SharepointClient client;
+    private final BufferPool pool;
+    private final AdaptiveChunkSizer sizer;
+    private final int pipelineDepth;
+
+    ChunkedUploader(SharepointClient client, BufferPool pool, AdaptiveChunkSizer sizer, int pipelineDepth) {
+        this.client = client;
+        this.pool = pool;
+        this.sizer = sizer;
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    void upload(String folder, String filename, long size, InputStream input, Consumer<Double> progressCallback)
+            throws IOException, InterruptedException {
+        upload(folder, filename, size, input, progressCallback, null);
+    }
+
+    /**
+     * Upload with a journal. If the journal is resumable, the input must already be positioned at the journal offset.
+     */
+    void upload(String folder, String filename, long size, InputStream input, Consumer<Double> progressCallback, UploadJournal journal)
+            throws IOException, InterruptedException {
+        long startOffset = journal != null && journal.isResumable() ? journal.getOffset() : 0;
+        BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(pipelineDepth);
+        Thread reader = new Thread(() -> readChunks(input, startOffset, queue), "sharepoint-chunk-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        try {
+            sendChunks(folder, filename, size, queue, progressCallback, journal);
+        } finally {
+            reader.interrupt();
+            // the reader must be gone before returning, or it could keep reading from a closed input
+            boolean interrupted = false;
+            while (reader.isAlive()) {
+                try {
+                    reader.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            // give back buffers that were read but won't be sent
+            releaseQueued(queue);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void releaseQueued(BlockingQueue<Chunk> queue) {
+        Chunk remaining;
+        while ((remaining = queue.poll()) != null) {
+            pool.release(remaining.buffer);
+        }
+    }
+
+    private void sendChunks(String folder, String filename, long size, BlockingQueue<Chunk> queue, Consumer<Double> progressCallback,
+                            UploadJournal journal) throws IOException, InterruptedException {
+        Chunk chunk = take(queue);
+        if (chunk.last && chunk.offset == 0) {
+            // everything fits in a single chunk, no need for a chunked upload
+            try {
+                long start = System.nanoTime();
+                client.uploadFile(folder, filename, chunk.buffer, chunk.length);
+                sizer.recordSuccess(chunk.length, System.nanoTime() - start);
+            } finally {
+                pool.release(chunk.buffer);
+            }
+            if (journal != null) {
+                journal.delete();
+            }
+            return;
+        }
+
+        String uid;
+        if (chunk.offset > 0) {
+            // resuming, the placeholder and the first chunks are already on the server
+            uid = journal.getUploadId();
+        } else {
+            // create small file first, it will be overwritten later
+            client.uploadFile(folder, filename, PLACEHOLDER);
+            uid = UUID.randomUUID().toString();
+            if (journal != null) {
+                journal.start(uid);
+            }
+        }
+
+        String fileUrl = client.fileUrl(folder, filename);
+        while (true) {
+            URI uri;
+            if (chunk.offset == 0) {
+                // first chunk, start upload
+                uri = URI.create(fileUrl + "/StartUpload(uploadID='" + uid + "')");
+            } else if (!chunk.last) {
+                // next chunk, continue upload
+                uri = URI.create(fileUrl + "/ContinueUpload(uploadID='" + uid + "',fileOffset=" + chunk.offset + ")");
+            } else {
+                // last chunk, finish upload
+                uri = URI.create(fileUrl + "/FinishUpload(uploadID='" + uid + "',fileOffset=" + chunk.offset + ")");
+            }
+
+            try {
+                long start = System.nanoTime();
+                client.post(uri, chunk.buffer, chunk.length);
+                sizer.recordSuccess(chunk.length, System.nanoTime() - start);
+            } catch (IOException e) {
+                sizer.recordFailure();
+                throw e;
+            } finally {
+                pool.release(chunk.buffer);
+            }
+
+            long uploaded = chunk.offset + chunk.length;
+            if (size > 0) {
+                progressCallback.accept(100d * uploaded / size);
+            }
+            if (chunk.last) {
+                if (journal != null) {
+                    journal.delete();
+                }
+                return;
+            }
+            if (journal != null) {
+                journal.acknowledge(uploaded);
+            }
+            chunk = take(queue);
+        }
+    }
+
+    private Chunk take(BlockingQueue<Chunk> queue) throws IOException, InterruptedException {
+        Chunk chunk = queue.take();
+        if (chunk.error != null) {
+            throw new IOException("Unable to read upload content: " + chunk.error.getMessage(), chunk.error);
+        }
+        return chunk;
+    }
+
+    private void readChunks(InputStream input, long startOffset, BlockingQueue<Chunk> queue) {
+        // buffers owned by this thread, not yet handed over to the queue
+        byte[] buffer = null;
+        Chunk pending = null;
+        try {
+            long offset = startOffset;
+            while (true) {
+                int chunkSize = sizer.nextChunkSize();
+                buffer = pool.acquire(chunkSize);
+                int nread = input.readNBytes(buffer, 0, chunkSize);
+                if (nread == 0) {
+                    // end of stream reached exactly on a chunk boundary
+                    pool.release(buffer);
+                    buffer = null;
+                    Chunk last = pending != null ? pending : new Chunk(new byte[0], 0, offset);
+                    queue.put(last.markLast());
+                    pending = null;
+                    return;
+                }
+
+                if (pending != null) {
+                    queue.put(pending);
+                }
+                pending = new Chunk(buffer, nread, offset);
+                buffer = null;
+                offset += nread;
+
+                if (nread < chunkSize) {
+                    // short read means end of stream
+                    queue.put(pending.markLast());
+                    pending = null;
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // upload was aborted, nothing to do
+        } catch (Throwable e) {
+            // whatever the failure, the sending thread must be told or it would wait forever
+            releaseQueued(queue);
+            queue.offer(new Chunk(e instanceof IOException ? (IOException) e : new IOException(e)));
+        } finally {
+            pool.release(buffer);
+            if (pending != null) {
+                pool.release(pending.buffer);
+            }
+        }
+    }
+
+    private static class Chunk {
+        private final byte[] buffer;
+        private final int length;
+        private final long offset;
+        private final IOException error;
+        private boolean last;
+
+        Chunk(byte[] buffer, int length, long offset) {
+            this.buffer = buffer;
+            this.length = length;
+            this.offset = offset;
+            this.error = null;
+        }
+
+        Chunk(IOException error) {
+            this.buffer = null;
+            this.length = 0;
+            this.offset = 0;
+            this.error = error;
+        }
+
+        Chunk markLast() {
+            this.last = true;
+            return this;
+        }
+    }
+}
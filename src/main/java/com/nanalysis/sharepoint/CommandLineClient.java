@@ -15,15 +15,17 @@
  */
 package com.nanalysis.sharepoint;
 
+
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class CommandLineClient {
     private static final String UPLOAD_FOLDER = "upload-folder";
@@ -31,44 +33,88 @@ public class CommandLineClient {
     private static final String LIST_FOLDERS = "list-folders";
     private static final String LIST_FILES = "list-files";
     private static final String DOWNLOAD = "download";
+    private static final String LIST_TREE = "list-tree";
+    private static final String SYNC = "sync";
+    private static final String BULK_DELETE = "bulk-delete";
+    private static final String CREATE_FOLDERS = "create-folders";
+    private static final String COPY = "copy";
+    private static final String MOVE = "move";
 
-    // use chucked upload if file is bigger than that
-    private static final int FILE_SIZE_THRESHOLD = 30 * 1024 * 1024; // 30MB
+    private static final String PARALLEL_OPTION = "--parallel";
+    private static final String JOURNAL_OPTION = "--journal";
+    private static final String DELETE_OPTION = "--delete";
+    private static final String FULL_SCAN_OPTION = "--full-scan";
+    private static final String STATE_OPTION = "--state";
+    private static final String BATCH_OPTION = "--batch";
+    private static final String TOKEN_CACHE_OPTION = "--token-cache";
+    private static final String OVERWRITE_OPTION = "--overwrite";
+    private static final String POLL_OPTION = "--poll";
+    private static final String ARCHIVE_OPTION = "--archive";
+    private static final String EXTRACT_OPTION = "--extract";
 
     private static void uploadFolder(SharepointClient sharepoint, String[] options) throws Exception {
-        if (options.length != 3) {
-            throw new IllegalArgumentException(UPLOAD_FOLDER + " options are: <remote-parent> <new-folder-name> <local-path>");
+        List<String> arguments = new ArrayList<>(Arrays.asList(options));
+        boolean archive = extractFlag(arguments, ARCHIVE_OPTION);
+        if (archive && (arguments.contains(PARALLEL_OPTION) || arguments.contains(JOURNAL_OPTION))) {
+            // an archive is a single sequential upload, which can't be resumed
+            throw new IllegalArgumentException(ARCHIVE_OPTION + " can't be combined with " + PARALLEL_OPTION + " or " + JOURNAL_OPTION);
+        }
+        int parallelism = extractIntOption(arguments, PARALLEL_OPTION, 1);
+        String journalDirectory = extractOption(arguments, JOURNAL_OPTION, null);
+        if (arguments.size() != 3) {
+            throw new IllegalArgumentException(UPLOAD_FOLDER + " options are: <local-path> <remote-parent> <new-folder-name> ["
+                    + PARALLEL_OPTION + " N] [" + JOURNAL_OPTION + " <journal-dir>] [" + ARCHIVE_OPTION + "]");
         }
 
-        String localPath = options[0];
-        String remotePath = options[1];
-        String folderName = options[2];
+        String localPath = arguments.get(0);
+        String remotePath = arguments.get(1);
+        String folderName = arguments.get(2);
 
         File local = new File(localPath);
         if (!local.isDirectory()) {
             throw new IOException("Not a valid local directory: " + local.getAbsolutePath());
         }
 
+        if (archive) {
+            // the whole tree as a single file, instead of one request per file
+            System.out.println("Uploading archive: " + remotePath + "/" + folderName + ".zip");
+            sharepoint.uploadArchive(remotePath, folderName + ".zip", local.toPath());
+            System.out.println("Upload stats: " + sharepoint.getUploadStats());
+            return;
+        }
+
         File[] files = local.listFiles(File::isFile);
         if (files == null) {
             throw new IOException("Unable to list files in " + local.getAbsolutePath());
         }
 
+        if (journalDirectory != null) {
+            sharepoint.setUploadJournalDirectory(Path.of(journalDirectory));
+        }
+
         String path = remotePath + "/" + folderName;
         System.out.println("Creating folder: " + path);
         sharepoint.createFolder(remotePath, folderName);
 
-        for (File f : files) {
-            System.out.println("Uploading: " + f.getName());
-            if(f.length() < FILE_SIZE_THRESHOLD) {
-                sharepoint.uploadFile(path, f.getName(), f);
-            } else {
-                try(FileInputStream input = new FileInputStream(f)) {
-                    sharepoint.uploadBigFile(path, f.getName(), f.length(), input,
-                            percent -> System.out.printf("\r... %.2f%%%n", percent));
+        sharepoint.uploadFiles(path, Arrays.asList(files), parallelism, new UploadListener() {
+            @Override
+            public void fileCompleted(int index, File file, Exception error) {
+                if (error == null) {
+                    System.out.printf("Uploaded (%d/%d): %s%n", index + 1, files.length, file.getName());
+                } else {
+                    System.out.printf("Failed (%d/%d): %s: %s%n", index + 1, files.length, file.getName(), error.getMessage());
                 }
             }
-        }
+
+            @Override
+            public void fileProgress(File file, double percent) {
+                // progress of concurrent uploads would be interleaved, only show it when uploading one file at a time
+                if (parallelism == 1) {
+                    System.out.printf("\r... %.2f%%%n", percent);
+                }
+            }
+        });
+        System.out.println("Upload stats: " + sharepoint.getUploadStats());
     }
 
     private static void deleteFolder(SharepointClient sharepoint, String[] options) throws Exception {
@@ -101,16 +147,204 @@ public class CommandLineClient {
         files.forEach(System.out::println);
     }
 
+    private static void listTree(SharepointClient sharepoint, String[] options) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(options));
+        int parallelism = extractIntOption(arguments, PARALLEL_OPTION, 8);
+        if (arguments.size() != 1) {
+            throw new IllegalArgumentException(LIST_TREE + " options are: <remote-path> [" + PARALLEL_OPTION + " N]");
+        }
+
+        try (Stream<RemoteItem> items = sharepoint.walk(arguments.get(0), parallelism)) {
+            items.forEach(System.out::println);
+        }
+    }
+
     private static void download(SharepointClient sharepoint, String[] options) throws Exception {
-        if (options.length != 2) {
-            throw new IllegalArgumentException(LIST_FILES + " options are: <remote-parent> <file-name>");
+        List<String> arguments = new ArrayList<>(Arrays.asList(options));
+        String extractDirectory = extractOption(arguments, EXTRACT_OPTION, null);
+        if (extractDirectory != null && arguments.contains(PARALLEL_OPTION)) {
+            // archives are extracted while they are received, in order
+            throw new IllegalArgumentException(EXTRACT_OPTION + " can't be combined with " + PARALLEL_OPTION);
+        }
+        int parallelism = extractIntOption(arguments, PARALLEL_OPTION, 1);
+        if (arguments.size() != 2) {
+            throw new IllegalArgumentException(DOWNLOAD + " options are: <remote-parent> <file-name> [" + PARALLEL_OPTION + " N] ["
+                    + EXTRACT_OPTION + " <local-dir>]");
         }
 
-        String folder = options[0];
-        String fileName = options[1];
+        String folder = arguments.get(0);
+        String fileName = arguments.get(1);
         System.out.println("Downloading file: " + fileName);
-        try(InputStream input = sharepoint.download(folder, fileName)) {
-            Files.copy(input, Path.of(fileName), StandardCopyOption.REPLACE_EXISTING);
+        if (extractDirectory != null) {
+            int files = sharepoint.downloadArchive(folder, fileName, Path.of(extractDirectory));
+            System.out.println("Extracted " + files + " files to " + extractDirectory);
+        } else if (parallelism > 1) {
+            sharepoint.downloadSegmented(folder, fileName, Path.of(fileName), parallelism);
+        } else {
+            DownloadResult result = sharepoint.downloadTo(folder, fileName, Path.of(fileName));
+            System.out.println("Downloaded " + result);
+        }
+    }
+
+    private static void sync(SharepointClient sharepoint, String[] options) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(options));
+        int parallelism = extractIntOption(arguments, PARALLEL_OPTION, 4);
+        String stateFile = extractOption(arguments, STATE_OPTION, null);
+        boolean delete = extractFlag(arguments, DELETE_OPTION);
+        boolean fullScan = extractFlag(arguments, FULL_SCAN_OPTION);
+        if (arguments.size() != 3 || !(arguments.get(0).equals("push") || arguments.get(0).equals("pull"))) {
+            throw new IllegalArgumentException(SYNC + " options are: push|pull <local-path> <remote-path> [" + PARALLEL_OPTION + " N] ["
+                    + DELETE_OPTION + "] [" + FULL_SCAN_OPTION + "] [" + STATE_OPTION + " <state-file>]");
+        }
+
+        FolderSync sync = new FolderSync(sharepoint, Path.of(arguments.get(1)), arguments.get(2));
+        sync.setParallelism(parallelism);
+        sync.setDeleteExtraneous(delete);
+        sync.setFullScan(fullScan);
+        if (stateFile != null) {
+            sync.setStateFile(Path.of(stateFile));
+        }
+        sync.setListener((action, path, error) -> {
+            if (error == null) {
+                System.out.println(action + ": " + path);
+            } else {
+                System.out.println(action + " failed: " + path + ": " + error.getMessage());
+            }
+        });
+
+        SyncReport report = arguments.get(0).equals("push") ? sync.push() : sync.pull();
+        System.out.println("Synchronized: " + report);
+        if (!report.getFailures().isEmpty()) {
+            throw new IOException(report.getFailures().size() + " operations failed");
+        }
+    }
+
+    private static void bulkDelete(SharepointClient sharepoint, String[] options) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(options));
+        int batchSize = extractIntOption(arguments, BATCH_OPTION, 100);
+        if (arguments.size() != 1) {
+            throw new IllegalArgumentException(BULK_DELETE + " options are: <remote-path> [" + BATCH_OPTION + " N]");
+        }
+
+        String path = arguments.get(0);
+        Batch batch = new Batch(sharepoint);
+        batch.setBatchSize(batchSize);
+        List<String> folders = new ArrayList<>();
+        try (Stream<RemoteItem> items = sharepoint.walk(path)) {
+            items.forEach(item -> {
+                if (item.isFolder()) {
+                    folders.add(item.getPath());
+                } else {
+                    batch.deleteFile(item.getFolder(), item.getName());
+                }
+            });
+        }
+
+        // files first, then folders from the deepest, so that no request has to delete a large tree at once
+        folders.sort(Comparator.comparingLong((String folder) -> folder.chars().filter(c -> c == '/').count()).reversed());
+        folders.forEach(batch::deleteFolder);
+        batch.deleteFolder(path);
+
+        System.out.println("Deleting " + batch.size() + " files and folders");
+        printBatchResults(batch.execute());
+    }
+
+    private static void createFolders(SharepointClient sharepoint, String[] options) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(options));
+        int batchSize = extractIntOption(arguments, BATCH_OPTION, 100);
+        if (arguments.size() != 2) {
+            throw new IllegalArgumentException(CREATE_FOLDERS + " options are: <local-path> <remote-parent> [" + BATCH_OPTION + " N]");
+        }
+
+        Path local = Path.of(arguments.get(0));
+        if (!Files.isDirectory(local)) {
+            throw new IOException("Not a valid local directory: " + local.toAbsolutePath());
+        }
+
+        // sorted paths put each folder after its parent, and a batch runs its operations in order
+        Batch batch = new Batch(sharepoint);
+        batch.setBatchSize(batchSize);
+        String remoteParent = arguments.get(1);
+        Path base = local.toAbsolutePath().normalize().getParent();
+        try (Stream<Path> directories = Files.walk(local.toAbsolutePath().normalize()).filter(Files::isDirectory).sorted()) {
+            directories.forEach(directory -> {
+                String relative = base.relativize(directory).toString().replace(File.separatorChar, '/');
+                int index = relative.lastIndexOf('/');
+                batch.createFolder(index < 0 ? remoteParent : remoteParent + "/" + relative.substring(0, index),
+                        relative.substring(index + 1));
+            });
+        }
+
+        System.out.println("Creating " + batch.size() + " folders");
+        printBatchResults(batch.execute());
+    }
+
+    private static void copy(SharepointClient sharepoint, String[] options, boolean move) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(options));
+        boolean overwrite = extractFlag(arguments, OVERWRITE_OPTION);
+        int pollSeconds = extractIntOption(arguments, POLL_OPTION, 5);
+        if (arguments.size() < 2) {
+            throw new IllegalArgumentException((move ? MOVE : COPY) + " options are: <remote-path>... <remote-target-folder> ["
+                    + OVERWRITE_OPTION + "] [" + POLL_OPTION + " <seconds>]");
+        }
+
+        // copy jobs handle files and folders alike, and trees of any size
+        CopyJob job = new CopyJob(sharepoint, arguments.remove(arguments.size() - 1));
+        arguments.forEach(job::add);
+        job.setMove(move);
+        job.setOverwrite(overwrite);
+        job.setPollInterval(Duration.ofSeconds(pollSeconds));
+        job.setLogListener(log -> System.out.println(log.optString("Event") + " " + log.optString("Message")));
+
+        System.out.println((move ? "Moving " : "Copying ") + arguments.size() + " items");
+        job.run();
+    }
+
+    private static void printBatchResults(List<BatchResult> results) throws IOException {
+        long failures = results.stream().filter(result -> !result.isSuccess()).peek(System.out::println).count();
+        System.out.println((results.size() - failures) + " of " + results.size() + " operations succeeded");
+        if (failures > 0) {
+            throw new IOException(failures + " operations failed");
+        }
+    }
+
+    /**
+     * Remove "name value" from the argument list if present, and return the value.
+     */
+    private static String extractOption(List<String> arguments, String name, String defaultValue) {
+        int index = arguments.indexOf(name);
+        if (index < 0) {
+            return defaultValue;
+        }
+        if (index + 1 >= arguments.size()) {
+            throw new IllegalArgumentException("Missing value for " + name);
+        }
+
+        String value = arguments.remove(index + 1);
+        arguments.remove(index);
+        return value;
+    }
+
+    /**
+     * Remove "name" from the argument list if present, and return whether it was.
+     */
+    private static boolean extractFlag(List<String> arguments, String name) {
+        return arguments.remove(name);
+    }
+
+    /**
+     * Remove "name value" from the argument list if present, and return the value as an integer.
+     */
+    private static int extractIntOption(List<String> arguments, String name, int defaultValue) {
+        String value = extractOption(arguments, name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
         }
     }
 
@@ -128,9 +362,27 @@ public class CommandLineClient {
             case LIST_FILES:
                 listFiles(sharepoint, options);
                 break;
+            case LIST_TREE:
+                listTree(sharepoint, options);
+                break;
             case DOWNLOAD:
                 download(sharepoint, options);
                 break;
+            case SYNC:
+                sync(sharepoint, options);
+                break;
+            case BULK_DELETE:
+                bulkDelete(sharepoint, options);
+                break;
+            case CREATE_FOLDERS:
+                createFolders(sharepoint, options);
+                break;
+            case COPY:
+                copy(sharepoint, options, false);
+                break;
+            case MOVE:
+                copy(sharepoint, options, true);
+                break;
             default:
                 throw new IllegalArgumentException("Unknown action: " + action);
         }
@@ -142,12 +394,21 @@ public class CommandLineClient {
             System.err.println("Authentication methods are: ");
             System.err.println(" - user: uses login and password access");
             System.err.println(" - api: uses OAuth2 with client id and client secret");
+            System.err.println("Global options: [" + TOKEN_CACHE_OPTION + " <dir>] keeps the access token in an encrypted file, and the tenant realm, to reuse them");
             System.err.println("Possible actions are: ");
-            System.err.println("- " + UPLOAD_FOLDER + " <local-path> <remote-path> <new-folder-name>");
+            System.err.println("- " + UPLOAD_FOLDER + " <local-path> <remote-path> <new-folder-name> [" + PARALLEL_OPTION + " N] ["
+                    + JOURNAL_OPTION + " <journal-dir>] [" + ARCHIVE_OPTION + "]");
             System.err.println("- " + DELETE_FOLDER + " <remote-path>");
             System.err.println("- " + LIST_FOLDERS + " <remote-path>");
             System.err.println("- " + LIST_FILES + " <remote-path>");
-            System.err.println("- " + DOWNLOAD + " <remote-folder-path> <file-name>");
+            System.err.println("- " + LIST_TREE + " <remote-path> [" + PARALLEL_OPTION + " N]");
+            System.err.println("- " + DOWNLOAD + " <remote-folder-path> <file-name> [" + PARALLEL_OPTION + " N] [" + EXTRACT_OPTION + " <local-dir>]");
+            System.err.println("- " + SYNC + " push|pull <local-path> <remote-path> [" + PARALLEL_OPTION + " N] [" + DELETE_OPTION + "] ["
+                    + FULL_SCAN_OPTION + "] [" + STATE_OPTION + " <state-file>]");
+            System.err.println("- " + BULK_DELETE + " <remote-path> [" + BATCH_OPTION + " N]");
+            System.err.println("- " + CREATE_FOLDERS + " <local-path> <remote-parent> [" + BATCH_OPTION + " N]");
+            System.err.println("- " + COPY + " <remote-path>... <remote-target-folder> [" + OVERWRITE_OPTION + "] [" + POLL_OPTION + " <seconds>]");
+            System.err.println("- " + MOVE + " <remote-path>... <remote-target-folder> [" + OVERWRITE_OPTION + "] [" + POLL_OPTION + " <seconds>]");
             System.err.println();
             System.err.println("examples:");
             System.err.println("> java -jar sharepoint-client.jar https://xxx.sharepoint.com ProductDevelopment user you@company.com password " + UPLOAD_FOLDER + " /tmp/folder \"Shared Documents/Software/Temporary\" \"NewFolder\"");
@@ -161,10 +422,16 @@ public class CommandLineClient {
         String login = args[3];
         String password = args[4];
         String action = args[5];
-        String[] options = Arrays.copyOfRange(args, 6, args.length);
+        List<String> arguments = new ArrayList<>(Arrays.asList(args).subList(6, args.length));
 
         try {
+            String tokenCacheDirectory = extractOption(arguments, TOKEN_CACHE_OPTION, null);
+            String[] options = arguments.toArray(new String[0]);
+
             SharepointClient sharepoint = new SharepointClient(baseUrl, site);
+            if (tokenCacheDirectory != null) {
+                sharepoint.setTokenCacheDirectory(Path.of(tokenCacheDirectory));
+            }
             if(authMethod.equalsIgnoreCase("user")) {
                 sharepoint.authenticateWithUserCredentials(login, password);
             } else if(authMethod.equalsIgnoreCase("api")) {
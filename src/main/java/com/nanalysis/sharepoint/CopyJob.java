@@ -0,0 +1,192 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Copies or moves files and folders with server side copy jobs, for trees too large to be copied within a single
+ * request. Nothing goes through the client, and the version history of files is kept.
+ * <p>
+ * Sharepoint runs the jobs in the background: {@link #run()} starts them, then polls their progress until all are
+ * done. Errors of individual items don't stop a job, they are collected and reported once all jobs are done.
+ */
+public class CopyJob {
+    /** A job is done once its state is back to none, after being queued then processed. */
+    private static final int JOB_STATE_NONE = 0;
+
+    private final SharepointClient client;
+    private final String targetFolder;
+    private final List<String> sources = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+    private boolean move;
+    private boolean overwrite;
+    private boolean keepVersionHistory = true;
+    private Duration pollInterval = Duration.ofSeconds(5);
+    private Duration timeout = Duration.ofHours(2);
+    private Consumer<JSONObject> logListener = log -> {
+    };
+
+    /**
+     * @param targetFolder the folder receiving the copied items, relative to the site like all other paths,
+     *                     or an absolute URL to copy to another site
+     */
+    public CopyJob(SharepointClient client, String targetFolder) {
+        this.client = client;
+        this.targetFolder = targetFolder;
+    }
+
+    /**
+     * Add a file or a folder to copy, with everything it contains.
+     */
+    public void add(String path) {
+        sources.add(path);
+    }
+
+    /**
+     * Move items instead of copying them: sources are deleted once copied. Defaults to false.
+     */
+    public void setMove(boolean move) {
+        this.move = move;
+    }
+
+    /**
+     * Replace existing items of the target folder, instead of failing for them. Defaults to false.
+     */
+    public void setOverwrite(boolean overwrite) {
+        this.overwrite = overwrite;
+    }
+
+    /**
+     * Copy all versions of files, or only the latest one. Defaults to true.
+     */
+    public void setKeepVersionHistory(boolean keepVersionHistory) {
+        this.keepVersionHistory = keepVersionHistory;
+    }
+
+    /**
+     * Set the pause between two polls of the job progress. Defaults to 5 seconds.
+     */
+    public void setPollInterval(Duration pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Set how long {@link #run()} waits for the jobs to be done before giving up. Defaults to 2 hours.
+     * Jobs still running on the server are not cancelled, they can only be stopped from SharePoint.
+     */
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Receive each entry of the job logs, as JSON objects with at least an <code>Event</code>, for example
+     * <code>JobStart</code>, <code>JobEnd</code> or <code>JobError</code>.
+     */
+    public void setLogListener(Consumer<JSONObject> logListener) {
+        this.logListener = logListener;
+    }
+
+    /**
+     * Start the copy and wait until it is done. Interrupting the calling thread stops waiting.
+     *
+     * @throws IOException          if the jobs couldn't be started or polled, or if any item failed to be copied
+     * @throws HttpTimeoutException if the jobs are still running once the timeout has elapsed
+     */
+    public void run() throws IOException, InterruptedException {
+        errors.clear();
+        if (sources.isEmpty()) {
+            return;
+        }
+
+        List<String> sourceUrls = new ArrayList<>(sources.size());
+        for (String source : sources) {
+            sourceUrls.add(client.absoluteUrl(source));
+        }
+        JSONObject options = new JSONObject()
+                .put("IsMoveMode", move)
+                .put("IgnoreVersionHistory", !keepVersionHistory)
+                .put("AllowSchemaMismatch", true)
+                .put("NameConflictBehavior", overwrite ? 1 : 0);
+
+        try {
+            List<JSONObject> pending = new ArrayList<>(SharepointClient.await(
+                    client.createCopyJobsAsync(sourceUrls, client.absoluteUrl(targetFolder), options)));
+            long deadline = System.nanoTime() + timeout.toNanos();
+            while (!pending.isEmpty()) {
+                if (System.nanoTime() - deadline >= 0) {
+                    throw new HttpTimeoutException(pending.size() + " copy job(s) to " + targetFolder
+                            + " still running after " + timeout);
+                }
+                Thread.sleep(pollInterval.toMillis());
+                for (int i = pending.size() - 1; i >= 0; i--) {
+                    JSONObject progress = SharepointClient.await(client.getCopyJobProgressAsync(pending.get(i)));
+                    readLogs(progress.optJSONArray("Logs"));
+                    if (progress.optInt("JobState", JOB_STATE_NONE) == JOB_STATE_NONE) {
+                        pending.remove(i);
+                    }
+                }
+            }
+        } finally {
+            client.invalidateListings();
+        }
+
+        if (!errors.isEmpty()) {
+            throw new IOException(errors.size() + " error(s) while copying to " + targetFolder + ", first one: " + errors.get(0));
+        }
+    }
+
+    /**
+     * @return the error messages of the last run.
+     */
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * Logs are JSON objects serialized as strings, only returned once: later polls only return new entries.
+     */
+    private void readLogs(JSONArray logs) {
+        if (logs == null) {
+            return;
+        }
+
+        for (int i = 0; i < logs.length(); i++) {
+            JSONObject log;
+            try {
+                log = new JSONObject(logs.getString(i));
+            } catch (JSONException e) {
+                log = new JSONObject().put("Event", "Unknown").put("Message", logs.get(i).toString());
+            }
+
+            String event = log.optString("Event");
+            if (event.equals("JobError") || event.equals("JobFatalError")) {
+                errors.add(log.optString("Message", event));
+            }
+            logListener.accept(log);
+        }
+    }
+}
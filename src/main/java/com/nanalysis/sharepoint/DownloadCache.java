@@ -0,0 +1,333 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Keeps downloaded files on disk, so that downloading the same file again only costs a conditional request.
+ * <p>
+ * Entries are keyed by the URL of the file, and remember its ETag: a cached file is revalidated with
+ * <code>If-None-Match</code>, and only downloaded again if the server doesn't answer 304 Not Modified.
+ * When the cached files exceed the maximum size, the least recently used ones are evicted.
+ * <p>
+ * Concurrent downloads of the same file are coalesced into a single request. Several processes can share the same
+ * directory: entries are only read and replaced under file locks, although two processes may still download the same
+ * file at the same time. Within a process, all clients should share the same instance for a given directory.
+ */
+public class DownloadCache {
+    private static final String DATA_SUFFIX = ".data";
+    private static final String METADATA_SUFFIX = ".properties";
+    /** Entries are locked by stripes, to bound the number of lock files. */
+    private static final int LOCK_STRIPES = 16;
+
+    private final Path directory;
+    private final long maxSize;
+    private final Object[] stripes = new Object[LOCK_STRIPES];
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong downloads = new AtomicLong();
+
+    /**
+     * @param directory where files are cached, created if needed
+     * @param maxSize   the total size of cached files above which the least recently used ones are evicted
+     */
+    public DownloadCache(Path directory, long maxSize) throws IOException {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Maximum size must not be negative: " + maxSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    /**
+     * @return the number of downloads served from the cache after a 304 Not Modified response.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of files downloaded, either because they weren't cached or because they changed.
+     */
+    public long getDownloads() {
+        return downloads.get();
+    }
+
+    /**
+     * Remove all cached files.
+     */
+    public void clear() throws IOException {
+        for (Entry entry : listEntries()) {
+            if (!inFlight.containsKey(entry.key)) {
+                locked(entry.key, () -> delete(entry.key));
+            }
+        }
+    }
+
+    /**
+     * Revalidate or download a file, then open its cached copy.
+     */
+    InputStream open(SharepointClient client, String folder, String filename) throws IOException, InterruptedException {
+        String url = client.absoluteUrl(folder + "/" + filename);
+        String key = Hashes.sha256Hex(url);
+        // another process may evict the entry between its refresh and its opening, refresh it again once
+        for (int attempt = 0; ; attempt++) {
+            refresh(client, folder, filename, url, key);
+            InputStream input = locked(key, () -> {
+                Path data = dataFile(key);
+                try {
+                    Files.setLastModifiedTime(data, FileTime.from(Instant.now()));
+                    return Files.newInputStream(data);
+                } catch (NoSuchFileException e) {
+                    return null;
+                }
+            });
+            if (input != null) {
+                return input;
+            } else if (attempt > 0) {
+                throw new IOException("Cached file evicted before it could be read: " + url);
+            }
+        }
+    }
+
+    /**
+     * Make sure the cached copy is up to date, joining a refresh of the same file already in progress.
+     */
+    private void refresh(SharepointClient client, String folder, String filename, String url, String key)
+            throws IOException, InterruptedException {
+        CompletableFuture<Void> own = new CompletableFuture<>();
+        CompletableFuture<Void> current = inFlight.putIfAbsent(key, own);
+        if (current != null) {
+            // waiting on a copy, so that an interrupted waiter doesn't cancel the others
+            SharepointClient.await(current.copy());
+            return;
+        }
+
+        boolean downloaded;
+        try {
+            downloaded = fetch(client, folder, filename, url, key);
+            own.complete(null);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+        if (downloaded) {
+            evict(key);
+        }
+    }
+
+    /**
+     * @return true if the file was downloaded, false if the cached copy is still valid.
+     */
+    private boolean fetch(SharepointClient client, String folder, String filename, String url, String key)
+            throws IOException, InterruptedException {
+        String etag = locked(key, () -> readETag(key));
+        // downloaded next to the entry without holding the lock, then moved in place
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            HttpResponse<Long> response;
+            AtomicReference<String> errorBody = new AtomicReference<>("");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                response = client.downloadIfNoneMatch(folder, filename, etag, info -> {
+                    if (info.statusCode() == 200) {
+                        return new ChannelBodySubscriber(channel, 0, null);
+                    } else if (info.statusCode() >= 400) {
+                        // the body type is the downloaded size, error bodies are kept on the side
+                        ErrorBodySubscriber subscriber = new ErrorBodySubscriber(SharepointClient.MAX_ERROR_BODY);
+                        return HttpResponse.BodySubscribers.mapping(subscriber, body -> {
+                            errorBody.set(body);
+                            return -1L;
+                        });
+                    }
+                    return HttpResponse.BodySubscribers.replacing(-1L);
+                });
+                if (response.statusCode() == 200) {
+                    channel.truncate(response.body());
+                }
+            }
+
+            if (response.statusCode() == 304 && etag != null) {
+                hits.incrementAndGet();
+                return false;
+            } else if (response.statusCode() != 200) {
+                throw SharepointException.fromResponse(response.statusCode(), errorBody.get(),
+                        response.headers().firstValue("Retry-After").orElse(null));
+            }
+
+            downloads.incrementAndGet();
+            String newETag = response.headers().firstValue("ETag").orElse(null);
+            locked(key, () -> {
+                // content first: a crash before the metadata is written only causes a download
+                Files.move(temp, dataFile(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                writeMetadata(key, url, newETag);
+                return null;
+            });
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Evict the least recently used entries until the cache fits its maximum size, never evicting the given entry.
+     */
+    private void evict(String keep) throws IOException {
+        List<Entry> entries = listEntries();
+        long total = entries.stream().mapToLong(entry -> entry.size).sum();
+        entries.sort(Comparator.comparing(entry -> entry.lastAccess));
+        for (Entry entry : entries) {
+            if (total <= maxSize) {
+                break;
+            } else if (entry.key.equals(keep) || inFlight.containsKey(entry.key)) {
+                continue;
+            }
+
+            try {
+                locked(entry.key, () -> delete(entry.key));
+                total -= entry.size;
+            } catch (IOException e) {
+                // still open on systems which prevent it, try again at the next eviction
+            }
+        }
+    }
+
+    private List<Entry> listEntries() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (!name.endsWith(DATA_SUFFIX)) {
+                    continue;
+                }
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    entries.add(new Entry(name.substring(0, name.length() - DATA_SUFFIX.length()),
+                            attributes.size(), attributes.lastModifiedTime()));
+                } catch (NoSuchFileException e) {
+                    // evicted by another process meanwhile
+                }
+            }
+        }
+        return entries;
+    }
+
+    private String readETag(String key) throws IOException {
+        Path metadata = metadataFile(key);
+        if (!Files.isRegularFile(metadata) || !Files.isRegularFile(dataFile(key))) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(metadata, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return properties.getProperty("etag");
+    }
+
+    private void writeMetadata(String key, String url, String etag) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("url", url);
+        if (etag != null) {
+            properties.setProperty("etag", etag);
+        }
+
+        Path temp = directory.resolve(key + METADATA_SUFFIX + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(writer, "sharepoint download cache");
+        }
+        Files.move(temp, metadataFile(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Void delete(String key) throws IOException {
+        Files.deleteIfExists(metadataFile(key));
+        Files.deleteIfExists(dataFile(key));
+        return null;
+    }
+
+    /**
+     * Run an operation holding the lock of the stripe of an entry, both within this process and against others.
+     */
+    private <T> T locked(String key, LockedOperation<T> operation) throws IOException {
+        int stripe = Character.digit(key.charAt(0), 16) % LOCK_STRIPES;
+        synchronized (stripes[stripe]) {
+            try (FileChannel channel = FileChannel.open(directory.resolve("stripe-" + stripe + ".lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    return operation.run();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private Path dataFile(String key) {
+        return directory.resolve(key + DATA_SUFFIX);
+    }
+
+    private Path metadataFile(String key) {
+        return directory.resolve(key + METADATA_SUFFIX);
+    }
+
+    private static class Entry {
+        final String key;
+        final long size;
+        final FileTime lastAccess;
+
+        Entry(String key, long size, FileTime lastAccess) {
+            this.key = key;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    @FunctionalInterface
+    private interface LockedOperation<T> {
+        T run() throws IOException;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.time.Duration;
+
+/**
+ * Outcome of a download: transferred size, duration and optional checksum of the content.
+ */
+public class DownloadResult {
+    private final long bytes;
+    private final Duration elapsed;
+    private final String checksum;
+
+    DownloadResult(long bytes, Duration elapsed, String checksum) {
+        this.bytes = bytes;
+        this.elapsed = elapsed;
+        this.checksum = checksum;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return the hexadecimal digest of the content, or null if no checksum was requested.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return the average transfer rate, in bytes per second.
+     */
+    public double getThroughput() {
+        long nanos = elapsed.toNanos();
+        return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d bytes in %d ms (%.1f KB/s)%s", bytes, elapsed.toMillis(), getThroughput() / 1024,
+                checksum == null ? "" : ", checksum " + checksum);
+    }
+}
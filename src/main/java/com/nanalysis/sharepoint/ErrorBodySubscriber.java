@@ -0,0 +1,73 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.io.ByteArrayOutputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Reads the body of an error response as a string, keeping only its beginning: an OData error is small,
+ * while gateways may send large HTML pages. The rest of the body is received and dropped, so that the
+ * connection can be reused.
+ */
+class ErrorBodySubscriber implements HttpResponse.BodySubscriber<String> {
+    private final int limit;
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+
+    ErrorBodySubscriber(int limit) {
+        this.limit = limit;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        for (ByteBuffer buffer : buffers) {
+            int length = Math.min(buffer.remaining(), limit - content.size());
+            if (length <= 0) {
+                return;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            content.write(bytes, 0, length);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        result.complete(content.toString(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public CompletionStage<String> getBody() {
+        return result;
+    }
+}
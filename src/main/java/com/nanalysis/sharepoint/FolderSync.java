@@ -0,0 +1,507 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Mirrors a local folder tree to a remote folder, or the other way around, transferring only what changed.
+ * <p>
+ * Files are compared by size and modification time on the local side, and by ETag on the remote side. What was
+ * synchronized is recorded in a state file, so that pushing again only needs to scan the local tree: the remote
+ * folder is only listed on the first run, or when a full scan is requested. Pulling always lists the remote tree.
+ * <p>
+ * Transfers and deletions run concurrently. Failures don't stop the synchronization, they are collected in the
+ * returned {@link SyncReport}.
+ */
+public class FolderSync {
+    /**
+     * Name of the state file, created at the root of the local folder unless configured otherwise.
+     */
+    public static final String DEFAULT_STATE_FILE = ".sharepoint-sync";
+
+    private static final String PARTIAL_SUFFIX = ".sharepoint-sync.part";
+    private static final int SAVE_INTERVAL = 1000;
+
+    public enum Action {
+        UPLOAD, DOWNLOAD, CREATE_FOLDER, DELETE
+    }
+
+    /**
+     * Notified after each operation. May be called concurrently from several threads.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @param error the failure, or null if the operation succeeded
+         */
+        void completed(Action action, String relativePath, Exception error);
+    }
+
+    private final SharepointClient client;
+    private final Path localRoot;
+    private final String remoteRoot;
+    private Path stateFile;
+    private int parallelism = 4;
+    private boolean deleteExtraneous = false;
+    private boolean fullScan = false;
+    private Listener listener = (action, path, error) -> {
+    };
+
+    public FolderSync(SharepointClient client, Path localRoot, String remoteRoot) {
+        this.client = client;
+        this.localRoot = localRoot;
+        this.remoteRoot = remoteRoot.endsWith("/") ? remoteRoot.substring(0, remoteRoot.length() - 1) : remoteRoot;
+        this.stateFile = localRoot.resolve(DEFAULT_STATE_FILE);
+    }
+
+    public void setStateFile(Path stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * Set the maximum number of concurrent transfers. Defaults to 4.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Delete files and folders from the destination when they don't exist on the source side. Disabled by default.
+     */
+    public void setDeleteExtraneous(boolean deleteExtraneous) {
+        this.deleteExtraneous = deleteExtraneous;
+    }
+
+    /**
+     * List the remote folder when pushing even if a previous state exists, to detect changes made on the server.
+     */
+    public void setFullScan(boolean fullScan) {
+        this.fullScan = fullScan;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Make the remote folder a copy of the local one. The remote folder is created if missing, but not its parents.
+     */
+    public SyncReport push() throws IOException, InterruptedException {
+        SyncState state = SyncState.load(stateFile);
+        LocalTree local = scanLocal();
+        SyncReport report = new SyncReport();
+
+        // without listing, the remote side is assumed to be as we left it
+        Set<String> remoteFolders = new TreeSet<>();
+        Map<String, RemoteItem> remoteFiles = new HashMap<>();
+        boolean listed = fullScan || !state.isLoaded();
+        if (listed) {
+            listRemote(remoteFolders, remoteFiles, true);
+            for (String path : state.paths()) {
+                if (!remoteFolders.contains(path) && !remoteFiles.containsKey(path)) {
+                    state.remove(path);
+                }
+            }
+        } else {
+            for (String path : state.paths()) {
+                if (state.get(path).isFolder()) {
+                    remoteFolders.add(path);
+                } else {
+                    remoteFiles.put(path, null);
+                }
+            }
+        }
+
+        try {
+            for (List<String> level : byDepth(local.folders, remoteFolders)) {
+                Map<String, Operation> creations = new LinkedHashMap<>();
+                for (String path : level) {
+                    creations.put(path, () -> {
+                        client.createFolder(remoteFolder(parentOf(path)), nameOf(path));
+                        state.putFolder(path);
+                        report.folderCreated();
+                    });
+                }
+                runAll(Action.CREATE_FOLDER, creations, state, report);
+            }
+            for (String path : local.folders) {
+                if (remoteFolders.contains(path)) {
+                    state.putFolder(path);
+                }
+            }
+
+            Map<String, Operation> uploads = new LinkedHashMap<>();
+            local.files.forEach((path, attributes) -> {
+                long size = attributes.size();
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                RemoteItem remote = remoteFiles.get(path);
+                if (!needsUpload(state.get(path), size, lastModified, remote, listed)) {
+                    if (remote != null) {
+                        state.put(path, size, lastModified, remote.getEtag());
+                    }
+                    report.unchanged();
+                    return;
+                }
+
+                uploads.put(path, () -> {
+                    client.uploadFile(remoteFolder(parentOf(path)), localPath(path).toFile(), progress -> {
+                    });
+                    state.put(path, size, lastModified, null);
+                    report.transferred(size);
+                });
+            });
+            runAll(Action.UPLOAD, uploads, state, report);
+
+            if (deleteExtraneous) {
+                Map<String, Operation> deletions = new LinkedHashMap<>();
+                List<String> deletedFolders = new ArrayList<>();
+                for (String path : remoteFolders) {
+                    if (!local.folders.contains(path) && !isBelowAny(path, deletedFolders)) {
+                        deletedFolders.add(path);
+                        deletions.put(path, () -> {
+                            client.deleteFolder(remoteFolder(path));
+                            for (String child : state.paths()) {
+                                if (child.equals(path) || child.startsWith(path + "/")) {
+                                    state.remove(child);
+                                }
+                            }
+                            report.deleted();
+                        });
+                    }
+                }
+                for (String path : remoteFiles.keySet()) {
+                    if (!local.files.containsKey(path) && !isBelowAny(path, deletedFolders)) {
+                        deletions.put(path, () -> {
+                            client.deleteFile(remoteFolder(parentOf(path)), nameOf(path));
+                            state.remove(path);
+                            report.deleted();
+                        });
+                    }
+                }
+                runAll(Action.DELETE, deletions, state, report);
+            }
+        } finally {
+            state.save();
+        }
+        return report;
+    }
+
+    /**
+     * Make the local folder a copy of the remote one. The local folder is created if missing.
+     * Downloaded files get the modification time of their remote version.
+     */
+    public SyncReport pull() throws IOException, InterruptedException {
+        Files.createDirectories(localRoot);
+        SyncState state = SyncState.load(stateFile);
+        LocalTree local = scanLocal();
+        SyncReport report = new SyncReport();
+
+        Set<String> remoteFolders = new TreeSet<>();
+        Map<String, RemoteItem> remoteFiles = new TreeMap<>();
+        listRemote(remoteFolders, remoteFiles, false);
+        for (String path : state.paths()) {
+            if (!remoteFolders.contains(path) && !remoteFiles.containsKey(path)) {
+                state.remove(path);
+            }
+        }
+
+        try {
+            for (String path : remoteFolders) {
+                if (!local.folders.contains(path)) {
+                    Files.createDirectories(localPath(path));
+                    report.folderCreated();
+                }
+                state.putFolder(path);
+            }
+
+            Map<String, Operation> downloads = new LinkedHashMap<>();
+            remoteFiles.forEach((path, remote) -> {
+                BasicFileAttributes attributes = local.files.get(path);
+                if (attributes != null && !needsDownload(state.get(path), attributes, remote)) {
+                    state.put(path, attributes.size(), attributes.lastModifiedTime().toMillis(), remote.getEtag());
+                    report.unchanged();
+                    return;
+                }
+
+                downloads.put(path, () -> {
+                    Path target = localPath(path);
+                    Path partial = target.resolveSibling(target.getFileName() + PARTIAL_SUFFIX);
+                    try {
+                        DownloadResult result = client.downloadTo(remote.getFolder(), remote.getName(), partial);
+                        if (remote.getLastModified() != null) {
+                            Files.setLastModifiedTime(partial, FileTime.from(remote.getLastModified()));
+                        }
+                        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        state.put(path, result.getBytes(), Files.getLastModifiedTime(target).toMillis(), remote.getEtag());
+                        report.transferred(result.getBytes());
+                    } finally {
+                        Files.deleteIfExists(partial);
+                    }
+                });
+            });
+            runAll(Action.DOWNLOAD, downloads, state, report);
+
+            if (deleteExtraneous) {
+                for (String path : local.files.keySet()) {
+                    if (!remoteFiles.containsKey(path)) {
+                        deleteLocal(path, state, report);
+                    }
+                }
+                // children come after their parent in the sorted set, delete them first
+                for (String path : local.folders.descendingSet()) {
+                    if (!remoteFolders.contains(path)) {
+                        deleteLocal(path, state, report);
+                    }
+                }
+            }
+        } finally {
+            state.save();
+        }
+        return report;
+    }
+
+    private static boolean needsUpload(SyncState.Entry entry, long size, long lastModified, RemoteItem remote, boolean listed) {
+        if (entry != null && !entry.isFolder()) {
+            if (!entry.matchesLocal(size, lastModified)) {
+                return true;
+            }
+            // unchanged locally, but maybe modified on the server since our last upload
+            return listed && (remote == null || entry.etag != null && !entry.etag.equals(remote.getEtag()));
+        }
+
+        // unknown file: keep the remote copy if it looks like the same content, uploaded after the last local change
+        return remote == null || remote.getLength() != size
+                || remote.getLastModified() == null || remote.getLastModified().toEpochMilli() < lastModified;
+    }
+
+    private static boolean needsDownload(SyncState.Entry entry, BasicFileAttributes attributes, RemoteItem remote) {
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (entry != null && !entry.isFolder() && entry.matchesLocal(size, lastModified)) {
+            return entry.etag == null ? remote.getLength() != size : !entry.etag.equals(remote.getEtag());
+        }
+
+        // unknown or locally modified file: downloads get the remote modification time, so it should match
+        return remote.getLength() != size
+                || remote.getLastModified() == null || remote.getLastModified().toEpochMilli() != lastModified;
+    }
+
+    private void deleteLocal(String path, SyncState state, SyncReport report) {
+        Exception error = null;
+        try {
+            Files.deleteIfExists(localPath(path));
+            state.remove(path);
+            report.deleted();
+        } catch (IOException e) {
+            error = e;
+            report.failed(path, e);
+        }
+        listener.completed(Action.DELETE, path, error);
+    }
+
+    /**
+     * Run the operations with up to <code>parallelism</code> threads, and wait for all of them.
+     * The state is saved regularly so that an interrupted synchronization doesn't start over.
+     */
+    private void runAll(Action action, Map<String, Operation> operations, SyncState state, SyncReport report)
+            throws InterruptedException {
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        AtomicInteger completed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, operations.size()), runnable -> {
+            Thread thread = new Thread(runnable, "sharepoint-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            operations.forEach((path, operation) -> executor.execute(() -> {
+                Exception error = null;
+                try {
+                    operation.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    error = e;
+                } catch (Exception e) {
+                    error = e;
+                }
+
+                if (error != null) {
+                    report.failed(path, error);
+                }
+                listener.completed(action, path, error);
+                if (completed.incrementAndGet() % SAVE_INTERVAL == 0) {
+                    try {
+                        state.save();
+                    } catch (IOException ignored) {
+                        // saved again at the end, losing an intermediate save only costs redundant transfers
+                    }
+                }
+            }));
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // keep waiting, transfers of big files may take a while
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+    }
+
+    /**
+     * Group folders missing on the remote side by depth, so that each level can be created concurrently
+     * once its parents exist.
+     */
+    private static List<List<String>> byDepth(SortedSet<String> folders, Set<String> existing) {
+        Map<Integer, List<String>> levels = new TreeMap<>();
+        for (String path : folders) {
+            if (!existing.contains(path)) {
+                levels.computeIfAbsent(path.split("/").length, depth -> new ArrayList<>()).add(path);
+            }
+        }
+        return new ArrayList<>(levels.values());
+    }
+
+    private static boolean isBelowAny(String path, List<String> folders) {
+        for (String folder : folders) {
+            if (path.startsWith(folder + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void listRemote(Set<String> folders, Map<String, RemoteItem> files, boolean createIfMissing)
+            throws IOException {
+        try (Stream<RemoteItem> items = client.walk(remoteRoot, parallelism)) {
+            items.forEach(item -> {
+                String path = item.getPath().substring(remoteRoot.length() + 1);
+                if (item.isFolder()) {
+                    folders.add(path);
+                } else {
+                    files.put(path, item);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            IOException cause = e.getCause();
+            if (createIfMissing && cause instanceof SharepointException && ((SharepointException) cause).getStatusCode() == 404) {
+                createRemoteRoot();
+                return;
+            }
+            throw cause;
+        }
+    }
+
+    private void createRemoteRoot() throws IOException {
+        try {
+            int index = remoteRoot.lastIndexOf('/');
+            client.createFolder(index < 0 ? "" : remoteRoot.substring(0, index), remoteRoot.substring(index + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating " + remoteRoot, e);
+        }
+    }
+
+    private LocalTree scanLocal() throws IOException {
+        LocalTree tree = new LocalTree();
+        if (!Files.isDirectory(localRoot)) {
+            throw new IOException("Not a valid local directory: " + localRoot.toAbsolutePath());
+        }
+
+        Path state = stateFile.toAbsolutePath().normalize();
+        Files.walkFileTree(localRoot, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                if (!dir.equals(localRoot)) {
+                    tree.folders.add(relativePath(dir));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                String name = file.getFileName().toString();
+                boolean ignored = name.startsWith(DEFAULT_STATE_FILE) || name.endsWith(PARTIAL_SUFFIX)
+                        || file.toAbsolutePath().normalize().equals(state);
+                if (attributes.isRegularFile() && !ignored) {
+                    tree.files.put(relativePath(file), attributes);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return tree;
+    }
+
+    private String relativePath(Path path) {
+        return localRoot.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private Path localPath(String relativePath) {
+        return localRoot.resolve(relativePath.replace('/', File.separatorChar));
+    }
+
+    private String remoteFolder(String relativePath) {
+        return relativePath.isEmpty() ? remoteRoot : remoteRoot + "/" + relativePath;
+    }
+
+    private static String parentOf(String relativePath) {
+        int index = relativePath.lastIndexOf('/');
+        return index < 0 ? "" : relativePath.substring(0, index);
+    }
+
+    private static String nameOf(String relativePath) {
+        return relativePath.substring(relativePath.lastIndexOf('/') + 1);
+    }
+
+    private static class LocalTree {
+        final TreeSet<String> folders = new TreeSet<>();
+        final Map<String, BasicFileAttributes> files = new TreeMap<>();
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void run() throws IOException, InterruptedException;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the results of {@link SharepointClient#listFolders(String)} and {@link SharepointClient#listFiles(String)}
+ * in memory for a limited time, for callers listing the same folders again and again.
+ * <p>
+ * Listings are invalidated by the changes made through the clients using the cache, but not by changes made by
+ * anyone else: those are only seen once the entries expire, or after {@link #invalidate(String)}.
+ * Concurrent lookups of the same listing share a single request. Cached lists are shared, and can't be modified.
+ */
+public class ListingCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<String, CachedListing> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxEntries the number of listings kept, the least recently used ones being dropped first
+     * @param ttl        how long a listing is kept, from the moment it was received
+     */
+    public ListingCache(int maxEntries, Duration ttl) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Maximum number of entries must be at least 1: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedListing> eldest) {
+                return size() > ListingCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the number of lookups answered from the cache, including those joining a request in progress.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups which had to send a request.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Forget the listings of a folder and of everything below it, for example after changing it with another tool.
+     */
+    public synchronized void invalidate(String path) {
+        String folder = normalize(path);
+        String prefix = folder + "/";
+        entries.keySet().removeIf(key -> {
+            String keyPath = key.substring(2);
+            return keyPath.equals(folder) || keyPath.startsWith(prefix) || folder.isEmpty();
+        });
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Forget the file listing of a folder, after a file was added to it or removed from it.
+     */
+    synchronized void invalidateFiles(String folder) {
+        entries.remove(key(folder, false));
+    }
+
+    /**
+     * Forget the sub-folder listing of a folder, after a sub-folder was added to it or removed from it.
+     */
+    synchronized void invalidateFolders(String parent) {
+        entries.remove(key(parent, true));
+    }
+
+    /**
+     * Return the cached listing, or load it, unless another lookup of the same listing is already loading it.
+     */
+    CompletableFuture<List<String>> get(String path, boolean folders, Supplier<CompletableFuture<List<String>>> loader) {
+        String key = key(path, folders);
+        CachedListing entry;
+        synchronized (this) {
+            CachedListing cached = entries.get(key);
+            if (cached != null && (!cached.listing.isDone() || System.nanoTime() - cached.expiresAt < 0)) {
+                hits.incrementAndGet();
+                // callers only get a copy of the future, so that cancelling it doesn't affect the others
+                return cached.listing.copy();
+            }
+
+            misses.incrementAndGet();
+            entry = new CachedListing();
+            entries.put(key, entry);
+        }
+
+        CompletableFuture<List<String>> loading;
+        try {
+            loading = loader.get();
+        } catch (Throwable e) {
+            // the entry must still complete, or later lookups would wait for it forever
+            loading = CompletableFuture.failedFuture(e);
+        }
+        loading.whenComplete((listing, error) -> {
+            if (error != null) {
+                // failures are not cached
+                synchronized (this) {
+                    entries.remove(key, entry);
+                }
+                entry.listing.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            } else {
+                entry.expiresAt = System.nanoTime() + ttlNanos;
+                entry.listing.complete(List.copyOf(listing));
+            }
+        });
+        return entry.listing.copy();
+    }
+
+    private static String key(String path, boolean folders) {
+        return (folders ? "D:" : "F:") + normalize(path);
+    }
+
+    private static String normalize(String path) {
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    @Override
+    public String toString() {
+        return "ListingCache: " + size() + " entries, " + hits.get() + " hits, " + misses.get() + " misses";
+    }
+
+    private static class CachedListing {
+        final CompletableFuture<List<String>> listing = new CompletableFuture<>();
+        /** Only set once the listing is received, entries being loaded never expire. */
+        volatile long expiresAt;
+    }
+}
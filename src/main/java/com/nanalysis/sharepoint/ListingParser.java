@@ -0,0 +1,105 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Streaming parser for OData collection responses: <code>{"value": [...], "odata.nextLink": "..."}</code>.
+ * <p>
+ * Only one item of the collection is held in memory at a time, no matter how large the page is.
+ */
+final class ListingParser {
+    private ListingParser() {
+    }
+
+    /**
+     * Parse a collection page, handing each item to the consumer as it is read.
+     *
+     * @return the link to the next page, or null if this is the last one.
+     */
+    static String parse(InputStream input, Consumer<JSONObject> consumer) throws IOException {
+        try (Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+            JSONTokener tokener = new JSONTokener(reader);
+            String nextLink = null;
+
+            expect(tokener, '{');
+            if (tokener.nextClean() == '}') {
+                return null;
+            }
+            tokener.back();
+
+            while (true) {
+                String key = tokener.nextValue().toString();
+                expect(tokener, ':');
+
+                if (key.equals("value")) {
+                    parseArray(tokener, consumer);
+                } else if (key.equals("odata.nextLink") || key.equals("@odata.nextLink")) {
+                    nextLink = tokener.nextValue().toString();
+                } else if (key.equals("odata.error")) {
+                    JSONObject error = (JSONObject) tokener.nextValue();
+                    throw new IOException(error.getJSONObject("message").getString("value"));
+                } else {
+                    // metadata we don't need, parsed and dropped
+                    tokener.nextValue();
+                }
+
+                char separator = tokener.nextClean();
+                if (separator == '}') {
+                    return nextLink;
+                } else if (separator != ',') {
+                    throw tokener.syntaxError("Expected ',' or '}'");
+                }
+            }
+        } catch (JSONException | ClassCastException e) {
+            throw new IOException("Unable to parse listing: " + e.getMessage(), e);
+        }
+    }
+
+    private static void parseArray(JSONTokener tokener, Consumer<JSONObject> consumer) {
+        expect(tokener, '[');
+        if (tokener.nextClean() == ']') {
+            return;
+        }
+        tokener.back();
+
+        while (true) {
+            consumer.accept((JSONObject) tokener.nextValue());
+            char separator = tokener.nextClean();
+            if (separator == ']') {
+                return;
+            } else if (separator != ',') {
+                throw tokener.syntaxError("Expected ',' or ']'");
+            }
+        }
+    }
+
+    private static void expect(JSONTokener tokener, char expected) {
+        if (tokener.nextClean() != expected) {
+            throw tokener.syntaxError("Expected '" + expected + "'");
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads several files to the same remote folder using a bounded number of concurrent requests.
+ * <p>
+ * Besides the per-upload parallelism, requests are also limited by the governor of the client,
+ * so that several uploaders running in the same JVM don't overload a single tenant.
+ */
+class ParallelUploader {
+    private final SharepointClient client;
+    private final int parallelism;
+
+    ParallelUploader(SharepointClient client, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.client = client;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Upload all files, and wait for completion.
+     * All files are attempted even if some of them fail, failures are reported through the listener and
+     * summarized in the thrown exception.
+     */
+    void upload(String folder, List<File> files, UploadListener listener) throws IOException, InterruptedException {
+        OrderedReporter reporter = new OrderedReporter(files, listener);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(files.size(), 1)), runnable -> {
+            Thread thread = new Thread(runnable, "sharepoint-upload");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                int index = i;
+                File file = files.get(i);
+                executor.execute(() -> reporter.completed(index, uploadOne(folder, file, listener)));
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // keep waiting, uploads of big files may take a while
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+
+        reporter.throwIfFailed();
+    }
+
+    private Exception uploadOne(String folder, File file, UploadListener listener) {
+        try {
+            client.uploadFile(folder, file, percent -> listener.fileProgress(file, percent));
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e;
+        } catch (Exception e) {
+            return e;
+        }
+    }
+
+    /**
+     * Buffers out-of-order completions so that the listener always sees files in submission order.
+     */
+    private static class OrderedReporter {
+        private final List<File> files;
+        private final UploadListener listener;
+        private final Exception[] errors;
+        private final boolean[] done;
+        private int next = 0;
+        private int failures = 0;
+        private Exception firstFailure;
+
+        OrderedReporter(List<File> files, UploadListener listener) {
+            this.files = files;
+            this.listener = listener;
+            this.errors = new Exception[files.size()];
+            this.done = new boolean[files.size()];
+        }
+
+        synchronized void completed(int index, Exception error) {
+            errors[index] = error;
+            done[index] = true;
+            if (error != null) {
+                failures++;
+                if (firstFailure == null) {
+                    firstFailure = error;
+                }
+            }
+
+            while (next < done.length && done[next]) {
+                listener.fileCompleted(next, files.get(next), errors[next]);
+                errors[next] = null;
+                next++;
+            }
+        }
+
+        synchronized void throwIfFailed() throws IOException {
+            if (firstFailure != null) {
+                IOException e = new IOException(failures + " of " + files.size() + " uploads failed, first error: "
+                        + firstFailure.getMessage());
+                e.addSuppressed(firstFailure);
+                throw e;
+            }
+        }
+    }
+}
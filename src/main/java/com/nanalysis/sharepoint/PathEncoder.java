@@ -0,0 +1,104 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Percent-encoding of paths inserted in request URLs, as defined by RFC 3986.
+ * <p>
+ * Unreserved characters and slashes are kept, everything else is encoded, including the quotes and parentheses
+ * which delimit OData parameters. Paths made only of kept characters are returned as is, others are cached
+ * since the same folders are used again and again.
+ * <p>
+ * The client encodes all the paths it is given. This class is public for the benchmarks, and to build the URLs of
+ * REST calls not covered by the client.
+ */
+public final class PathEncoder {
+    static final int CACHE_SIZE = 4096;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final boolean[] KEPT = new boolean[128];
+    private static final Map<String, String> CACHE = new ConcurrentHashMap<>();
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            KEPT[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            KEPT[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            KEPT[c] = true;
+        }
+        for (char c : "-._~/".toCharArray()) {
+            KEPT[c] = true;
+        }
+    }
+
+    private PathEncoder() {
+    }
+
+    /**
+     * @return the path with all characters other than unreserved ones and slashes percent-encoded.
+     */
+    public static String encode(String path) {
+        if (isKept(path)) {
+            return path;
+        }
+
+        String encoded = CACHE.get(path);
+        if (encoded == null) {
+            encoded = percentEncode(path);
+            if (CACHE.size() >= CACHE_SIZE) {
+                // rarely reached, simpler and cheaper than keeping track of the least recently used entries
+                CACHE.clear();
+            }
+            CACHE.put(path, encoded);
+        }
+        return encoded;
+    }
+
+    private static boolean isKept(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c >= 128 || !KEPT[c]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String percentEncode(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        StringBuilder builder = new StringBuilder(bytes.length + 16);
+        for (byte b : bytes) {
+            int c = b & 0xff;
+            if (c < 128 && KEPT[c]) {
+                builder.append((char) c);
+            } else {
+                builder.append('%').append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xf]);
+            }
+        }
+        return builder.toString();
+    }
+
+    static int cacheSize() {
+        return CACHE.size();
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads a file with concurrent HTTP range requests, each segment being written directly at its position
+ * in a preallocated local file by a {@link ChannelBodySubscriber}.
+ * <p>
+ * Completed segments are recorded in a ".download" file next to the target, so that an interrupted download
+ * can be resumed. The recorded ETag makes sure segments of different versions of the remote file are never mixed.
+ * If the server ignores range requests, the whole file is downloaded with a single request instead.
+ */
+class RangedDownloader {
+    private final SharepointClient client;
+    private final int parallelism;
+    private final int segmentSize;
+
+    RangedDownloader(SharepointClient client, int parallelism, int segmentSize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.client = client;
+        this.parallelism = parallelism;
+        this.segmentSize = segmentSize;
+    }
+
+    void download(String folder, String filename, Path target) throws IOException, InterruptedException {
+        Path progressFile = target.resolveSibling(target.getFileName() + ".download");
+        if (!download(folder, filename, target, progressFile)) {
+            // the stale progress is deleted, so the second attempt starts from the first segment and can't be rejected
+            if (!download(folder, filename, target, progressFile)) {
+                throw new IOException("Unable to restart the download of " + filename);
+            }
+        }
+    }
+
+    /**
+     * Download, resuming from the progress file if there is one.
+     *
+     * @return false if the remote file changed since the previous attempt: the progress was discarded, and the
+     * download must be started again.
+     */
+    private boolean download(String folder, String filename, Path target, Path progressFile) throws IOException, InterruptedException {
+        Progress progress = Progress.load(progressFile, segmentSize);
+        boolean existed = Files.isRegularFile(target);
+
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // the first missing segment is also used to discover the file size and check for range support
+            int first = progress.done.nextClearBit(0);
+            long firstStart = (long) first * segmentSize;
+            HttpResponse<Long> response = client.downloadRange(folder, filename, firstStart, segmentSize, null, info -> {
+                if (info.statusCode() == 206) {
+                    return new ChannelBodySubscriber(channel, firstStart, null);
+                } else if (info.statusCode() == 200) {
+                    return new ChannelBodySubscriber(channel, 0, null);
+                }
+                return HttpResponse.BodySubscribers.replacing(-1L);
+            });
+
+            if (response.statusCode() == 200) {
+                // ranges not supported, the whole file was written with a single stream
+                channel.truncate(response.body());
+                Files.deleteIfExists(progressFile);
+                return true;
+            } else if (response.statusCode() == 416 && first == 0) {
+                // not satisfiable from the start: empty file
+                channel.truncate(0);
+                Files.deleteIfExists(progressFile);
+                return true;
+            } else if (response.statusCode() != 206 && response.statusCode() != 416) {
+                throw new SharepointException(response.statusCode(), "Unable to download file: HTTP error " + response.statusCode());
+            }
+
+            long size = response.statusCode() == 206 ? parseTotalSize(response) : -1;
+            String etag = response.headers().firstValue("ETag").orElse(null);
+            if (!progress.matches(size, etag) || !existed) {
+                if (first != 0) {
+                    // remote file changed since the previous attempt, start over
+                    Files.deleteIfExists(progressFile);
+                    return false;
+                }
+                progress.start(size, etag);
+            }
+
+            if (channel.size() > size) {
+                channel.truncate(size);
+            } else if (channel.size() < size) {
+                // preallocate, segments are then written at their position
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+            progress.completed(first, progressFile);
+            downloadMissingSegments(folder, filename, channel, progress, progressFile);
+            channel.force(false);
+        }
+        Files.deleteIfExists(progressFile);
+        return true;
+    }
+
+    private void downloadMissingSegments(String folder, String filename, FileChannel channel, Progress progress, Path progressFile)
+            throws IOException, InterruptedException {
+        List<Integer> missing = progress.missing();
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, missing.size()), runnable -> {
+            Thread thread = new Thread(runnable, "sharepoint-download");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int segment : missing) {
+                futures.add(executor.submit(() -> {
+                    downloadSegment(folder, filename, channel, segment, progress.etag);
+                    progress.completed(segment, progressFile);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IOException("Unable to download segment: " + cause.getMessage(), cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void downloadSegment(String folder, String filename, FileChannel channel, int segment, String etag)
+            throws IOException, InterruptedException {
+        long start = (long) segment * segmentSize;
+        HttpResponse<Long> response = client.downloadRange(folder, filename, start, segmentSize, etag,
+                info -> info.statusCode() == 206
+                        ? new ChannelBodySubscriber(channel, start, null)
+                        : HttpResponse.BodySubscribers.replacing(-1L));
+        if (response.statusCode() != 206) {
+            // with If-Range, a full 200 response means the remote file changed during the download
+            throw new SharepointException(response.statusCode(), "Unable to download segment " + segment
+                    + ": HTTP error " + response.statusCode());
+        }
+    }
+
+    private static long parseTotalSize(HttpResponse<?> response) throws IOException {
+        // Content-Range: bytes 0-1023/123456
+        String range = response.headers().firstValue("Content-Range")
+                .orElseThrow(() -> new IOException("Missing Content-Range header in partial response"));
+        int slash = range.lastIndexOf('/');
+        try {
+            return Long.parseLong(range.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Unable to parse Content-Range: " + range);
+        }
+    }
+
+    /**
+     * Segments already written in the target file, persisted to allow resuming.
+     */
+    private static class Progress {
+        private final int segmentSize;
+        private long size = -1;
+        private String etag;
+        private BitSet done = new BitSet();
+
+        private Progress(int segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+
+        static Progress load(Path path, int segmentSize) throws IOException {
+            Progress progress = new Progress(segmentSize);
+            if (Files.isRegularFile(path)) {
+                Properties properties = new Properties();
+                try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                    properties.load(reader);
+                }
+                if (String.valueOf(segmentSize).equals(properties.getProperty("segmentSize"))) {
+                    progress.size = Long.parseLong(properties.getProperty("size", "-1"));
+                    progress.etag = properties.getProperty("etag");
+                    for (String segment : properties.getProperty("done", "").split(",")) {
+                        if (!segment.isBlank()) {
+                            progress.done.set(Integer.parseInt(segment.trim()));
+                        }
+                    }
+                }
+            }
+            return progress;
+        }
+
+        boolean matches(long size, String etag) {
+            return this.size == size && etag != null && Objects.equals(this.etag, etag);
+        }
+
+        void start(long size, String etag) {
+            this.size = size;
+            this.etag = etag;
+            this.done = new BitSet();
+        }
+
+        List<Integer> missing() {
+            int count = (int) ((size + segmentSize - 1) / segmentSize);
+            List<Integer> missing = new ArrayList<>();
+            for (int i = done.nextClearBit(0); i < count; i = done.nextClearBit(i + 1)) {
+                missing.add(i);
+            }
+            return missing;
+        }
+
+        synchronized void completed(int segment, Path path) throws IOException {
+            done.set(segment);
+            if (etag == null) {
+                // without an ETag there is no way to check the remote file on resume, don't keep any progress
+                return;
+            }
+
+            Properties properties = new Properties();
+            properties.setProperty("segmentSize", String.valueOf(segmentSize));
+            properties.setProperty("size", String.valueOf(size));
+            properties.setProperty("etag", etag);
+            StringBuilder segments = new StringBuilder();
+            for (int i = done.nextSetBit(0); i >= 0; i = done.nextSetBit(i + 1)) {
+                segments.append(segments.length() == 0 ? "" : ",").append(i);
+            }
+            properties.setProperty("done", segments.toString());
+
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                properties.store(writer, "sharepoint-client download progress");
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
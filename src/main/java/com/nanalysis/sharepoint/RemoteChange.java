@@ -0,0 +1,134 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.json.JSONObject;
+
+import java.time.Instant;
+import java.util.function.UnaryOperator;
+
+/**
+ * An entry of the change log of a document library: a file or folder that was added, modified or deleted.
+ */
+public class RemoteChange {
+    public enum Type {
+        ADDED, UPDATED, DELETED,
+        /**
+         * The item was renamed, only its new path is known.
+         */
+        RENAMED
+    }
+
+    private final Type type;
+    private final String path;
+    private final boolean isFolder;
+    private final int itemId;
+    private final String uniqueId;
+    private final Instant time;
+    private final String token;
+
+    public RemoteChange(Type type, String path, boolean isFolder, int itemId, String uniqueId, Instant time, String token) {
+        this.type = type;
+        this.path = path;
+        this.isFolder = isFolder;
+        this.itemId = itemId;
+        this.uniqueId = uniqueId;
+        this.time = time;
+        this.token = token;
+    }
+
+    /**
+     * Build a change from the JSON representation of a SP.ChangeItem.
+     *
+     * @param pathMapper converts the server relative URL of the item to a client path
+     */
+    static RemoteChange fromJson(JSONObject json, UnaryOperator<String> pathMapper) {
+        String url = json.optString("ServerRelativeUrl", "");
+        JSONObject token = json.optJSONObject("ChangeToken");
+        return new RemoteChange(parseType(json.opt("ChangeType")),
+                url.isEmpty() ? null : pathMapper.apply(url),
+                json.optInt("FileSystemObjectType", 0) == 1,
+                json.optInt("ItemId", -1),
+                json.optString("UniqueId", null),
+                RemoteItem.parseTime(json.optString("Time", null)),
+                token == null ? null : token.optString("StringValue", null));
+    }
+
+    private static Type parseType(Object changeType) {
+        String name = changeType == null ? "" : changeType.toString();
+        switch (name) {
+            case "1":
+            case "Add":
+            case "6":
+            case "MoveInto":
+            case "7":
+            case "Restore":
+                return Type.ADDED;
+            case "3":
+            case "DeleteObject":
+            case "5":
+            case "MoveAway":
+                return Type.DELETED;
+            case "4":
+            case "Rename":
+                return Type.RENAMED;
+            default:
+                return Type.UPDATED;
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the path of the item, as accepted by the other client methods, or null if the server didn't provide it.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public boolean isFolder() {
+        return isFolder;
+    }
+
+    /**
+     * @return the identifier of the item in its list, stable across renames.
+     */
+    public int getItemId() {
+        return itemId;
+    }
+
+    public String getUniqueId() {
+        return uniqueId;
+    }
+
+    public Instant getTime() {
+        return time;
+    }
+
+    /**
+     * @return the change token designating this position in the change log.
+     */
+    public String getToken() {
+        return token;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + (path == null ? "item " + itemId : path) + (isFolder ? "/" : "");
+    }
+}
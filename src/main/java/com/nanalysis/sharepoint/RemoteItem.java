@@ -0,0 +1,114 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.json.JSONObject;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * A file or folder found on the server, with the metadata needed to detect changes.
+ */
+public class RemoteItem {
+    private final String folder;
+    private final String name;
+    private final boolean isFolder;
+    private final long length;
+    private final Instant lastModified;
+    private final String etag;
+
+    public RemoteItem(String folder, String name, boolean isFolder, long length, Instant lastModified, String etag) {
+        this.folder = folder;
+        this.name = name;
+        this.isFolder = isFolder;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.etag = etag;
+    }
+
+    /**
+     * Build an item from the JSON representation of a SP.File or SP.Folder.
+     */
+    static RemoteItem fromJson(String folder, JSONObject json, boolean isFolder) {
+        return new RemoteItem(folder, json.getString("Name"), isFolder,
+                isFolder ? 0 : json.optLong("Length", 0),
+                parseTime(json.optString("TimeLastModified", null)),
+                json.optString("ETag", null));
+    }
+
+    /**
+     * @return the path of the parent folder.
+     */
+    public String getFolder() {
+        return folder;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the full path of this item, as accepted by the other client methods.
+     */
+    public String getPath() {
+        return folder + "/" + name;
+    }
+
+    public boolean isFolder() {
+        return isFolder;
+    }
+
+    /**
+     * @return the file size in bytes, always 0 for folders.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return the last modification time, or null if unknown.
+     */
+    public Instant getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the ETag of the file, changing with each version, or null if unknown.
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    @Override
+    public String toString() {
+        return isFolder ? getPath() + "/" : getPath();
+    }
+
+    /**
+     * Parse a SharePoint timestamp, null when missing or malformed.
+     */
+    static Instant parseTime(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lists a remote folder tree, fetching up to <code>fanOut</code> folders concurrently.
+ * <p>
+ * Items are handed to the returned stream as soon as their folder is listed. To keep memory bounded, no new folder
+ * is requested while too many items are waiting to be consumed. Closing the stream stops the crawl.
+ */
+class RemoteTreeWalker {
+    private static final RemoteItem END = new RemoteItem("", "", false, 0, null, null);
+
+    private final SharepointClient client;
+    private final int fanOut;
+    private final int maxBuffered;
+
+    private final Deque<String> pendingFolders = new ArrayDeque<>();
+    private final BlockingQueue<RemoteItem> results = new LinkedBlockingQueue<>();
+    private int inFlight = 0;
+    private boolean closed = false;
+    private volatile Throwable failure;
+
+    RemoteTreeWalker(SharepointClient client, int fanOut, int maxBuffered) {
+        if (fanOut < 1) {
+            throw new IllegalArgumentException("Fan-out must be at least 1: " + fanOut);
+        }
+        this.client = client;
+        this.fanOut = fanOut;
+        this.maxBuffered = maxBuffered;
+    }
+
+    Stream<RemoteItem> walk(String root) {
+        synchronized (this) {
+            pendingFolders.add(root);
+        }
+        dispatch();
+
+        Spliterator<RemoteItem> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+                Spliterator.NONNULL | Spliterator.DISTINCT) {
+            private boolean finished = false;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super RemoteItem> action) {
+                if (finished) {
+                    return false;
+                }
+
+                RemoteItem item;
+                try {
+                    item = results.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new CompletionException(e);
+                }
+
+                if (item == END) {
+                    finished = true;
+                    if (failure != null) {
+                        throw failure instanceof IOException
+                                ? new UncheckedIOException((IOException) failure)
+                                : new CompletionException(failure);
+                    }
+                    return false;
+                }
+
+                // consuming may allow to request more folders
+                dispatch();
+                action.accept(item);
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    private synchronized void close() {
+        closed = true;
+        pendingFolders.clear();
+    }
+
+    /**
+     * Start listing pending folders, as long as the fan-out and the result buffer allow it.
+     */
+    private void dispatch() {
+        while (true) {
+            String folder;
+            synchronized (this) {
+                if (closed || inFlight >= fanOut || pendingFolders.isEmpty() || results.size() >= maxBuffered) {
+                    return;
+                }
+                folder = pendingFolders.poll();
+                inFlight++;
+            }
+
+            client.listFolderContentAsync(folder).whenComplete(this::listed);
+        }
+    }
+
+    private void listed(List<RemoteItem> items, Throwable error) {
+        boolean done;
+        synchronized (this) {
+            inFlight--;
+            if (error != null) {
+                if (failure == null) {
+                    failure = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                }
+                closed = true;
+                pendingFolders.clear();
+            } else if (!closed) {
+                for (RemoteItem item : items) {
+                    if (item.isFolder()) {
+                        pendingFolders.add(item.getPath());
+                    }
+                    results.add(item);
+                }
+            }
+            done = inFlight == 0 && pendingFolders.isEmpty();
+        }
+
+        if (done) {
+            results.add(END);
+        } else {
+            dispatch();
+        }
+    }
+}
@@ -16,236 +16,1413 @@
 package com.nanalysis.sharepoint;
 
 
+import com.nanalysis.sharepoint.auth.AccessToken;
 import com.nanalysis.sharepoint.auth.OAuth2Authenticator;
+import com.nanalysis.sharepoint.auth.RealmDiscovery;
+import com.nanalysis.sharepoint.auth.TokenCache;
+import com.nanalysis.sharepoint.auth.TokenManager;
 import com.nanalysis.sharepoint.auth.UserPasswordAuthenticator;
+import com.nanalysis.sharepoint.http.HttpTransport;
+import com.nanalysis.sharepoint.http.JavaHttpTransport;
+import com.nanalysis.sharepoint.http.RequestGovernor;
+import com.nanalysis.sharepoint.http.RetryPolicy;
+import com.nanalysis.sharepoint.metrics.MetricsListener;
+import com.nanalysis.sharepoint.metrics.OperationType;
 import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathExpressionException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.CookieManager;
-import java.net.CookiePolicy;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.net.URI;
-import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 
 /**
  * A sharepoint client to manage authentication, files and folders.
+ * <p>
+ * Every operation is available both as a blocking method and as an asynchronous one returning a {@link CompletableFuture}.
+ * The blocking methods simply wait for their asynchronous counterpart. Cancelling a returned future stops waiting for
+ * the underlying HTTP exchange, which is also aborted when the JDK supports it.
+ * Requests go through a {@link RequestGovernor}, which limits their rate and concurrency and can be shared by several
+ * clients. Once a limit is reached, requests wait for a permit without blocking the calling thread. By default,
+ * all clients of the JVM share a governor allowing 16 requests in flight per host.
  */
 public class SharepointClient {
-    private final HttpClient httpClient = HttpClient.newBuilder().cookieHandler(new CookieManager(null, CookiePolicy.ACCEPT_ALL)).build();
+    /** Default size of each range request of a segmented download. */
+    public static final int DOWNLOAD_SEGMENT_SIZE = 8 * 1024 * 1024; // 8MB
+
+    /** Initial size of each request of a chunked upload, see {@link AdaptiveChunkSizer}. */
+    public static final int UPLOAD_CHUNK_SIZE = 10 * 1024 * 1024; // 10MB
+
+    /** Compressed archive content buffered between the compressing thread and the upload. */
+    private static final int ARCHIVE_PIPE_SIZE = 1024 * 1024;
+    /** Maximum number of listed items waiting to be consumed before {@link #walk(String, int)} pauses. */
+    private static final int WALK_BUFFER_SIZE = 10_000;
+    private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD", "PUT", "DELETE", "OPTIONS");
+    /** Template of API requests, only ever copied so that it can be shared by all threads. */
+    private static final HttpRequest.Builder JSON_REQUEST = HttpRequest.newBuilder().header("Accept", "application/json");
+    /** Error bodies are only read up to this size, enough for any OData error. */
+    static final int MAX_ERROR_BODY = 16 * 1024;
+    /** Reads error bodies only: successful responses of checked requests have nothing we need. */
+    private static final HttpResponse.BodyHandler<String> ERROR_BODY = info -> info.statusCode() >= 400
+            ? new ErrorBodySubscriber(MAX_ERROR_BODY)
+            : HttpResponse.BodySubscribers.replacing("");
+    /** Reads successful bodies whole, and only the beginning of error bodies. */
+    private static final HttpResponse.BodyHandler<String> JSON_BODY = info -> info.statusCode() >= 400
+            ? new ErrorBodySubscriber(MAX_ERROR_BODY)
+            : HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
+
+    private final HttpTransport transport;
     private final String baseUrl;
     private final String siteUrl;
+    private final String apiUrl;
+    private final String folderUrlPrefix;
+    private final String sitePathPrefix;
 
-    private String token = "";
+    private final BufferPool bufferPool = new BufferPool(64L * 1024 * 1024); // chunk buffers kept between uploads
+    private final ExecutorService blockingExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "sharepoint-async");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile TokenManager tokenManager;
+    private Path tokenCacheDirectory;
+    private volatile RetryPolicy retryPolicy = new RetryPolicy();
+    private volatile RequestGovernor governor = RequestGovernor.shared();
+    private volatile MetricsListener metricsListener = MetricsListener.NONE;
+    private int uploadPipelineDepth = 2;
+    private AdaptiveChunkSizer chunkSizer = new AdaptiveChunkSizer();
+    private Path uploadJournalDirectory;
+    private int downloadSegmentSize = DOWNLOAD_SEGMENT_SIZE;
+    private volatile DownloadCache downloadCache;
+    private volatile ListingCache listingCache;
 
     public SharepointClient(String baseUrl, String site) {
+        this(baseUrl, site, JavaHttpTransport.newBuilder().build());
+    }
+
+    /**
+     * Create a client sending its requests through the given transport, for example a {@link JavaHttpTransport}
+     * with custom timeouts or proxy.
+     */
+    public SharepointClient(String baseUrl, String site, HttpTransport transport) {
         this.baseUrl = baseUrl;
         this.siteUrl = baseUrl + "/sites/" + site;
+        this.apiUrl = siteUrl + "/_api";
+        this.folderUrlPrefix = apiUrl + "/web/GetFolderByServerRelativeUrl('";
+        this.sitePathPrefix = URI.create(siteUrl).getPath() + "/";
+        this.transport = transport;
     }
 
+    /**
+     * Authenticate with a user account. The session is renewed in the background before it expires.
+     */
     public void authenticateWithUserCredentials(String username, String password)
             throws IOException, InterruptedException, XPathExpressionException, ParserConfigurationException, SAXException {
-        this.token = new UserPasswordAuthenticator(httpClient, baseUrl).authenticate(username, password);
+        UserPasswordAuthenticator authenticator = new UserPasswordAuthenticator(transport, baseUrl);
+        authenticator.setRetryPolicy(retryPolicy);
+        startTokenManager("user", username, password, () -> authenticator.authenticate(username, password));
     }
 
+    /**
+     * Authenticate with an app registration. The access token is renewed in the background before it expires.
+     */
     public void authenticateWithOAuth2(String clientId, String clientSecret) throws IOException, InterruptedException {
-        this.token = new OAuth2Authenticator(httpClient, baseUrl, siteUrl).authenticate(clientId, clientSecret);
+        OAuth2Authenticator authenticator = new OAuth2Authenticator(transport, baseUrl, siteUrl);
+        authenticator.setRetryPolicy(retryPolicy);
+        startTokenManager("api", clientId, clientSecret, () -> authenticator.authenticate(clientId, clientSecret));
+    }
+
+    /**
+     * Set how requests failing for a transient reason, such as throttling, are retried.
+     * Authentication uses the policy set at the time of the authenticate call.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Report every request, retry and authentication to the given listener, for example an {@link
+     * com.nanalysis.sharepoint.metrics.InMemoryMetrics}. Use {@link MetricsListener#of} to combine several listeners.
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+    }
+
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Keep access tokens and session cookies in encrypted files in the given directory, so that authenticating
+     * again with the same credentials, even from another process, reuses them while they are valid.
+     * The OAuth2 realms discovered by all clients of the JVM are also saved there, in <code>realms.properties</code>.
+     * Must be called before authenticating.
+     */
+    public void setTokenCacheDirectory(Path directory) {
+        this.tokenCacheDirectory = directory;
+        try {
+            RealmDiscovery.shared().setCacheFile(directory.resolve("realms.properties"));
+        } catch (IOException ignored) {
+            // unreadable saved realms are discovered again, and saved over
+        }
+    }
+
+    private void startTokenManager(String method, String login, String secret, TokenManager.TokenSource source)
+            throws IOException, InterruptedException {
+        String cacheName = "token-" + Hashes.sha256Hex(method + "\n" + siteUrl + "\n" + login) + ".cache";
+        TokenCache cache = tokenCacheDirectory == null ? null : new TokenCache(tokenCacheDirectory.resolve(cacheName), secret);
+
+        TokenManager manager = new TokenManager(measured(method, source), token -> {
+            if (cache != null) {
+                try {
+                    cache.store(token, transport.getCookieStore().getCookies());
+                } catch (IOException ignored) {
+                    // the cache only saves authentication time, the token itself is fine
+                }
+            }
+        });
+        manager.start(cache == null ? null : cache.load(transport.getCookieStore(), URI.create(baseUrl)));
+
+        TokenManager previous = this.tokenManager;
+        this.tokenManager = manager;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    private TokenManager.TokenSource measured(String method, TokenManager.TokenSource source) {
+        return () -> {
+            long start = System.nanoTime();
+            AccessToken token;
+            try {
+                token = source.fetch();
+            } catch (Exception e) {
+                reportAuthentication(method, start, e);
+                throw e;
+            }
+            reportAuthentication(method, start, null);
+            return token;
+        };
+    }
+
+    private void reportAuthentication(String method, long start, Exception error) {
+        try {
+            metricsListener.authenticated(method, Duration.ofNanos(System.nanoTime() - start), error);
+        } catch (RuntimeException e) {
+            // a failing listener must not turn a successful authentication into a failure
+        }
+    }
+
+    private String authorization() {
+        TokenManager manager = this.tokenManager;
+        return manager == null ? "Bearer " : manager.currentAuthorization();
+    }
+
+    /**
+     * Start an authenticated request expecting a JSON response.
+     */
+    private HttpRequest.Builder jsonRequest(String url) {
+        return jsonRequest(URI.create(url));
+    }
+
+    private HttpRequest.Builder jsonRequest(URI uri) {
+        return JSON_REQUEST.copy().uri(uri).header("Authorization", authorization());
+    }
+
+    /**
+     * Start an authenticated request for file content.
+     */
+    private HttpRequest.Builder request(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).header("Authorization", authorization());
+    }
+
+    /**
+     * Limit the number of requests in flight for this client only, replacing the current governor.
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("At least one concurrent request is needed: " + maxConcurrentRequests);
+        }
+        this.governor = new RequestGovernor(RequestGovernor.Scope.HOST, 0, maxConcurrentRequests, 0);
+    }
+
+    /**
+     * Set the governor limiting the rate and concurrency of requests. Use the same governor for several clients
+     * to coordinate them, for example to stay below the throttling limits of a tenant.
+     */
+    public void setRequestGovernor(RequestGovernor governor) {
+        this.governor = governor;
+    }
+
+    public RequestGovernor getRequestGovernor() {
+        return governor;
     }
 
     public List<String> listFolders(String path) throws IOException, InterruptedException {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(siteUrl + "/_api/web/GetFolderByServerRelativeUrl('" + encodePath(path) + "')/Folders"))
-                .header("Authorization", "Bearer " + token)
-                .header("Accept", "application/json")
-                .GET()
-                .build();
+        return await(listFoldersAsync(path));
+    }
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        JSONObject json = new JSONObject(response.body());
-        JSONArray results = json.getJSONArray("value");
-        List<String> folders = new ArrayList<>(results.length());
-        for (int i = 0; i < results.length(); i++) {
-            folders.add(results.getJSONObject(i).getString("Name"));
+    public CompletableFuture<List<String>> listFoldersAsync(String path) {
+        ListingCache cache = listingCache;
+        if (cache != null) {
+            return cache.get(path, true, () -> listNamesAsync(path, true));
         }
-        return folders;
+        return listNamesAsync(path, true);
+    }
+
+    /**
+     * Answer {@link #listFolders(String)} and {@link #listFiles(String)} from the given cache when possible.
+     * Changes made by this client invalidate the affected listings. The same cache can be shared by several
+     * clients of the same site. Use null to disable.
+     */
+    public void setListingCache(ListingCache listingCache) {
+        this.listingCache = listingCache;
+    }
+
+    public ListingCache getListingCache() {
+        return listingCache;
+    }
+
+    private CompletableFuture<List<String>> listNamesAsync(String path, boolean folders) {
+        List<String> names = new ArrayList<>();
+        return handle(listAsync(path, folders, "Name", 0, item -> names.add(item.getName())), done -> names);
+    }
+
+    /**
+     * List sub-folders page by page, handing each one to the consumer as soon as it is parsed.
+     * Memory use doesn't depend on the number of folders.
+     *
+     * @param pageSize number of items requested per page, or 0 to let the server decide
+     */
+    public void listFolders(String path, int pageSize, Consumer<RemoteItem> consumer) throws IOException, InterruptedException {
+        await(listFoldersAsync(path, pageSize, consumer));
+    }
+
+    public CompletableFuture<Void> listFoldersAsync(String path, int pageSize, Consumer<RemoteItem> consumer) {
+        return listAsync(path, true, "Name,TimeLastModified", pageSize, consumer);
     }
 
     public List<String> listFiles(String path) throws IOException, InterruptedException {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(siteUrl + "/_api/web/GetFolderByServerRelativeUrl('" + encodePath(path) + "')/Files"))
-                .header("Authorization", "Bearer " + token)
-                .header("Accept", "application/json")
+        return await(listFilesAsync(path));
+    }
+
+    public CompletableFuture<List<String>> listFilesAsync(String path) {
+        ListingCache cache = listingCache;
+        if (cache != null) {
+            return cache.get(path, false, () -> listNamesAsync(path, false));
+        }
+        return listNamesAsync(path, false);
+    }
+
+    /**
+     * List files page by page, handing each one to the consumer as soon as it is parsed.
+     * Memory use doesn't depend on the number of files.
+     *
+     * @param pageSize number of items requested per page, or 0 to let the server decide
+     */
+    public void listFiles(String path, int pageSize, Consumer<RemoteItem> consumer) throws IOException, InterruptedException {
+        await(listFilesAsync(path, pageSize, consumer));
+    }
+
+    public CompletableFuture<Void> listFilesAsync(String path, int pageSize, Consumer<RemoteItem> consumer) {
+        return listAsync(path, false, "Name,Length,TimeLastModified,ETag", pageSize, consumer);
+    }
+
+    private CompletableFuture<Void> listAsync(String path, boolean folders, String select, int pageSize, Consumer<RemoteItem> consumer) {
+        String url = folderUrl(path) + (folders ? "/Folders" : "/Files")
+                + "?$select=" + select + (pageSize > 0 ? "&$top=" + pageSize : "");
+        return listPageAsync(URI.create(url), json -> consumer.accept(RemoteItem.fromJson(path, json, folders)));
+    }
+
+    /**
+     * Fetch a page of a collection, then the following ones by following the next links.
+     * Pages are parsed on a separate thread while they are being received.
+     */
+    private CompletableFuture<Void> listPageAsync(URI uri, Consumer<JSONObject> consumer) {
+        HttpRequest request = jsonRequest(uri)
                 .GET()
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        JSONObject json = new JSONObject(response.body());
-        JSONArray results = json.getJSONArray("value");
-        List<String> folders = new ArrayList<>(results.length());
-        for (int i = 0; i < results.length(); i++) {
-            folders.add(results.getJSONObject(i).getString("Name"));
-        }
-        return folders;
+        CompletableFuture<String> nextLink = handleAsync(sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()), response -> {
+            try (InputStream body = response.body()) {
+                if (response.statusCode() >= 400) {
+                    throw error(response, new String(body.readNBytes(MAX_ERROR_BODY), StandardCharsets.UTF_8));
+                }
+                return ListingParser.parse(body, consumer);
+            }
+        });
+        return nextLink.thenCompose(link -> link == null ? CompletableFuture.completedFuture(null) : listPageAsync(URI.create(link), consumer));
+    }
+
+    /**
+     * Recursively list a folder tree, see {@link #walk(String, int)}. Up to 8 folders are listed concurrently.
+     */
+    public Stream<RemoteItem> walk(String path) {
+        return walk(path, 8);
+    }
+
+    /**
+     * Recursively list all files and folders below the given path, listing up to <code>fanOut</code> folders concurrently.
+     * <p>
+     * Items are streamed as soon as their parent folder is listed, in no particular order except that a folder always
+     * comes before its content. The stream should be closed if not fully consumed. Failures are thrown by the stream
+     * as {@link java.io.UncheckedIOException}.
+     */
+    public Stream<RemoteItem> walk(String path, int fanOut) {
+        return new RemoteTreeWalker(this, fanOut, WALK_BUFFER_SIZE).walk(path);
+    }
+
+    /**
+     * List files and sub-folders of a folder, with their metadata, in a single request.
+     */
+    CompletableFuture<List<RemoteItem>> listFolderContentAsync(String path) {
+        HttpRequest request = jsonRequest(folderUrl(path)
+                + "?$expand=Folders,Files&$select=Folders/Name,Folders/TimeLastModified,"
+                + "Files/Name,Files/Length,Files/TimeLastModified,Files/ETag")
+                .GET()
+                .build();
+
+        return handle(sendAsync(request, JSON_BODY), response -> {
+            checkForError(response);
+            JSONObject json = new JSONObject(response.body());
+            JSONArray folders = json.getJSONArray("Folders");
+            JSONArray files = json.getJSONArray("Files");
+            List<RemoteItem> items = new ArrayList<>(folders.length() + files.length());
+            for (int i = 0; i < folders.length(); i++) {
+                items.add(RemoteItem.fromJson(path, folders.getJSONObject(i), true));
+            }
+            for (int i = 0; i < files.length(); i++) {
+                items.add(RemoteItem.fromJson(path, files.getJSONObject(i), false));
+            }
+            return items;
+        });
+    }
+
+    /**
+     * Fetch the token designating the current position in the change log of a list.
+     */
+    CompletableFuture<String> getCurrentChangeTokenAsync(String listTitle) {
+        HttpRequest request = jsonRequest(listUrl(listTitle) + "?$select=CurrentChangeToken")
+                .GET()
+                .build();
+
+        return handle(sendAsync(request, JSON_BODY), response -> {
+            checkForError(response);
+            return new JSONObject(response.body()).getJSONObject("CurrentChangeToken").getString("StringValue");
+        });
+    }
+
+    /**
+     * Query the change log of a list, handing each change to the consumer as it is read.
+     *
+     * @param query the properties of a SP.ChangeQuery
+     */
+    CompletableFuture<Void> getChangesAsync(String listTitle, JSONObject query, Consumer<JSONObject> consumer) {
+        HttpRequest request = jsonRequest(listUrl(listTitle) + "/GetChanges")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(new JSONObject().put("query", query).toString()))
+                .build();
+
+        // a POST only because of the query body: reading changes can safely be retried
+        return handleAsync(sendAsync(request, HttpResponse.BodyHandlers.ofInputStream(), true), response -> {
+            try (InputStream body = response.body()) {
+                if (response.statusCode() >= 400) {
+                    throw error(response, new String(body.readNBytes(MAX_ERROR_BODY), StandardCharsets.UTF_8));
+                }
+                ListingParser.parse(body, consumer);
+                return null;
+            }
+        });
     }
 
+    /**
+     * Convert a server relative URL, as found in change logs, to a path accepted by the other client methods.
+     * URLs outside of this site are returned unchanged.
+     */
+    String toSitePath(String serverRelativeUrl) {
+        return serverRelativeUrl.startsWith(sitePathPrefix) ? serverRelativeUrl.substring(sitePathPrefix.length()) : serverRelativeUrl;
+    }
 
     public void createFolder(String parent, String folderName) throws IOException, InterruptedException {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(String.format("%s/_api/web/folders", siteUrl)))
-                .header("Authorization", "Bearer " + token)
-                .header("Accept", "application/json")
+        await(createFolderAsync(parent, folderName));
+    }
+
+    public CompletableFuture<Void> createFolderAsync(String parent, String folderName) {
+        HttpRequest request = jsonRequest(apiUrl + "/web/folders")
                 .header("Content-Type", "application/json")
                 .POST(HttpRequest.BodyPublishers.ofString(
-                        String.format("{\"ServerRelativeUrl\": \"%s/%s\"}", parent, folderName)))
+                        "{\"ServerRelativeUrl\": \"" + parent + "/" + folderName + "\"}"))
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        checkForError(response);
+        return invalidating(sendChecked(request), cache -> {
+            cache.invalidateFolders(parent);
+            cache.invalidate(parent + "/" + folderName);
+        });
     }
 
     public void deleteFolder(String path) throws IOException, InterruptedException {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(siteUrl + "/_api/web/GetFolderByServerRelativeUrl('" + encodePath(path) + "')"))
-                .header("Authorization", "Bearer " + token)
-                .header("Accept", "application/json")
+        await(deleteFolderAsync(path));
+    }
+
+    public CompletableFuture<Void> deleteFolderAsync(String path) {
+        HttpRequest request = jsonRequest(folderUrl(path))
                 .header("If-Match", "*")
                 .DELETE()
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        checkForError(response);
+        return invalidating(sendChecked(request), cache -> invalidateFolder(cache, path));
     }
 
-
     public void uploadFile(String folder, String filename, File file) throws IOException, InterruptedException {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(String.format("%s/_api/web/GetFolderByServerRelativeUrl('%s')/Files/Add(url='%s',overwrite=true)",
-                        siteUrl, encodePath(folder), encodePath(filename))))
-                .header("Authorization", "Bearer " + token)
-                .header("Accept", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofFile(file.toPath()))
+        await(uploadFileAsync(folder, filename, file));
+    }
+
+    public CompletableFuture<Void> uploadFileAsync(String folder, String filename, File file) {
+        HttpRequest.BodyPublisher body;
+        try {
+            body = HttpRequest.BodyPublishers.ofFile(file.toPath());
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        HttpRequest request = jsonRequest(addFileUrl(folder, filename))
+                .POST(body)
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        checkForError(response);
+        return invalidating(sendChecked(request), cache -> cache.invalidateFiles(folder));
     }
 
     public void uploadFile(String folder, String filename, byte[] data) throws IOException, InterruptedException {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(String.format("%s/_api/web/GetFolderByServerRelativeUrl('%s')/Files/Add(url='%s',overwrite=true)",
-                        siteUrl, encodePath(folder), encodePath(filename))))
-                .header("Authorization", "Bearer " + token)
-                .header("Accept", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofByteArray(data))
-                .build();
+        await(uploadFileAsync(folder, filename, data));
+    }
+
+    public CompletableFuture<Void> uploadFileAsync(String folder, String filename, byte[] data) {
+        return uploadFileAsync(folder, filename, data, data.length);
+    }
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        checkForError(response);
+    void uploadFile(String folder, String filename, byte[] data, int length) throws IOException, InterruptedException {
+        await(uploadFileAsync(folder, filename, data, length));
     }
 
+    private CompletableFuture<Void> uploadFileAsync(String folder, String filename, byte[] data, int length) {
+        return invalidating(postAsync(URI.create(addFileUrl(folder, filename)), data, length),
+                cache -> cache.invalidateFiles(folder));
+    }
+
+    /**
+     * Upload a local file, using a chunked upload if it is bigger than the current threshold chosen by the chunk sizer.
+     * The progress callback is only called for chunked uploads.
+     */
+    public void uploadFile(String folder, File file, Consumer<Double> progressCallback) throws IOException, InterruptedException {
+        if (file.length() < chunkSizer.singleShotThreshold()) {
+            long start = System.nanoTime();
+            uploadFile(folder, file.getName(), file);
+            chunkSizer.recordSuccess(file.length(), System.nanoTime() - start);
+        } else if (uploadJournalDirectory != null) {
+            Path journal = uploadJournalDirectory.resolve(UploadJournal.fileName(siteUrl, folder, file.getName()));
+            uploadBigFile(folder, file.getName(), file, journal, progressCallback);
+        } else {
+            try (FileInputStream input = new FileInputStream(file)) {
+                uploadBigFile(folder, file.getName(), file.length(), input, progressCallback);
+            }
+        }
+    }
+
+    public CompletableFuture<Void> uploadFileAsync(String folder, File file, Consumer<Double> progressCallback) {
+        return runBlocking(() -> {
+            uploadFile(folder, file, progressCallback);
+            return null;
+        });
+    }
+
+    /**
+     * Upload several local files to the same folder, with up to <code>parallelism</code> concurrent uploads.
+     * The listener is notified in the order of the given list. All files are attempted, and an exception is thrown
+     * at the end if any of them failed.
+     */
+    public void uploadFiles(String folder, List<File> files, int parallelism, UploadListener listener)
+            throws IOException, InterruptedException {
+        new ParallelUploader(this, parallelism).upload(folder, files, listener);
+    }
+
+    /**
+     * Upload a local folder tree as a single ZIP archive, so that folders of many small files cost a few chunk
+     * requests instead of one request per file. The archive is compressed on a separate thread while it is uploaded,
+     * without any temporary file. See {@link #downloadArchive(String, String, Path)} to extract it back.
+     */
+    public void uploadArchive(String folder, String archiveName, Path localFolder) throws IOException, InterruptedException {
+        PipedInputStream input = new PipedInputStream(ARCHIVE_PIPE_SIZE);
+        PipedOutputStream output = new PipedOutputStream(input);
+        AtomicReference<IOException> compressionError = new AtomicReference<>();
+        CompletableFuture<Void> compression = runBlocking(() -> {
+            try {
+                ZipArchives.write(localFolder, output);
+                output.close();
+            } catch (Throwable e) {
+                // recorded before breaking the pipe, so that the upload reports the actual cause,
+                // whatever it is: otherwise the upload would wait for the rest of the archive forever
+                compressionError.set(e instanceof IOException ? (IOException) e
+                        : new IOException("Unable to compress " + localFolder + ": " + e, e));
+                input.close();
+            }
+            return null;
+        });
+
+        try {
+            uploadBigFile(folder, archiveName, 0, input, progress -> {
+            });
+        } catch (IOException e) {
+            IOException cause = compressionError.get();
+            throw cause != null ? cause : e;
+        } finally {
+            // stops the compression if the upload failed
+            input.close();
+        }
+        await(compression);
+    }
+
+    public CompletableFuture<Void> uploadArchiveAsync(String folder, String archiveName, Path localFolder) {
+        return runBlocking(() -> {
+            uploadArchive(folder, archiveName, localFolder);
+            return null;
+        });
+    }
+
+    /**
+     * Download a ZIP archive and extract it into a local folder while it is received, replacing existing files.
+     * Entries which would be written outside of the local folder are rejected.
+     *
+     * @return the number of extracted files
+     */
+    public int downloadArchive(String folder, String archiveName, Path localFolder) throws IOException, InterruptedException {
+        try (InputStream input = download(folder, archiveName)) {
+            return ZipArchives.extract(input, localFolder);
+        }
+    }
+
+    public CompletableFuture<Integer> downloadArchiveAsync(String folder, String archiveName, Path localFolder) {
+        return runBlocking(() -> downloadArchive(folder, archiveName, localFolder));
+    }
+
+    /**
+     * Upload content of any size with a chunked upload. Reading the next chunks from the input overlaps with
+     * sending the current one, see {@link #setUploadPipelineDepth(int)}.
+     *
+     * @param size the expected content size, only used to report progress
+     */
     public void uploadBigFile(String folder, String filename, long size, InputStream input, Consumer<Double> progressCallback)
             throws IOException, InterruptedException {
-        // create small file first, it will be overwritten later
-        uploadFile(folder, filename, "PLACEHOLDER".getBytes());
-
-        String uid = UUID.randomUUID().toString();
-        byte[] buffer = new byte[10*1024*1024]; //10MB
-        int nread;
-        int offset = 0;
-
-        do {
-            nread = input.read(buffer);
-            if(nread == 0)
-                continue;
-
-            URI uri;
-
-            if(offset == 0) {
-                // first chunck, start upload
-                uri = URI.create(String.format("%s/_api/web/GetFolderByServerRelativeUrl('%s')/Files('%s')/StartUpload(uploadID='%s')",
-                        siteUrl, encodePath(folder), encodePath(filename), uid));
-            } else if(offset + nread < size) {
-                // next chunck, start upload
-                uri = URI.create(String.format("%s/_api/web/GetFolderByServerRelativeUrl('%s')/Files('%s')/ContinueUpload(uploadID='%s',fileOffset=%d)",
-                        siteUrl, encodePath(folder), encodePath(filename), uid, offset));
-            } else {
-                // last chunk, finish upload
-                uri = URI.create(String.format("%s/_api/web/GetFolderByServerRelativeUrl('%s')/Files('%s')/FinishUpload(uploadID='%s',fileOffset=%d)",
-                        siteUrl, encodePath(folder), encodePath(filename), uid, offset));
+        try {
+            new ChunkedUploader(this, bufferPool, chunkSizer, uploadPipelineDepth).upload(folder, filename, size, input, progressCallback);
+        } finally {
+            invalidateFiles(folder);
+        }
+    }
+
+    /**
+     * Asynchronous chunked upload. Chunks of the same file must be sent in order, so the upload runs on a
+     * separate thread rather than being split into independent requests.
+     */
+    public CompletableFuture<Void> uploadBigFileAsync(String folder, String filename, long size, InputStream input,
+                                                      Consumer<Double> progressCallback) {
+        return runBlocking(() -> {
+            uploadBigFile(folder, filename, size, input, progressCallback);
+            return null;
+        });
+    }
+
+    /**
+     * Upload a local file with a resumable chunked upload.
+     * <p>
+     * The upload state is kept in the journal file while the upload is running. If a previous upload of the same
+     * unmodified file failed, it is resumed from the last acknowledged chunk instead of starting over.
+     * If the server doesn't know about the previous upload anymore, a new upload is started.
+     */
+    public void uploadBigFile(String folder, String filename, File file, Path journalFile, Consumer<Double> progressCallback)
+            throws IOException, InterruptedException {
+        UploadJournal journal = UploadJournal.open(journalFile, folder, filename, file);
+        if (journal.isResumable()) {
+            long resumeOffset = journal.getOffset();
+            try {
+                uploadWithJournal(folder, filename, file, journal, progressCallback);
+                return;
+            } catch (SharepointException e) {
+                boolean rejected = e.getStatusCode() >= 400 && e.getStatusCode() < 500 && e.getStatusCode() != 429;
+                if (!rejected || journal.getOffset() != resumeOffset) {
+                    // transient failure, the journal is still valid for a later attempt
+                    throw e;
+                }
+                // upload session expired or unknown, start over
+                journal.delete();
             }
+        }
+        uploadWithJournal(folder, filename, file, journal, progressCallback);
+    }
+
+    private void uploadWithJournal(String folder, String filename, File file, UploadJournal journal, Consumer<Double> progressCallback)
+            throws IOException, InterruptedException {
+        try (FileInputStream input = new FileInputStream(file)) {
+            input.getChannel().position(journal.getOffset());
+            new ChunkedUploader(this, bufferPool, chunkSizer, uploadPipelineDepth)
+                    .upload(folder, filename, file.length(), input, progressCallback, journal);
+        } finally {
+            invalidateFiles(folder);
+        }
+    }
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(uri)
-                    .header("Authorization", "Bearer " + token)
-                    .header("Accept", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofByteArray(buffer, 0, nread))
-                    .build();
+    /**
+     * Make chunked uploads of local files resumable, by keeping their journal in the given directory.
+     * Uploading again the same file after a failure will resume it. Use null to disable.
+     */
+    public void setUploadJournalDirectory(Path directory) {
+        this.uploadJournalDirectory = directory;
+    }
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            checkForError(response);
+    /**
+     * Replace the strategy used to choose chunk sizes, for example to set size bounds or use a fixed size.
+     * The sizer keeps its measurements between uploads.
+     */
+    public void setChunkSizer(AdaptiveChunkSizer chunkSizer) {
+        this.chunkSizer = chunkSizer;
+    }
 
-            offset += nread;
-            progressCallback.accept(100d * offset / size);
-        } while (offset < size);
+    /**
+     * @return the upload throughput measurements and the currently chosen chunk size.
+     */
+    public UploadStats getUploadStats() {
+        return chunkSizer.getStats();
+    }
+
+    /**
+     * Set how many chunks are read ahead while a chunked upload request is in flight.
+     * Each chunk uses up to the maximum chunk size of memory.
+     */
+    public void setUploadPipelineDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Pipeline depth must be at least 1: " + depth);
+        }
+        this.uploadPipelineDepth = depth;
     }
 
     public void deleteFile(String folder, String filename) throws IOException, InterruptedException {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(siteUrl + "/_api/web/GetFolderByServerRelativeUrl('" + encodePath(folder) + "')/Files('" + encodePath(filename) + "')"))
-                .header("Authorization", "Bearer " + token)
-                .header("Accept", "application/json")
+        await(deleteFileAsync(folder, filename));
+    }
+
+    public CompletableFuture<Void> deleteFileAsync(String folder, String filename) {
+        HttpRequest request = jsonRequest(fileUrl(folder, filename))
                 .header("If-Match", "*")
                 .DELETE()
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        checkForError(response);
+        return invalidating(sendChecked(request), cache -> cache.invalidateFiles(folder));
+    }
+
+    /**
+     * Copy a file on the server, without transferring its content through the client.
+     *
+     * @param targetPath the path of the copy, including its file name
+     * @param overwrite  whether to replace an existing file, otherwise the copy fails if the target exists
+     */
+    public void copyFile(String folder, String filename, String targetPath, boolean overwrite) throws IOException, InterruptedException {
+        await(copyFileAsync(folder, filename, targetPath, overwrite));
+    }
+
+    public CompletableFuture<Void> copyFileAsync(String folder, String filename, String targetPath, boolean overwrite) {
+        HttpRequest request = jsonRequest(fileUrl(folder, filename)
+                + "/copyTo(strNewUrl='" + PathEncoder.encode(sitePathPrefix + targetPath) + "',bOverWrite=" + overwrite + ")")
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+
+        return invalidating(sendChecked(request), cache -> cache.invalidateFiles(parentOf(targetPath)));
+    }
+
+    /**
+     * Move or rename a file on the server, keeping its version history.
+     *
+     * @param targetPath the new path of the file, including its file name
+     * @param overwrite  whether to replace an existing file, otherwise the move fails if the target exists
+     */
+    public void moveFile(String folder, String filename, String targetPath, boolean overwrite) throws IOException, InterruptedException {
+        await(moveFileAsync(folder, filename, targetPath, overwrite));
+    }
+
+    public CompletableFuture<Void> moveFileAsync(String folder, String filename, String targetPath, boolean overwrite) {
+        HttpRequest request = jsonRequest(fileUrl(folder, filename)
+                + "/moveTo(newUrl='" + PathEncoder.encode(sitePathPrefix + targetPath) + "',flags=" + (overwrite ? 1 : 0) + ")")
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+
+        return invalidating(sendChecked(request), cache -> {
+            cache.invalidateFiles(folder);
+            cache.invalidateFiles(parentOf(targetPath));
+        });
+    }
+
+    /**
+     * Copy a folder and everything it contains on the server. The copy happens within a single request:
+     * for large trees, use a {@link CopyJob} instead.
+     *
+     * @param targetPath the path of the copy, which must not exist yet
+     */
+    public void copyFolder(String path, String targetPath) throws IOException, InterruptedException {
+        await(copyFolderAsync(path, targetPath));
+    }
+
+    public CompletableFuture<Void> copyFolderAsync(String path, String targetPath) {
+        JSONObject body = new JSONObject()
+                .put("srcUrl", absoluteUrl(path))
+                .put("destUrl", absoluteUrl(targetPath));
+        HttpRequest request = jsonRequest(apiUrl + "/SP.MoveCopyUtil.CopyFolder()")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+
+        return invalidating(sendChecked(request), cache -> invalidateFolder(cache, targetPath));
+    }
+
+    /**
+     * Move or rename a folder and everything it contains on the server.
+     *
+     * @param targetPath the new path of the folder, which must not exist yet
+     */
+    public void moveFolder(String path, String targetPath) throws IOException, InterruptedException {
+        await(moveFolderAsync(path, targetPath));
+    }
+
+    public CompletableFuture<Void> moveFolderAsync(String path, String targetPath) {
+        HttpRequest request = jsonRequest(folderUrl(path)
+                + "/moveTo(newUrl='" + PathEncoder.encode(sitePathPrefix + targetPath) + "')")
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+
+        return invalidating(sendChecked(request), cache -> {
+            invalidateFolder(cache, path);
+            invalidateFolder(cache, targetPath);
+        });
+    }
+
+    /**
+     * Start server side copy jobs, see {@link CopyJob}.
+     *
+     * @return the descriptions of the started jobs, to poll their progress
+     */
+    CompletableFuture<List<JSONObject>> createCopyJobsAsync(List<String> sourceUrls, String destinationUrl, JSONObject options) {
+        JSONObject body = new JSONObject()
+                .put("exportObjectUris", new JSONArray(sourceUrls))
+                .put("destinationUri", destinationUrl)
+                .put("options", options);
+        HttpRequest request = jsonRequest(apiUrl + "/site/CreateCopyJobs")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+
+        return handle(sendAsync(request, JSON_BODY), response -> {
+            checkForError(response);
+            JSONArray values = new JSONObject(response.body()).getJSONArray("value");
+            List<JSONObject> jobs = new ArrayList<>(values.length());
+            for (int i = 0; i < values.length(); i++) {
+                JSONObject job = values.getJSONObject(i);
+                job.keySet().removeIf(key -> key.startsWith("odata."));
+                jobs.add(job);
+            }
+            return jobs;
+        });
+    }
+
+    /**
+     * Fetch the state of a copy job and the log entries written since the last call.
+     */
+    CompletableFuture<JSONObject> getCopyJobProgressAsync(JSONObject job) {
+        HttpRequest request = jsonRequest(apiUrl + "/site/GetCopyJobProgress")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(new JSONObject().put("copyJobInfo", job).toString()))
+                .build();
+
+        // polling doesn't change the job, it can be sent again
+        return handle(sendAsync(request, JSON_BODY, true), response -> {
+            checkForError(response);
+            return new JSONObject(response.body());
+        });
+    }
+
+    /**
+     * @return the absolute URL of a path of this site. Absolute URLs are returned unchanged, to reach other sites.
+     */
+    String absoluteUrl(String path) {
+        return path.startsWith("https://") || path.startsWith("http://") ? path : siteUrl + "/" + path;
     }
 
     public InputStream download(String folder, String filename) throws IOException, InterruptedException {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(siteUrl + "/_api/web/GetFolderByServerRelativeUrl('" + encodePath(folder) + "')/Files('" + encodePath(filename) + "')/$value"))
-                .header("Authorization", "Bearer " + token)
+        return await(downloadAsync(folder, filename));
+    }
+
+    public CompletableFuture<InputStream> downloadAsync(String folder, String filename) {
+        DownloadCache cache = downloadCache;
+        if (cache != null) {
+            return runBlocking(() -> cache.open(this, folder, filename));
+        }
+
+        HttpRequest request = request(fileUrl(folder, filename) + "/$value")
                 .GET()
                 .build();
 
-        HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
-        if(response.statusCode() != 200) {
-            throw new IOException("Unable to download file: HTTP error " + response.statusCode());
+        return handle(sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()), response -> {
+            if (response.statusCode() != 200) {
+                response.body().close();
+                throw new SharepointException(response.statusCode(), "Unable to download file: HTTP error " + response.statusCode());
+            }
+            return response.body();
+        });
+    }
+
+    /**
+     * Serve {@link #download(String, String)} from the given cache, which only downloads files again when they changed.
+     * The same cache can be shared by several clients. Use null to disable.
+     */
+    public void setDownloadCache(DownloadCache downloadCache) {
+        this.downloadCache = downloadCache;
+    }
+
+    /**
+     * Download a file unless its ETag still matches the given one, in which case the response is a 304 without body.
+     */
+    <T> HttpResponse<T> downloadIfNoneMatch(String folder, String filename, String etag,
+                                            HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = request(fileUrl(folder, filename) + "/$value").GET();
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
         }
-        return response.body();
+
+        // bodies are written from the start of the file, they can be retried
+        return await(sendAsync(builder.build(), bodyHandler));
     }
 
-    private void checkForError(HttpResponse<String> response) throws IOException {
-        String body = response.body();
-        if (!body.isBlank()) {
+    /**
+     * Download a file to a local path. The content is written to the file as it arrives, without going through
+     * an intermediate stream.
+     */
+    public DownloadResult downloadTo(String folder, String filename, Path target) throws IOException, InterruptedException {
+        return downloadTo(folder, filename, target, null);
+    }
+
+    /**
+     * Download a file to a local path, computing a checksum of the content on the fly.
+     *
+     * @param digestAlgorithm a {@link java.security.MessageDigest} algorithm such as "SHA-256", or null for no checksum
+     */
+    public DownloadResult downloadTo(String folder, String filename, Path target, String digestAlgorithm)
+            throws IOException, InterruptedException {
+        return await(downloadToAsync(folder, filename, target, digestAlgorithm));
+    }
+
+    public CompletableFuture<DownloadResult> downloadToAsync(String folder, String filename, Path target, String digestAlgorithm) {
+        // written next to the target and moved in place once complete, so a failure leaves an existing file untouched
+        Path temp;
+        FileChannel channel;
+        try {
+            Path absolute = target.toAbsolutePath();
+            temp = Files.createTempFile(absolute.getParent(), "." + absolute.getFileName(), ".part");
+            channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<DownloadResult> download = downloadToAsync(folder, filename, channel, digestAlgorithm);
+        CompletableFuture<DownloadResult> result = new CompletableFuture<>();
+        download.whenComplete((downloaded, error) -> {
+            Throwable failure = error;
             try {
-                JSONObject json = new JSONObject(body);
-                if (json.has("odata.error")) {
-                    throw new IOException(json.getJSONObject("odata.error").getJSONObject("message").getString("value"));
+                channel.close();
+                if (error == null) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
                 }
-            } catch (JSONException e) {
-                throw new IOException("Unknown error: " + body);
+            } catch (IOException e) {
+                failure = error != null ? error : e;
+            }
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // only a leftover temporary file
             }
+
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(downloaded);
+            }
+        });
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                download.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Download a file to any writable channel, computing a checksum of the content on the fly.
+     * The channel is not closed.
+     *
+     * @param digestAlgorithm a {@link java.security.MessageDigest} algorithm such as "SHA-256", or null for no checksum
+     */
+    public DownloadResult downloadTo(String folder, String filename, WritableByteChannel channel, String digestAlgorithm)
+            throws IOException, InterruptedException {
+        return await(downloadToAsync(folder, filename, channel, digestAlgorithm));
+    }
+
+    public CompletableFuture<DownloadResult> downloadToAsync(String folder, String filename, WritableByteChannel channel,
+                                                             String digestAlgorithm) {
+        MessageDigest digest = digestAlgorithm == null ? null : Hashes.digest(digestAlgorithm);
+        HttpRequest request = request(fileUrl(folder, filename) + "/$value")
+                .GET()
+                .build();
+
+        long start = System.nanoTime();
+        // content may already be written to the channel when a transfer fails, it can't be retried here
+        CompletableFuture<HttpResponse<Long>> future = sendAsync(request, info -> info.statusCode() == 200
+                ? new ChannelBodySubscriber(channel, -1, digest)
+                : HttpResponse.BodySubscribers.replacing(-1L), false);
+        return handle(future, response -> {
+            if (response.statusCode() != 200) {
+                throw new SharepointException(response.statusCode(), "Unable to download file: HTTP error " + response.statusCode());
+            }
+            return new DownloadResult(response.body(), Duration.ofNanos(System.nanoTime() - start),
+                    digest == null ? null : Hashes.hex(digest.digest()));
+        });
+    }
+
+    /**
+     * Download a file to a local path, using up to <code>parallelism</code> concurrent range requests.
+     * <p>
+     * If the download is interrupted, calling this method again with the same target resumes it, as long as the
+     * remote file hasn't changed. If the server doesn't support range requests, the file is downloaded with a single request.
+     */
+    public void downloadSegmented(String folder, String filename, Path target, int parallelism) throws IOException, InterruptedException {
+        new RangedDownloader(this, parallelism, downloadSegmentSize).download(folder, filename, target);
+    }
+
+    /**
+     * Set the size of each range request used by {@link #downloadSegmented(String, String, Path, int)}.
+     * Changing the size prevents resuming downloads started with a different size.
+     */
+    public void setDownloadSegmentSize(int segmentSize) {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("Segment size must be positive: " + segmentSize);
+        }
+        this.downloadSegmentSize = segmentSize;
+    }
+
+    /**
+     * Request part of a file. The response is either a 206 with the requested range, or a 200 with the full content
+     * when the server ignores the range or when the ETag doesn't match <code>ifRange</code>.
+     */
+    <T> HttpResponse<T> downloadRange(String folder, String filename, long start, long length, String ifRange,
+                                      HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = request(fileUrl(folder, filename) + "/$value")
+                .header("Range", "bytes=" + start + "-" + (start + length - 1))
+                .GET();
+        if (ifRange != null) {
+            builder.header("If-Range", ifRange);
         }
+
+        // range bodies are written at their position, they can be retried
+        return await(sendAsync(builder.build(), bodyHandler));
+    }
+
+    /**
+     * Send a POST request with the given binary content, and check the response for errors.
+     */
+    void post(URI uri, byte[] data, int length) throws IOException, InterruptedException {
+        await(postAsync(uri, data, length));
+    }
+
+    private CompletableFuture<Void> postAsync(URI uri, byte[] data, int length) {
+        HttpRequest request = jsonRequest(uri)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(data, 0, length))
+                .build();
+
+        // chunks are sent again at the same offset, which the server rejects if the first attempt went through
+        return handle(sendAsync(request, ERROR_BODY, true), response -> {
+            checkForError(response);
+            return null;
+        });
+    }
+
+    /**
+     * Send operations as a single OData $batch request.
+     *
+     * @return one result per operation, in order
+     */
+    CompletableFuture<List<BatchResult>> sendBatchAsync(List<BatchCodec.Operation> operations) {
+        String boundary = BatchCodec.newBoundary("batch");
+        HttpRequest request = jsonRequest(apiUrl + "/$batch")
+                .header("Content-Type", "multipart/mixed; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofString(BatchCodec.encode(boundary, operations)))
+                .build();
+
+        return invalidating(handle(sendAsync(request, JSON_BODY), response -> {
+            checkForError(response);
+
+            List<BatchCodec.Response> responses = BatchCodec.decode(response.headers().firstValue("Content-Type").orElse(""), response.body());
+            List<BatchResult> results = new ArrayList<>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                String description = operations.get(i).description;
+                if (i >= responses.size()) {
+                    // the server stops processing a batch after some failures
+                    results.add(new BatchResult(description, -1, new IOException("Not executed by the server")));
+                    continue;
+                }
+
+                int statusCode = responses.get(i).statusCode;
+                IOException error = statusCode >= 400 ? SharepointException.fromResponse(statusCode, responses.get(i).body, null) : null;
+                results.add(new BatchResult(description, statusCode, error));
+            }
+            return results;
+        }), ListingCache::clear);
+    }
+
+    /**
+     * Invalidate cached listings once the given change completes, whatever its outcome.
+     */
+    private <T> CompletableFuture<T> invalidating(CompletableFuture<T> change, Consumer<ListingCache> invalidation) {
+        ListingCache cache = listingCache;
+        if (cache != null) {
+            change.whenComplete((result, error) -> invalidation.accept(cache));
+        }
+        return change;
+    }
+
+    private void invalidateFiles(String folder) {
+        ListingCache cache = listingCache;
+        if (cache != null) {
+            cache.invalidateFiles(folder);
+        }
+    }
+
+    /**
+     * Forget all cached listings, after changes too broad to track, such as batches or copy jobs.
+     */
+    void invalidateListings() {
+        ListingCache cache = listingCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Forget everything known about a folder which was created, deleted or moved, including its entry in its parent.
+     */
+    private static void invalidateFolder(ListingCache cache, String path) {
+        cache.invalidateFolders(parentOf(path));
+        cache.invalidate(path);
+    }
+
+    private static String parentOf(String path) {
+        int index = path.lastIndexOf('/');
+        return index < 0 ? "" : path.substring(0, index);
+    }
+
+    String folderUrl(String path) {
+        return folderUrlPrefix + PathEncoder.encode(path) + "')";
+    }
+
+    String fileUrl(String folder, String filename) {
+        return folderUrlPrefix + PathEncoder.encode(folder) + "')/Files('" + PathEncoder.encode(filename) + "')";
+    }
+
+    private String addFileUrl(String folder, String filename) {
+        return folderUrlPrefix + PathEncoder.encode(folder) + "')/Files/Add(url='" + PathEncoder.encode(filename) + "',overwrite=true)";
+    }
+
+    private String listUrl(String listTitle) {
+        return apiUrl + "/web/lists/GetByTitle('" + PathEncoder.encode(listTitle) + "')";
+    }
+
+    String getSiteUrl() {
+        return siteUrl;
+    }
+
+    /**
+     * Send a request once a permit is available, retrying it as allowed by the retry policy.
+     * All requests of this client go through here.
+     */
+    <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+        return sendAsync(request, bodyHandler, IDEMPOTENT_METHODS.contains(request.method()));
+    }
+
+    /**
+     * @param idempotent whether the request can be sent again after a transport failure or a server error
+     */
+    <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler, boolean idempotent) {
+        TokenManager manager = this.tokenManager;
+        RetryPolicy policy = this.retryPolicy;
+        MetricsListener listener = this.metricsListener;
+        CompletableFuture<HttpResponse<T>> first = policy.sendAsync(request, idempotent, r -> sendOnce(r, bodyHandler, listener), listener);
+        if (manager == null || request.headers().firstValue("Authorization").isEmpty()) {
+            return first;
+        }
+
+        // a rejected token was probably revoked or expired early: authenticate again, and retry once
+        CompletableFuture<HttpResponse<T>> result = first.thenCompose(response -> {
+            if (response.statusCode() != 401) {
+                return CompletableFuture.completedFuture(response);
+            }
+            discard(response);
+            String rejected = request.headers().firstValue("Authorization").orElse("").substring("Bearer ".length());
+            return manager.refreshAsync(rejected).thenCompose(token ->
+                    policy.sendAsync(withToken(request, token.getValue()), idempotent, r -> sendOnce(r, bodyHandler, listener), listener));
+        });
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                first.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Send a request once the governor allows it. The permit is held until the response headers are received.
+     * The latency reported to the listener starts when the permit is granted.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendOnce(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler,
+                                                            MetricsListener listener) {
+        long bytes = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(0L);
+        CompletableFuture<RequestGovernor.Permit> permit = governor.acquire(request.uri(), bytes);
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        permit.whenComplete((granted, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            if (result.isDone()) {
+                granted.release();
+                return;
+            }
+
+            long start = System.nanoTime();
+            AtomicLong received = new AtomicLong();
+            CompletableFuture<HttpResponse<T>> exchange;
+            try {
+                exchange = transport.sendAsync(request, info -> new CountingBodySubscriber<>(bodyHandler.apply(info), received));
+            } catch (RuntimeException e) {
+                granted.release();
+                result.completeExceptionally(e);
+                return;
+            }
+            exchange.whenComplete((response, failure) -> {
+                granted.release();
+                // recorded first, so that callers see the metrics of the requests they waited for
+                record(listener, request, bytes, response, received.get(), failure, System.nanoTime() - start);
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else if (!result.complete(response)) {
+                    discard(response);
+                }
+            });
+            result.whenComplete((response, failure) -> {
+                if (result.isCancelled()) {
+                    exchange.cancel(true);
+                }
+            });
+        });
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                permit.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Copy a request, replacing its access token.
+     */
+    private static HttpRequest withToken(HttpRequest request, String token) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.uri())
+                .method(request.method(), request.bodyPublisher().orElse(HttpRequest.BodyPublishers.noBody()))
+                .expectContinue(request.expectContinue());
+        request.timeout().ifPresent(builder::timeout);
+        request.version().ifPresent(builder::version);
+        request.headers().map().forEach((name, values) -> {
+            if (!name.equalsIgnoreCase("Authorization")) {
+                values.forEach(value -> builder.header(name, value));
+            }
+        });
+        return builder.header("Authorization", "Bearer " + token).build();
+    }
+
+    private static void record(MetricsListener listener, HttpRequest request, long bytesSent, HttpResponse<?> response,
+                               long bytesCounted, Throwable failure, long nanos) {
+        OperationType type = OperationType.of(request.method(), request.uri());
+        Duration latency = Duration.ofNanos(nanos);
+        try {
+            if (failure != null) {
+                listener.requestFailed(type, request, failure, latency);
+            } else {
+                // streamed bodies are still being received, only their announced size is known
+                long bytesReceived = response.body() instanceof InputStream
+                        ? response.headers().firstValueAsLong("Content-Length").orElse(0) : bytesCounted;
+                listener.requestCompleted(type, request, response.statusCode(), latency, Math.max(0, bytesSent), bytesReceived);
+            }
+        } catch (RuntimeException e) {
+            // a failing listener must not prevent the request from completing
+        }
+    }
+
+    private static void discard(HttpResponse<?> response) {
+        if (response.body() instanceof InputStream) {
+            try {
+                ((InputStream) response.body()).close();
+            } catch (IOException ignored) {
+                // nothing left to read anyway
+            }
+        }
+    }
+
+    private CompletableFuture<Void> sendChecked(HttpRequest request) {
+        return handle(sendAsync(request, ERROR_BODY), response -> {
+            checkForError(response);
+            return null;
+        });
+    }
+
+    /**
+     * Process a response, turning checked exceptions into a failed future.
+     * Cancelling the returned future also cancels the source.
+     */
+    private static <T, R> CompletableFuture<R> handle(CompletableFuture<T> source, ResponseHandler<T, R> handler) {
+        CompletableFuture<R> result = source.thenCompose(value -> {
+            try {
+                return CompletableFuture.completedFuture(handler.apply(value));
+            } catch (IOException | RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Same as {@link #handle(CompletableFuture, ResponseHandler)}, but the handler runs on a separate thread
+     * because it blocks, for example to read a streamed body.
+     */
+    private <T, R> CompletableFuture<R> handleAsync(CompletableFuture<T> source, ResponseHandler<T, R> handler) {
+        CompletableFuture<R> result = source.thenComposeAsync(value -> {
+            try {
+                return CompletableFuture.completedFuture(handler.apply(value));
+            } catch (IOException | RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }, blockingExecutor);
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Run a blocking operation on a separate thread.
+     */
+    private <T> CompletableFuture<T> runBlocking(BlockingOperation<T> operation) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        var task = blockingExecutor.submit(() -> {
+            try {
+                result.complete(operation.run());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Wait for an asynchronous operation, and rethrow its failure as it would have been thrown by a blocking call.
+     */
+    static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Success is decided from the status code alone, the body is only parsed for errors.
+     */
+    private static void checkForError(HttpResponse<String> response) throws SharepointException {
+        if (response.statusCode() >= 400) {
+            throw error(response, response.body());
+        }
+    }
+
+    private static SharepointException error(HttpResponse<?> response, String body) {
+        return SharepointException.fromResponse(response.statusCode(), body, response.headers().firstValue("Retry-After").orElse(null));
+    }
+
+    @FunctionalInterface
+    private interface ResponseHandler<T, R> {
+        R apply(T response) throws IOException;
     }
 
-    private String encodePath(String path) {
-        // no percent URI encoding without a third party library, use form encoding instead and fix spaces
-        return URLEncoder.encode(path, StandardCharsets.UTF_8).replace("+", "%20");
+    @FunctionalInterface
+    private interface BlockingOperation<T> {
+        T run() throws Exception;
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import com.nanalysis.sharepoint.http.RetryPolicy;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * An error reported by the sharepoint server, as opposed to a network or local failure.
+ */
+public class SharepointException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /** Longest part of a non-JSON error body kept in the message. */
+    private static final int MAX_MESSAGE_BODY = 512;
+
+    private final int statusCode;
+    private final String errorCode;
+    private final Duration retryAfter;
+
+    public SharepointException(int statusCode, String message) {
+        this(statusCode, null, message, null);
+    }
+
+    /**
+     * @param errorCode  the OData error code, or null if unknown
+     * @param retryAfter the delay asked by the server before trying again, or null if none
+     */
+    public SharepointException(int statusCode, String errorCode, String message, Duration retryAfter) {
+        super(message);
+        this.statusCode = statusCode;
+        this.errorCode = errorCode;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Build the exception for an error response, from its OData error if the body holds one.
+     *
+     * @param body       the beginning of the response body, maybe empty
+     * @param retryAfter the Retry-After header, or null
+     */
+    static SharepointException fromResponse(int statusCode, String body, String retryAfter) {
+        Duration delay = retryAfter == null ? null : RetryPolicy.parseRetryAfter(retryAfter);
+        if (body.isBlank()) {
+            return new SharepointException(statusCode, null, "HTTP error " + statusCode, delay);
+        }
+
+        JSONObject error;
+        try {
+            JSONObject json = new JSONObject(body);
+            // minimal and no metadata responses use "odata.error", verbose and OData v4 responses use "error"
+            error = json.has("odata.error") ? json.optJSONObject("odata.error") : json.optJSONObject("error");
+        } catch (JSONException e) {
+            // throttling and gateway errors come with an HTML page
+            String excerpt = body.length() > MAX_MESSAGE_BODY ? body.substring(0, MAX_MESSAGE_BODY) + "..." : body;
+            return new SharepointException(statusCode, null, "Unknown error: " + excerpt, delay);
+        }
+        if (error == null) {
+            return new SharepointException(statusCode, null, "HTTP error " + statusCode, delay);
+        }
+
+        JSONObject message = error.optJSONObject("message");
+        String text = message != null ? message.optString("value") : error.optString("message");
+        return new SharepointException(statusCode, error.optString("code", null),
+                text.isEmpty() ? "HTTP error " + statusCode : text, delay);
+    }
+
+    /**
+     * @return the HTTP status code of the failed response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the OData error code, such as <code>-2147024894, System.IO.FileNotFoundException</code>,
+     * or null if the response didn't hold an OData error.
+     */
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * @return the delay asked by the server before sending the request again, or null if none was given.
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @return whether the server asked to slow down: the request can be sent again later.
+     */
+    public boolean isThrottled() {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    /**
+     * @return whether the failure is likely transient, so that sending the same request again may succeed.
+     */
+    public boolean isRetryable() {
+        return isThrottled() || statusCode == 500 || statusCode == 502 || statusCode == 504;
+    }
+}
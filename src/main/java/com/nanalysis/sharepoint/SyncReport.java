@@ -0,0 +1,95 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of a folder synchronization: what was transferred, deleted or left untouched, and what failed.
+ */
+public class SyncReport {
+    private int transferred;
+    private long bytesTransferred;
+    private int foldersCreated;
+    private int deleted;
+    private int unchanged;
+    private final Map<String, Exception> failures = new LinkedHashMap<>();
+
+    synchronized void transferred(long bytes) {
+        transferred++;
+        bytesTransferred += bytes;
+    }
+
+    synchronized void folderCreated() {
+        foldersCreated++;
+    }
+
+    synchronized void deleted() {
+        deleted++;
+    }
+
+    synchronized void unchanged() {
+        unchanged++;
+    }
+
+    synchronized void failed(String path, Exception error) {
+        failures.put(path, error);
+    }
+
+    /**
+     * @return the number of files uploaded or downloaded.
+     */
+    public synchronized int getTransferred() {
+        return transferred;
+    }
+
+    public synchronized long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    public synchronized int getFoldersCreated() {
+        return foldersCreated;
+    }
+
+    /**
+     * @return the number of files and folders deleted on the destination side.
+     */
+    public synchronized int getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * @return the number of files already up to date.
+     */
+    public synchronized int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * @return the relative path and error of each failed operation.
+     */
+    public synchronized Map<String, Exception> getFailures() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d files transferred (%d bytes), %d folders created, %d deleted, %d unchanged, %d failed",
+                transferred, bytesTransferred, foldersCreated, deleted, unchanged, failures.size());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * What was last synchronized, for each file relative to the synchronized roots.
+ * <p>
+ * Each entry records the local size and modification time, and the remote ETag when known.
+ * A file whose local attributes still match its entry hasn't changed locally since the last synchronization.
+ * Folders are recorded with a negative size.
+ */
+class SyncState {
+    private final Path path;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean loaded;
+
+    private SyncState(Path path) {
+        this.path = path;
+    }
+
+    static SyncState load(Path path) throws IOException {
+        SyncState state = new SyncState(path);
+        if (Files.isRegularFile(path)) {
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            for (String name : properties.stringPropertyNames()) {
+                Entry entry = Entry.parse(properties.getProperty(name));
+                if (entry != null) {
+                    state.entries.put(name, entry);
+                }
+            }
+            state.loaded = true;
+        }
+        return state;
+    }
+
+    /**
+     * @return true if the state comes from a previous synchronization.
+     */
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    synchronized Entry get(String relativePath) {
+        return entries.get(relativePath);
+    }
+
+    synchronized Set<String> paths() {
+        return Set.copyOf(entries.keySet());
+    }
+
+    synchronized void put(String relativePath, long size, long lastModified, String etag) {
+        entries.put(relativePath, new Entry(size, lastModified, etag));
+    }
+
+    synchronized void putFolder(String relativePath) {
+        entries.put(relativePath, new Entry(-1, 0, null));
+    }
+
+    synchronized void remove(String relativePath) {
+        entries.remove(relativePath);
+    }
+
+    synchronized void save() throws IOException {
+        Properties properties = new Properties();
+        entries.forEach((name, entry) -> properties.setProperty(name, entry.toString()));
+
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(writer, "sharepoint-client synchronization state");
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        loaded = true;
+    }
+
+    static class Entry {
+        final long size;
+        final long lastModified;
+        final String etag;
+
+        Entry(long size, long lastModified, String etag) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.etag = etag;
+        }
+
+        boolean isFolder() {
+            return size < 0;
+        }
+
+        boolean matchesLocal(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+
+        static Entry parse(String value) {
+            String[] parts = value.split("\\|", 3);
+            if (parts.length < 2) {
+                return null;
+            }
+            try {
+                return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                        parts.length > 2 && !parts[2].isEmpty() ? parts[2] : null);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return size + "|" + lastModified + "|" + (etag == null ? "" : etag);
+        }
+    }
+}
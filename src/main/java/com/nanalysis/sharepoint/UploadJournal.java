@@ -0,0 +1,172 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * Persistent state of a chunked upload, used to resume it after a failure.
+ * <p>
+ * The journal records the upload id, the identity of the local file and the last offset acknowledged by the server.
+ * It is only reused if the local file still has the same size, modification time and hash. To keep this check cheap
+ * on multi-GB files, the hash only covers the first and last megabyte of the file.
+ */
+class UploadJournal {
+    private static final int HASH_SAMPLE_SIZE = 1024 * 1024;
+
+    private final Path path;
+    private final String folder;
+    private final String filename;
+    private final long size;
+    private final long lastModified;
+    private final String hash;
+
+    private String uploadId;
+    private long offset;
+
+    private UploadJournal(Path path, String folder, String filename, long size, long lastModified, String hash) {
+        this.path = path;
+        this.folder = folder;
+        this.filename = filename;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.hash = hash;
+    }
+
+    /**
+     * Load the journal if it matches this upload, or create a new one.
+     */
+    static UploadJournal open(Path path, String folder, String filename, File file) throws IOException {
+        UploadJournal journal = new UploadJournal(path, folder, filename, file.length(), file.lastModified(), sampleHash(file));
+        if (Files.isRegularFile(path)) {
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+
+            if (journal.matches(properties)) {
+                journal.uploadId = properties.getProperty("uploadId");
+                journal.offset = Long.parseLong(properties.getProperty("offset", "0"));
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * @return a journal file name unique to the given remote file.
+     */
+    static String fileName(String siteUrl, String folder, String filename) {
+        return Hashes.sha256Hex(siteUrl + "/" + folder + "/" + filename) + ".upload";
+    }
+
+    /**
+     * @return true if a previous upload can be resumed.
+     */
+    boolean isResumable() {
+        return uploadId != null && offset > 0;
+    }
+
+    String getUploadId() {
+        return uploadId;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Record a new upload, starting from the beginning of the file.
+     */
+    void start(String uploadId) throws IOException {
+        this.uploadId = uploadId;
+        this.offset = 0;
+        save();
+    }
+
+    /**
+     * Record that the server has acknowledged everything before the given offset.
+     */
+    void acknowledge(long offset) throws IOException {
+        this.offset = offset;
+        save();
+    }
+
+    /**
+     * Forget about this upload, because it is either completed or can't be resumed anymore.
+     */
+    void delete() throws IOException {
+        uploadId = null;
+        offset = 0;
+        Files.deleteIfExists(path);
+    }
+
+    private boolean matches(Properties properties) {
+        return Objects.equals(folder, properties.getProperty("folder"))
+                && Objects.equals(filename, properties.getProperty("filename"))
+                && Objects.equals(String.valueOf(size), properties.getProperty("size"))
+                && Objects.equals(String.valueOf(lastModified), properties.getProperty("lastModified"))
+                && Objects.equals(hash, properties.getProperty("hash"))
+                && properties.getProperty("uploadId") != null;
+    }
+
+    private void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("folder", folder);
+        properties.setProperty("filename", filename);
+        properties.setProperty("size", String.valueOf(size));
+        properties.setProperty("lastModified", String.valueOf(lastModified));
+        properties.setProperty("hash", hash);
+        properties.setProperty("uploadId", uploadId);
+        properties.setProperty("offset", String.valueOf(offset));
+
+        // write then rename, so that a crash never leaves a truncated journal
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(writer, "sharepoint-client upload journal");
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String sampleHash(File file) throws IOException {
+        MessageDigest digest = Hashes.sha256();
+        byte[] buffer = new byte[HASH_SAMPLE_SIZE];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            int nread = raf.read(buffer);
+            if (nread > 0) {
+                digest.update(buffer, 0, nread);
+            }
+            if (raf.length() > 2L * HASH_SAMPLE_SIZE) {
+                raf.seek(raf.length() - HASH_SAMPLE_SIZE);
+                raf.readFully(buffer);
+                digest.update(buffer);
+            }
+        }
+        return Hashes.hex(digest.digest());
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.io.File;
+
+/**
+ * Receives progress events from a multi-file upload.
+ * Completion events are always delivered in submission order, even when uploads run concurrently.
+ */
+@FunctionalInterface
+public interface UploadListener {
+    /**
+     * Called once per file, in submission order.
+     *
+     * @param index position of the file in the submitted list
+     * @param file  the uploaded file
+     * @param error the failure cause, or null if the upload succeeded
+     */
+    void fileCompleted(int index, File file, Exception error);
+
+    /**
+     * Called while a chunked upload is in progress. Not ordered between files.
+     */
+    default void fileProgress(File file, double percent) {
+    }
+}
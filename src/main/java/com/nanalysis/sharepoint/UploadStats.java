@@ -0,0 +1,102 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of upload measurements, as seen by an {@link AdaptiveChunkSizer}.
+ */
+public class UploadStats {
+    private final int chunkSize;
+    private final int minChunkSize;
+    private final int maxChunkSize;
+    private final long singleShotThreshold;
+    private final double throughput;
+    private final double averageRequestMillis;
+    private final long requestCount;
+    private final long failureCount;
+    private final long bytesUploaded;
+    private final List<Integer> recentChunkSizes;
+
+    UploadStats(int chunkSize, int minChunkSize, int maxChunkSize, long singleShotThreshold, double throughput,
+                double averageRequestMillis, long requestCount, long failureCount, long bytesUploaded, List<Integer> recentChunkSizes) {
+        this.chunkSize = chunkSize;
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.singleShotThreshold = singleShotThreshold;
+        this.throughput = throughput;
+        this.averageRequestMillis = averageRequestMillis;
+        this.requestCount = requestCount;
+        this.failureCount = failureCount;
+        this.bytesUploaded = bytesUploaded;
+        this.recentChunkSizes = Collections.unmodifiableList(recentChunkSizes);
+    }
+
+    /** @return the size that will be used for the next chunk. */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getMinChunkSize() {
+        return minChunkSize;
+    }
+
+    public int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    /** @return the file size above which uploads are chunked. */
+    public long getSingleShotThreshold() {
+        return singleShotThreshold;
+    }
+
+    /** @return the smoothed upload throughput in bytes per second, 0 if nothing was measured yet. */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /** @return the smoothed duration of upload requests, in milliseconds. */
+    public double getAverageRequestMillis() {
+        return averageRequestMillis;
+    }
+
+    /** @return the number of successful upload requests, chunks and single-shot uploads. */
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    public long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    /** @return the most recently chosen chunk sizes, oldest first. */
+    public List<Integer> getRecentChunkSizes() {
+        return recentChunkSizes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("chunk=%dKB, threshold=%dKB, throughput=%.1fKB/s, request=%.0fms, requests=%d, failures=%d, uploaded=%dKB",
+                chunkSize / 1024, singleShotThreshold / 1024, throughput / 1024, averageRequestMillis, requestCount, failureCount,
+                bytesUploaded / 1024);
+    }
+}
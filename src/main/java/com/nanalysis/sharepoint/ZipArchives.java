@@ -0,0 +1,107 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams local folder trees to and from ZIP archives, without temporary files, so that folders of many small files
+ * can be transferred as a single remote file.
+ */
+final class ZipArchives {
+    private ZipArchives() {
+    }
+
+    /**
+     * Write all files and folders below the given directory as a ZIP archive. Entries are relative to the directory,
+     * which isn't part of the archive itself. The output is not closed.
+     */
+    static void write(Path directory, OutputStream output) throws IOException {
+        Path root = directory.toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            throw new IOException("Not a valid local directory: " + root);
+        }
+
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(root)) {
+            // sorted, so that each folder comes before its content
+            paths = walk.filter(path -> !path.equals(root)).sorted().collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        ZipOutputStream zip = new ZipOutputStream(output);
+        for (Path path : paths) {
+            String name = root.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+            boolean isDirectory = Files.isDirectory(path);
+            ZipEntry entry = new ZipEntry(isDirectory ? name + "/" : name);
+            entry.setLastModifiedTime(Files.getLastModifiedTime(path));
+            zip.putNextEntry(entry);
+            if (!isDirectory) {
+                Files.copy(path, zip);
+            }
+            zip.closeEntry();
+        }
+        zip.finish();
+    }
+
+    /**
+     * Extract a ZIP archive into the given directory as it is read, replacing existing files.
+     * Entries which would be written outside of the directory are rejected.
+     *
+     * @return the number of extracted files
+     */
+    static int extract(InputStream input, Path directory) throws IOException {
+        Path root = Files.createDirectories(directory.toAbsolutePath().normalize());
+        ZipInputStream zip = new ZipInputStream(input);
+        int files = 0;
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            Path path = root.resolve(entry.getName()).normalize();
+            if (path.equals(root) && entry.isDirectory()) {
+                continue;
+            } else if (!path.startsWith(root) || path.equals(root)) {
+                throw new IOException("Archive entry outside of the target directory: " + entry.getName());
+            }
+
+            if (entry.isDirectory()) {
+                Files.createDirectories(path);
+            } else {
+                Files.createDirectories(path.getParent());
+                Files.copy(zip, path, StandardCopyOption.REPLACE_EXISTING);
+                files++;
+            }
+            FileTime lastModified = entry.getLastModifiedTime();
+            if (lastModified != null) {
+                Files.setLastModifiedTime(path, lastModified);
+            }
+        }
+        return files;
+    }
+}
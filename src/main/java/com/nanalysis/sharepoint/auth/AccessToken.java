@@ -0,0 +1,58 @@
+package com.nanalysis.sharepoint.auth;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * A token sent with each request, and its validity period.
+ */
+public class AccessToken {
+    private final String value;
+    private final Instant issuedAt;
+    private final Instant expiresAt;
+    private final String authorization;
+
+    public AccessToken(String value, Instant issuedAt, Instant expiresAt) {
+        this.value = value;
+        this.issuedAt = issuedAt;
+        this.expiresAt = expiresAt;
+        this.authorization = "Bearer " + value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return the Authorization header value sending this token, built once for all requests.
+     */
+    public String getAuthorization() {
+        return authorization;
+    }
+
+    public Instant getIssuedAt() {
+        return issuedAt;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    public Duration getLifetime() {
+        return Duration.between(issuedAt, expiresAt);
+    }
+
+    public boolean isExpired() {
+        return expiresWithin(Duration.ZERO);
+    }
+
+    public boolean expiresWithin(Duration duration) {
+        return !Instant.now().plus(duration).isBefore(expiresAt);
+    }
+
+    @Override
+    public String toString() {
+        // never print the token itself
+        return "AccessToken[expires at " + expiresAt + "]";
+    }
+}
@@ -1,39 +1,99 @@
 package com.nanalysis.sharepoint.auth;
 
+import com.nanalysis.sharepoint.http.HttpTransport;
+import com.nanalysis.sharepoint.http.RetryPolicy;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
+/**
+ * Gets an app-only access token for a sharepoint site, using the OAuth2 client credentials flow.
+ * <p>
+ * The tenant realm is discovered once per host and shared with other authenticators through a {@link RealmDiscovery}.
+ * Since tokens are issued for a host rather than a site, concurrent authentications of several sites of the same
+ * tenant with the same client also share a single token request.
+ */
 public class OAuth2Authenticator {
     private static final String OAUTH_URL_TEMPLATE = "https://accounts.accesscontrol.windows.net/${tenantId}/tokens/OAuth/2";
+    private static final Map<String, CompletableFuture<AccessToken>> PENDING_TOKENS = new ConcurrentHashMap<>();
 
-    private final HttpClient httpClient;
-    private final String baseUrl;
+    private final HttpTransport transport;
+    private final String host;
     private final String clientUrl;
+    private RealmDiscovery realmDiscovery = RealmDiscovery.shared();
+    private RetryPolicy retryPolicy = new RetryPolicy();
 
-    public OAuth2Authenticator(HttpClient httpClient, String baseUrl, String siteUrl) {
-        this.httpClient = httpClient;
-        this.baseUrl = baseUrl;
+    public OAuth2Authenticator(HttpTransport transport, String baseUrl, String siteUrl) throws IOException {
+        this.transport = transport;
+        this.host = new URL(baseUrl).getHost();
         this.clientUrl = siteUrl + "/_vti_bin/client.svc/";
     }
 
-    public String authenticate(String clientId, String clientSecret)
+    /**
+     * Use another realm cache than the shared one.
+     */
+    public void setRealmDiscovery(RealmDiscovery realmDiscovery) {
+        this.realmDiscovery = realmDiscovery;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public AccessToken authenticate(String clientId, String clientSecret)
             throws IOException, InterruptedException {
-        String host = new URL(baseUrl).getHost();
+        try {
+            return authenticateAsync(clientId, clientSecret).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Unable to authenticate: " + cause.getMessage(), cause);
+        }
+    }
+
+    public CompletableFuture<AccessToken> authenticateAsync(String clientId, String clientSecret) {
+        // the key is only kept in memory while the request is in progress
+        String key = host + "\n" + clientId + "\n" + clientSecret;
+        CompletableFuture<AccessToken> created = new CompletableFuture<>();
+        CompletableFuture<AccessToken> existing = PENDING_TOKENS.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
 
-        String header = getAuthenticationHeader();
-        String tenantId = extractAuthHeaderAttribute(header, "realm");
-        String resourceId = extractAuthHeaderAttribute(header, "client_id");
+        realmDiscovery.getAsync(host, this::discoverRealmAsync)
+                .thenCompose(realm -> requestTokenAsync(realm, clientId, clientSecret))
+                .whenComplete((token, error) -> {
+                    PENDING_TOKENS.remove(key);
+                    if (error != null) {
+                        // the realm may have changed, discover it again next time
+                        realmDiscovery.invalidate(host);
+                        created.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                    } else {
+                        created.complete(token);
+                    }
+                });
+        return created;
+    }
 
+    private CompletableFuture<AccessToken> requestTokenAsync(RealmDiscovery.Realm realm, String clientId, String clientSecret) {
+        String tenantId = realm.getTenantId();
         String clientAtTenant = clientId + "@" + tenantId;
-        String resource = resourceId + "/" + host+ "@" + tenantId;
+        String resource = realm.getResourceId() + "/" + host + "@" + tenantId;
         String body = "grant_type=client_credentials"
                 + "&client_id=" + URLEncoder.encode(clientAtTenant, StandardCharsets.UTF_8)
                 + "&client_secret=" + URLEncoder.encode(clientSecret, StandardCharsets.UTF_8)
@@ -46,24 +106,53 @@ public class OAuth2Authenticator {
                 .POST(HttpRequest.BodyPublishers.ofString(body))
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        JSONObject json = new JSONObject(response.body());
-        return json.getString("access_token");
+        Instant issuedAt = Instant.now();
+        // asking for a token again has no side effect
+        return retryPolicy.sendAsync(request, true, r -> transport.sendAsync(r, HttpResponse.BodyHandlers.ofString()))
+                .thenApply(response -> parseToken(response, issuedAt));
+    }
+
+    private static AccessToken parseToken(HttpResponse<String> response, Instant issuedAt) {
+        JSONObject json;
+        try {
+            json = new JSONObject(response.body());
+        } catch (JSONException e) {
+            throw new CompletionException(new IOException("Unable to authenticate, status " + response.statusCode()));
+        }
+        if (!json.has("access_token")) {
+            throw new CompletionException(new IOException("Unable to authenticate: "
+                    + json.optString("error_description", response.body())));
+        }
+
+        // numbers are sent as strings by the token endpoint
+        Instant expiresAt = json.has("expires_on")
+                ? Instant.ofEpochSecond(Long.parseLong(json.optString("expires_on")))
+                : issuedAt.plusSeconds(Long.parseLong(json.optString("expires_in", "3600")));
+        return new AccessToken(json.getString("access_token"), issuedAt, expiresAt);
     }
 
-    private String getAuthenticationHeader() throws IOException, InterruptedException {
+    private CompletableFuture<RealmDiscovery.Realm> discoverRealmAsync() {
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(clientUrl))
                 .header("Authorization", "Bearer")
                 .GET()
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        return response.headers().firstValue("WWW-Authenticate")
-                .orElseThrow(() -> new IOException("Unable to authenticate, no WWW-Authenticate header in response!"));
+        CompletableFuture<HttpResponse<Void>> future =
+                retryPolicy.sendAsync(request, true, r -> transport.sendAsync(r, HttpResponse.BodyHandlers.discarding()));
+        return future.thenApply(response -> {
+            try {
+                String header = response.headers().firstValue("WWW-Authenticate")
+                        .orElseThrow(() -> new IOException("Unable to authenticate, no WWW-Authenticate header in response!"));
+                return new RealmDiscovery.Realm(extractAuthHeaderAttribute(header, "realm"),
+                        extractAuthHeaderAttribute(header, "client_id"), Instant.MAX);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
     }
 
-    private String extractAuthHeaderAttribute(String authHeader, String attribute) throws IOException {
+    private static String extractAuthHeaderAttribute(String authHeader, String attribute) throws IOException {
         String realmMarker = attribute + "=\"";
         int start = authHeader.indexOf(realmMarker);
         if (start < 0) {
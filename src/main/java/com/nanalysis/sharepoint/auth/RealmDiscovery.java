@@ -0,0 +1,198 @@
+package com.nanalysis.sharepoint.auth;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the tenant realm and resource id of each sharepoint host, so that OAuth2 authentication doesn't need to
+ * discover them again for every client.
+ * <p>
+ * Entries expire after a configurable time to live. Concurrent lookups of the same host share a single discovery
+ * request. Entries can also be saved to a file, to be reused by later processes.
+ */
+public class RealmDiscovery {
+    private static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofHours(24);
+    private static final RealmDiscovery SHARED = new RealmDiscovery(DEFAULT_TIME_TO_LIVE);
+
+    /**
+     * The tenant realm and the sharepoint resource id, as advertised by the WWW-Authenticate header.
+     */
+    public static class Realm {
+        private final String tenantId;
+        private final String resourceId;
+        private final Instant expiresAt;
+
+        public Realm(String tenantId, String resourceId, Instant expiresAt) {
+            this.tenantId = tenantId;
+            this.resourceId = resourceId;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getTenantId() {
+            return tenantId;
+        }
+
+        public String getResourceId() {
+            return resourceId;
+        }
+
+        public Instant getExpiresAt() {
+            return expiresAt;
+        }
+
+        boolean isExpired() {
+            return !Instant.now().isBefore(expiresAt);
+        }
+
+        @Override
+        public String toString() {
+            return tenantId + "|" + resourceId + "|" + expiresAt.toEpochMilli();
+        }
+
+        static Realm parse(String value) {
+            String[] parts = value.split("\\|", -1);
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new Realm(parts[0], parts[1], Instant.ofEpochMilli(Long.parseLong(parts[2])));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private final Duration timeToLive;
+    private final Map<String, Realm> realms = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Realm>> pending = new ConcurrentHashMap<>();
+    private Path cacheFile;
+
+    public RealmDiscovery(Duration timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @return the instance used by default by all authenticators of this process.
+     */
+    public static RealmDiscovery shared() {
+        return SHARED;
+    }
+
+    public Duration getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Load the entries saved in the given file, and save new entries to it.
+     */
+    public synchronized void setCacheFile(Path file) throws IOException {
+        this.cacheFile = file;
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        for (String host : properties.stringPropertyNames()) {
+            Realm realm = Realm.parse(properties.getProperty(host));
+            if (realm != null && !realm.isExpired()) {
+                realms.putIfAbsent(host, realm);
+            }
+        }
+    }
+
+    /**
+     * Get the realm of the given host, calling <code>discoverer</code> only if there is no valid entry and no
+     * discovery in progress for this host.
+     *
+     * @param discoverer sends the discovery request, the expiry time of its result is ignored
+     */
+    public CompletableFuture<Realm> getAsync(String host, Supplier<CompletableFuture<Realm>> discoverer) {
+        Realm realm = realms.get(host);
+        if (realm != null && !realm.isExpired()) {
+            return CompletableFuture.completedFuture(realm);
+        }
+
+        CompletableFuture<Realm> created = new CompletableFuture<>();
+        CompletableFuture<Realm> existing = pending.putIfAbsent(host, created);
+        if (existing != null) {
+            return existing;
+        }
+        realm = realms.get(host);
+        if (realm != null && !realm.isExpired()) {
+            // another discovery completed in the meantime
+            pending.remove(host);
+            created.complete(realm);
+            return created;
+        }
+
+        CompletableFuture<Realm> discovery;
+        try {
+            discovery = discoverer.get();
+        } catch (RuntimeException e) {
+            discovery = CompletableFuture.failedFuture(e);
+        }
+        discovery.whenComplete((discovered, error) -> {
+            if (error != null) {
+                pending.remove(host);
+                created.completeExceptionally(error);
+                return;
+            }
+
+            Realm fresh = new Realm(discovered.getTenantId(), discovered.getResourceId(), Instant.now().plus(timeToLive));
+            realms.put(host, fresh);
+            pending.remove(host);
+            save();
+            created.complete(fresh);
+        });
+        return created;
+    }
+
+    /**
+     * Forget the realm of the given host, for example after it was rejected by the token endpoint.
+     */
+    public void invalidate(String host) {
+        if (realms.remove(host) != null) {
+            save();
+        }
+    }
+
+    public void clear() {
+        realms.clear();
+        save();
+    }
+
+    private synchronized void save() {
+        if (cacheFile == null) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        realms.forEach((host, realm) -> properties.setProperty(host, realm.toString()));
+        try {
+            Path parent = cacheFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, cacheFile.getFileName().toString(), ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                properties.store(writer, "sharepoint-client tenant realms");
+            }
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the cache file is only an optimization, discovery will be done again next time
+        }
+    }
+}
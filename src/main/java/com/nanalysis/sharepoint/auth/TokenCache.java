@@ -0,0 +1,211 @@
+package com.nanalysis.sharepoint.auth;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Saves an access token and the session cookies to an encrypted file, so that a later process can reuse them
+ * instead of authenticating again.
+ * <p>
+ * The file is encrypted with AES-GCM, using a key derived from the password or client secret: only a process knowing
+ * the credentials can read it, and a modified file is rejected.
+ */
+public class TokenCache {
+    private static final byte[] MAGIC = "SPTC1".getBytes(StandardCharsets.US_ASCII);
+    private static final int SALT_LENGTH = 16;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int KEY_ITERATIONS = 100_000;
+
+    private final Path file;
+    private final char[] secret;
+    private final SecureRandom random = new SecureRandom();
+    /** Earliest known expiry of each cookie, in epoch milliseconds. */
+    private final Map<String, Long> cookieExpiries = new ConcurrentHashMap<>();
+
+    public TokenCache(Path file, String secret) {
+        this.file = file;
+        this.secret = secret.toCharArray();
+    }
+
+    /**
+     * Read the cached token, and restore the cached cookies for the given site.
+     *
+     * @return the cached token, or null if there is no usable one
+     */
+    public AccessToken load(CookieStore cookies, URI site) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        JSONObject json;
+        try {
+            json = new JSONObject(decrypt(Files.readAllBytes(file)));
+        } catch (AEADBadTagException e) {
+            // other credentials, or a tampered file: ignore it, it will be replaced
+            return null;
+        } catch (GeneralSecurityException | JSONException e) {
+            throw new IOException("Unable to read token cache " + file + ": " + e.getMessage(), e);
+        }
+
+        AccessToken token = new AccessToken(json.getString("token"),
+                Instant.ofEpochMilli(json.getLong("issuedAt")), Instant.ofEpochMilli(json.getLong("expiresAt")));
+        if (token.isExpired()) {
+            return null;
+        }
+
+        JSONArray cookieArray = json.optJSONArray("cookies");
+        for (int i = 0; cookieArray != null && i < cookieArray.length(); i++) {
+            HttpCookie cookie = fromJson(cookieArray.getJSONObject(i));
+            if (cookie != null) {
+                cookies.add(site, cookie);
+            }
+        }
+        return token;
+    }
+
+    public void store(AccessToken token, List<HttpCookie> cookies) throws IOException {
+        JSONArray cookieArray = new JSONArray();
+        for (HttpCookie cookie : cookies) {
+            if (!cookie.hasExpired()) {
+                cookieArray.put(toJson(cookie));
+            }
+        }
+        JSONObject json = new JSONObject()
+                .put("token", token.getValue())
+                .put("issuedAt", token.getIssuedAt().toEpochMilli())
+                .put("expiresAt", token.getExpiresAt().toEpochMilli())
+                .put("cookies", cookieArray);
+
+        byte[] encrypted;
+        try {
+            encrypted = encrypt(json.toString());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to encrypt token cache: " + e.getMessage(), e);
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system, rely on the encryption only
+        }
+        Files.write(temp, encrypted);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private byte[] encrypt(String content) throws GeneralSecurityException {
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(salt);
+        random.nextBytes(iv);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, deriveKey(salt), new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(MAGIC);
+        byte[] encrypted = cipher.doFinal(content.getBytes(StandardCharsets.UTF_8));
+
+        return ByteBuffer.allocate(MAGIC.length + SALT_LENGTH + IV_LENGTH + encrypted.length)
+                .put(MAGIC).put(salt).put(iv).put(encrypted).array();
+    }
+
+    private String decrypt(byte[] data) throws GeneralSecurityException {
+        if (data.length < MAGIC.length + SALT_LENGTH + IV_LENGTH || !Arrays.equals(MAGIC, Arrays.copyOf(data, MAGIC.length))) {
+            throw new AEADBadTagException("Not a token cache file");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data, MAGIC.length, data.length - MAGIC.length);
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] iv = new byte[IV_LENGTH];
+        buffer.get(salt).get(iv);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, deriveKey(salt), new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(MAGIC);
+        return new String(cipher.doFinal(data, buffer.position(), buffer.remaining()), StandardCharsets.UTF_8);
+    }
+
+    private SecretKeySpec deriveKey(byte[] salt) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(secret, salt, KEY_ITERATIONS, 256);
+        try {
+            byte[] key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            return new SecretKeySpec(key, "AES");
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private JSONObject toJson(HttpCookie cookie) {
+        return new JSONObject()
+                .put("name", cookie.getName())
+                .put("value", cookie.getValue())
+                .put("domain", cookie.getDomain() == null ? "" : cookie.getDomain())
+                .put("path", cookie.getPath() == null ? "" : cookie.getPath())
+                .put("secure", cookie.getSecure())
+                .put("httpOnly", cookie.isHttpOnly())
+                .put("expiresAt", expiresAt(cookie));
+    }
+
+    /**
+     * @return when the cookie expires in epoch milliseconds, or -1 for a session cookie.
+     */
+    private long expiresAt(HttpCookie cookie) {
+        if (cookie.getMaxAge() < 0) {
+            return -1;
+        }
+        // max age is relative to the creation of the cookie object, which isn't exposed: keep the earliest expiry,
+        // so that saving the same cookie again doesn't extend it
+        long expiresAt = System.currentTimeMillis() + cookie.getMaxAge() * 1000;
+        return cookieExpiries.merge(cookieKey(cookie), expiresAt, Math::min);
+    }
+
+    private static String cookieKey(HttpCookie cookie) {
+        return cookie.getName() + ";" + cookie.getDomain() + ";" + cookie.getPath() + ";" + cookie.getValue();
+    }
+
+    private HttpCookie fromJson(JSONObject json) {
+        long expiresAt = json.getLong("expiresAt");
+        if (expiresAt >= 0 && expiresAt <= System.currentTimeMillis()) {
+            return null;
+        }
+
+        HttpCookie cookie = new HttpCookie(json.getString("name"), json.getString("value"));
+        cookie.setDomain(json.getString("domain").isEmpty() ? null : json.getString("domain"));
+        cookie.setPath(json.getString("path").isEmpty() ? null : json.getString("path"));
+        cookie.setSecure(json.getBoolean("secure"));
+        cookie.setHttpOnly(json.getBoolean("httpOnly"));
+        cookie.setMaxAge(expiresAt < 0 ? -1 : (expiresAt - System.currentTimeMillis()) / 1000);
+        cookie.setVersion(0);
+        if (expiresAt >= 0) {
+            cookieExpiries.merge(cookieKey(cookie), expiresAt, Math::min);
+        }
+        return cookie;
+    }
+}
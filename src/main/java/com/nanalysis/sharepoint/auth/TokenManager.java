@@ -0,0 +1,183 @@
+package com.nanalysis.sharepoint.auth;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps an access token valid, refreshing it in the background shortly before it expires.
+ * <p>
+ * Requests always read the current token without waiting: a refresh replaces the token once the new one is available.
+ * Concurrent refresh requests, for example several requests rejected with a 401 at the same time, share the same
+ * authentication. If a background refresh fails, the current token is kept and the refresh is retried later.
+ */
+public class TokenManager implements AutoCloseable {
+    private static final Duration MAX_REFRESH_MARGIN = Duration.ofMinutes(5);
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(30);
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sharepoint-token-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ExecutorService AUTHENTICATION_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "sharepoint-token-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Authenticates to get a new token.
+     */
+    @FunctionalInterface
+    public interface TokenSource {
+        AccessToken fetch() throws Exception;
+    }
+
+    private final TokenSource source;
+    private final Consumer<AccessToken> refreshListener;
+    private volatile AccessToken current;
+    private CompletableFuture<AccessToken> pending;
+    private ScheduledFuture<?> scheduled;
+    private boolean closed;
+
+    /**
+     * @param refreshListener notified with each new token, for example to save it
+     */
+    public TokenManager(TokenSource source, Consumer<AccessToken> refreshListener) {
+        this.source = source;
+        this.refreshListener = refreshListener;
+    }
+
+    /**
+     * Start with the given token, or authenticate right away if there is none or if it is about to expire.
+     */
+    public void start(AccessToken initial) throws IOException, InterruptedException {
+        if (initial != null && !initial.expiresWithin(refreshMargin(initial))) {
+            current = initial;
+            schedule(initial);
+            return;
+        }
+
+        try {
+            refreshAsync(null).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Authentication failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * @return the current token value, or an empty string before the first authentication.
+     */
+    public String currentValue() {
+        AccessToken token = checkedCurrent();
+        return token == null ? "" : token.getValue();
+    }
+
+    /**
+     * @return the Authorization header value of the current token, or "Bearer " before the first authentication.
+     */
+    public String currentAuthorization() {
+        AccessToken token = checkedCurrent();
+        return token == null ? "Bearer " : token.getAuthorization();
+    }
+
+    private AccessToken checkedCurrent() {
+        AccessToken token = current;
+        if (token != null && token.isExpired()) {
+            // the request will probably be rejected, make sure a new token is on its way
+            refreshAsync(token.getValue());
+        }
+        return token;
+    }
+
+    public AccessToken getCurrent() {
+        return current;
+    }
+
+    /**
+     * Authenticate again, unless the token was already replaced since <code>staleValue</code> was read.
+     *
+     * @param staleValue the token value that was rejected, or null to force a refresh
+     */
+    public synchronized CompletableFuture<AccessToken> refreshAsync(String staleValue) {
+        AccessToken token = current;
+        if (staleValue != null && token != null && !token.getValue().equals(staleValue) && !token.isExpired()) {
+            return CompletableFuture.completedFuture(token);
+        }
+        if (pending != null) {
+            return pending;
+        }
+
+        CompletableFuture<AccessToken> fetch = new CompletableFuture<>();
+        AUTHENTICATION_EXECUTOR.execute(() -> {
+            try {
+                fetch.complete(source.fetch());
+            } catch (Exception e) {
+                fetch.completeExceptionally(e);
+            }
+        });
+
+        // callers only see the new token once it is the current one
+        CompletableFuture<AccessToken> refresh = fetch.whenComplete(this::refreshed);
+        pending = refresh.isDone() ? null : refresh;
+        return refresh;
+    }
+
+    private void refreshed(AccessToken token, Throwable error) {
+        synchronized (this) {
+            pending = null;
+            if (error != null) {
+                // keep the current token while it is valid, and try again later
+                if (current != null && !closed) {
+                    scheduled = SCHEDULER.schedule(() -> refreshAsync(null), RETRY_DELAY.toMillis(), TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            current = token;
+            schedule(token);
+        }
+        refreshListener.accept(token);
+    }
+
+    private synchronized void schedule(AccessToken token) {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        if (closed) {
+            return;
+        }
+
+        Instant refreshAt = token.getExpiresAt().minus(refreshMargin(token));
+        long delay = Math.max(0, Duration.between(Instant.now(), refreshAt).toMillis());
+        scheduled = SCHEDULER.schedule(() -> refreshAsync(null), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static Duration refreshMargin(AccessToken token) {
+        Duration half = token.getLifetime().dividedBy(2);
+        return half.compareTo(MAX_REFRESH_MARGIN) < 0 ? half : MAX_REFRESH_MARGIN;
+    }
+
+    /**
+     * Stop refreshing the token in the background.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.nanalysis.sharepoint.auth;
 
+import com.nanalysis.sharepoint.http.HttpTransport;
+import com.nanalysis.sharepoint.http.RetryPolicy;
 import org.json.JSONObject;
 import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
@@ -12,9 +14,10 @@ import javax.xml.xpath.XPathFactory;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.util.concurrent.ExecutionException;
 
 public class UserPasswordAuthenticator {
     private static final String REQUEST_SECURITY_TOKEN_TEMPLATE =
@@ -49,15 +52,23 @@ public class UserPasswordAuthenticator {
                     "  </s:Body>\n" +
                     "</s:Envelope>";
 
-    private final HttpClient httpClient;
+    private final HttpTransport transport;
     private final String baseUrl;
+    private RetryPolicy retryPolicy = new RetryPolicy();
 
-    public UserPasswordAuthenticator(HttpClient httpClient, String baseUrl) {
-        this.httpClient = httpClient;
+    /**
+     * @param transport must keep cookies: the session cookies are needed along with the token
+     */
+    public UserPasswordAuthenticator(HttpTransport transport, String baseUrl) {
+        this.transport = transport;
         this.baseUrl = baseUrl;
     }
 
-    public String authenticate(String username, String password)
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public AccessToken authenticate(String username, String password)
             throws IOException, InterruptedException, XPathExpressionException, ParserConfigurationException, SAXException {
         String token = getSecurityToken(username, password);
         signin(token);
@@ -76,7 +87,7 @@ public class UserPasswordAuthenticator {
                 .POST(HttpRequest.BodyPublishers.ofString(authentication))
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = send(request);
         return extractXmlTag(response.body(), "BinarySecurityToken");
     }
 
@@ -86,20 +97,37 @@ public class UserPasswordAuthenticator {
                 .POST(HttpRequest.BodyPublishers.ofString(securityToken))
                 .build();
 
-        // we don't care about the response here, only the side effect: cookies are stored in http client
-        httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        // we don't care about the response here, only the side effect: cookies are stored in the transport
+        send(request);
     }
 
-    private String fetchBearerToken() throws IOException, InterruptedException {
+    private AccessToken fetchBearerToken() throws IOException, InterruptedException {
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(baseUrl + "/_api/contextinfo"))
                 .header("Accept", "application/json")
                 .POST(HttpRequest.BodyPublishers.ofString(" "))
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Instant issuedAt = Instant.now();
+        HttpResponse<String> response = send(request);
         JSONObject json = new JSONObject(response.body());
-        return json.getString("FormDigestValue");
+        return new AccessToken(json.getString("FormDigestValue"), issuedAt,
+                issuedAt.plusSeconds(json.optLong("FormDigestTimeoutSeconds", 1800)));
+    }
+
+    /**
+     * Send a request, retrying it on transient failures: each step of the sign in can safely be repeated.
+     */
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        try {
+            return retryPolicy.sendAsync(request, true, r -> transport.sendAsync(r, HttpResponse.BodyHandlers.ofString())).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Unable to authenticate: " + cause.getMessage(), cause);
+        }
     }
 
     private String extractXmlTag(String body, String tagName)
@@ -0,0 +1,40 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.http;
+
+import java.net.CookieStore;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends HTTP requests for a client and its authenticators.
+ * <p>
+ * The default implementation is {@link JavaHttpTransport}. Other implementations can add instrumentation,
+ * or answer requests without a server in tests.
+ */
+public interface HttpTransport {
+    /**
+     * Send a request once. Retries and limits are handled by the caller.
+     * Cancelling the returned future should abort the exchange if possible.
+     */
+    <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler);
+
+    /**
+     * @return the cookies received and sent by this transport, which hold the session of user authentication.
+     */
+    CookieStore getCookieStore();
+}
@@ -0,0 +1,173 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.http;
+
+import javax.net.ssl.SSLContext;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.CookieStore;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Transport based on the JDK {@link HttpClient}.
+ * <p>
+ * By default, HTTP/2 is preferred: all concurrent requests to a host are multiplexed over a single connection when
+ * the server supports it, and HTTP/1.1 connections are pooled otherwise. The size of the HTTP/1.1 pool, the keep alive
+ * timeout and the number of HTTP/2 streams per connection are JVM-wide settings of the JDK client, see the
+ * <code>jdk.httpclient.connectionPoolSize</code>, <code>jdk.httpclient.keepalive.timeout</code> and
+ * <code>jdk.httpclient.maxstreams</code> system properties.
+ */
+public class JavaHttpTransport implements HttpTransport {
+    private final HttpClient httpClient;
+    private final CookieManager cookieManager;
+    private final Duration requestTimeout;
+
+    private JavaHttpTransport(Builder builder) {
+        this.cookieManager = builder.cookieManager != null ? builder.cookieManager : new CookieManager(null, CookiePolicy.ACCEPT_ALL);
+        this.requestTimeout = builder.requestTimeout;
+
+        HttpClient.Builder client = HttpClient.newBuilder()
+                .cookieHandler(cookieManager)
+                .version(builder.version)
+                .followRedirects(builder.followRedirects);
+        if (builder.connectTimeout != null) {
+            client.connectTimeout(builder.connectTimeout);
+        }
+        if (builder.executor != null) {
+            client.executor(builder.executor);
+        }
+        if (builder.proxy != null) {
+            client.proxy(builder.proxy);
+        }
+        if (builder.sslContext != null) {
+            client.sslContext(builder.sslContext);
+        }
+        this.httpClient = client.build();
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+        return httpClient.sendAsync(withDefaultTimeout(request), bodyHandler);
+    }
+
+    @Override
+    public CookieStore getCookieStore() {
+        return cookieManager.getCookieStore();
+    }
+
+    /**
+     * @return the underlying client, for requests outside of sharepoint.
+     */
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    private HttpRequest withDefaultTimeout(HttpRequest request) {
+        if (requestTimeout == null || request.timeout().isPresent()) {
+            return request;
+        }
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.uri())
+                .method(request.method(), request.bodyPublisher().orElse(HttpRequest.BodyPublishers.noBody()))
+                .expectContinue(request.expectContinue())
+                .timeout(requestTimeout);
+        request.version().ifPresent(builder::version);
+        request.headers().map().forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+        return builder.build();
+    }
+
+    public static class Builder {
+        private HttpClient.Version version = HttpClient.Version.HTTP_2;
+        private HttpClient.Redirect followRedirects = HttpClient.Redirect.NEVER;
+        private Duration connectTimeout;
+        private Duration requestTimeout;
+        private Executor executor;
+        private ProxySelector proxy;
+        private SSLContext sslContext;
+        private CookieManager cookieManager;
+
+        private Builder() {
+        }
+
+        /**
+         * Prefer HTTP/2 (the default), which multiplexes concurrent requests over one connection per host,
+         * or force HTTP/1.1, which opens one pooled connection per concurrent request.
+         */
+        public Builder version(HttpClient.Version version) {
+            this.version = version;
+            return this;
+        }
+
+        public Builder followRedirects(HttpClient.Redirect followRedirects) {
+            this.followRedirects = followRedirects;
+            return this;
+        }
+
+        public Builder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Set the timeout of requests which don't have one, from sending the request to receiving the response
+         * headers. Streamed bodies are not covered.
+         */
+        public Builder requestTimeout(Duration requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        /**
+         * Set the executor running the asynchronous tasks of the client, such as completing responses.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder proxy(ProxySelector proxy) {
+            this.proxy = proxy;
+            return this;
+        }
+
+        public Builder sslContext(SSLContext sslContext) {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        /**
+         * Use the given cookie manager, for example to share a session between transports.
+         */
+        public Builder cookieManager(CookieManager cookieManager) {
+            this.cookieManager = cookieManager;
+            return this;
+        }
+
+        public JavaHttpTransport build() {
+            return new JavaHttpTransport(this);
+        }
+    }
+}
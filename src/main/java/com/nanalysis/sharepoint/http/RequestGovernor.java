@@ -0,0 +1,376 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.http;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the rate and the concurrency of requests, possibly across several clients.
+ * <p>
+ * Requests are grouped in partitions, either by host or by site. In each partition, a request is only sent when:
+ * <ul>
+ *     <li>a token is available in a bucket refilled at <code>requestsPerSecond</code>, holding up to one second worth of
+ *     tokens;</li>
+ *     <li>less than <code>maxInFlight</code> requests are in progress;</li>
+ *     <li>the request body fits within <code>maxBytesInFlight</code> together with the bodies being sent. A body bigger
+ *     than the limit is sent alone.</li>
+ * </ul>
+ * A zero or negative limit disables it. Waiting requests are served in order, and never block a thread.
+ * <p>
+ * Since asynchronous callers are never slowed down, the number of waiting requests is only limited by what they submit.
+ * Callers which may submit a large number of requests should bound it themselves, or use {@link #setMaxWaiting(int)}
+ * so that excess requests fail right away.
+ */
+public class RequestGovernor {
+    private static final RequestGovernor SHARED = new RequestGovernor(Scope.HOST, 0, 16, 0);
+
+    /**
+     * How requests are grouped for the limits.
+     */
+    public enum Scope {
+        /** Limits apply to all requests to the same host, for example a whole tenant. */
+        HOST,
+        /** Limits apply to the requests to the same site. */
+        SITE
+    }
+
+    /**
+     * Allows a single request, to be released once its response is received.
+     */
+    public interface Permit {
+        void release();
+    }
+
+    private final Scope scope;
+    private final double requestsPerSecond;
+    private final int maxInFlight;
+    private final long maxBytesInFlight;
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+    private volatile int maxWaiting = 0;
+
+    public RequestGovernor(Scope scope, double requestsPerSecond, int maxInFlight, long maxBytesInFlight) {
+        this.scope = scope;
+        this.requestsPerSecond = requestsPerSecond;
+        this.maxInFlight = maxInFlight;
+        this.maxBytesInFlight = maxBytesInFlight;
+    }
+
+    /**
+     * Limit the number of requests waiting for a permit in each partition. Beyond it, {@link #acquire(URI, long)}
+     * fails with a {@link RejectedExecutionException} instead of queueing the request. Unlimited (0) by default.
+     */
+    public void setMaxWaiting(int maxWaiting) {
+        this.maxWaiting = maxWaiting;
+    }
+
+    /**
+     * The default governor of all clients: at most 16 requests in progress per host.
+     */
+    public static RequestGovernor shared() {
+        return SHARED;
+    }
+
+    /**
+     * A governor which doesn't limit anything, but still collects statistics.
+     */
+    public static RequestGovernor unlimited() {
+        return new RequestGovernor(Scope.HOST, 0, 0, 0);
+    }
+
+    /**
+     * Wait for the limits of the partition of <code>uri</code> to allow a new request.
+     * Cancelling the returned future gives up waiting.
+     *
+     * @param bytes the size of the request body, 0 if unknown
+     */
+    public CompletableFuture<Permit> acquire(URI uri, long bytes) {
+        Partition partition = partitions.computeIfAbsent(partitionKey(uri), Partition::new);
+        return partition.acquire(Math.max(0, bytes));
+    }
+
+    /**
+     * @return the partition a request belongs to: its host, or its host and site.
+     */
+    String partitionKey(URI uri) {
+        String host = uri.getHost();
+        if (scope == Scope.SITE) {
+            String path = uri.getRawPath();
+            if (path != null && path.startsWith("/sites/")) {
+                int end = path.indexOf('/', "/sites/".length());
+                return host + (end < 0 ? path : path.substring(0, end));
+            }
+        }
+        return host;
+    }
+
+    /**
+     * @return the current state of each partition, sorted by key.
+     */
+    public List<Stats> getStats() {
+        List<Stats> stats = new ArrayList<>();
+        new TreeMap<>(partitions).values().forEach(partition -> stats.add(partition.stats()));
+        return stats;
+    }
+
+    /**
+     * @return the current state of the partition of <code>uri</code>.
+     */
+    public Stats getStats(URI uri) {
+        return partitions.computeIfAbsent(partitionKey(uri), Partition::new).stats();
+    }
+
+    /**
+     * A snapshot of the permits and waits of a partition.
+     */
+    public static class Stats {
+        private final String partition;
+        private final int inFlight;
+        private final long bytesInFlight;
+        private final int waiting;
+        private final double availableTokens;
+        private final long acquired;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+
+        Stats(String partition, int inFlight, long bytesInFlight, int waiting, double availableTokens, long acquired,
+              long totalWaitNanos, long maxWaitNanos) {
+            this.partition = partition;
+            this.inFlight = inFlight;
+            this.bytesInFlight = bytesInFlight;
+            this.waiting = waiting;
+            this.availableTokens = availableTokens;
+            this.acquired = acquired;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+
+        public String getPartition() {
+            return partition;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public long getBytesInFlight() {
+            return bytesInFlight;
+        }
+
+        /**
+         * @return the number of requests waiting for a permit.
+         */
+        public int getWaiting() {
+            return waiting;
+        }
+
+        /**
+         * @return the tokens left in the rate limiter bucket, infinite without rate limit.
+         */
+        public double getAvailableTokens() {
+            return availableTokens;
+        }
+
+        /**
+         * @return the number of permits given since the creation of the governor.
+         */
+        public long getAcquired() {
+            return acquired;
+        }
+
+        public Duration getTotalWait() {
+            return Duration.ofNanos(totalWaitNanos);
+        }
+
+        public Duration getAverageWait() {
+            return Duration.ofNanos(acquired == 0 ? 0 : totalWaitNanos / acquired);
+        }
+
+        public Duration getMaxWait() {
+            return Duration.ofNanos(maxWaitNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d in flight (%d bytes), %d waiting, %d acquired, average wait %d ms, max wait %d ms",
+                    partition, inFlight, bytesInFlight, waiting, acquired, getAverageWait().toMillis(), getMaxWait().toMillis());
+        }
+    }
+
+    private class Partition {
+        private final String key;
+        private final Deque<Waiter> waiters = new ArrayDeque<>();
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private int inFlight;
+        private long bytesInFlight;
+        private boolean wakeUpScheduled;
+        private long acquired;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+
+        Partition(String key) {
+            this.key = key;
+            this.tokens = burst();
+        }
+
+        private double burst() {
+            return Math.max(1, requestsPerSecond);
+        }
+
+        CompletableFuture<Permit> acquire(long bytes) {
+            Waiter waiter = new Waiter(bytes);
+            synchronized (this) {
+                int limit = maxWaiting;
+                if (limit > 0 && waiters.size() >= limit) {
+                    return CompletableFuture.failedFuture(
+                            new RejectedExecutionException(limit + " requests already waiting for " + key));
+                }
+                waiters.add(waiter);
+            }
+            waiter.future.whenComplete((permit, error) -> {
+                if (waiter.future.isCancelled()) {
+                    synchronized (this) {
+                        waiters.remove(waiter);
+                    }
+                    // the cancelled request may have been blocking the next ones
+                    grant();
+                }
+            });
+            grant();
+            return waiter.future;
+        }
+
+        /**
+         * Give permits to waiters, in order, as long as the limits allow it.
+         */
+        private void grant() {
+            List<Waiter> granted = new ArrayList<>();
+            synchronized (this) {
+                refill();
+                while (!waiters.isEmpty()) {
+                    Waiter next = waiters.peek();
+                    if (maxInFlight > 0 && inFlight >= maxInFlight) {
+                        break;
+                    }
+                    if (maxBytesInFlight > 0 && bytesInFlight > 0 && bytesInFlight + next.bytes > maxBytesInFlight) {
+                        break;
+                    }
+                    if (requestsPerSecond > 0 && tokens < 1) {
+                        scheduleWakeUp();
+                        break;
+                    }
+
+                    waiters.poll();
+                    if (requestsPerSecond > 0) {
+                        tokens--;
+                    }
+                    inFlight++;
+                    bytesInFlight += next.bytes;
+                    long wait = System.nanoTime() - next.createdAt;
+                    acquired++;
+                    totalWaitNanos += wait;
+                    maxWaitNanos = Math.max(maxWaitNanos, wait);
+                    granted.add(next);
+                }
+            }
+
+            // complete outside of the lock, callers continue on this thread
+            for (Waiter waiter : granted) {
+                Permit permit = new PartitionPermit(this, waiter.bytes);
+                if (!waiter.future.complete(permit)) {
+                    permit.release();
+                }
+            }
+        }
+
+        private void refill() {
+            if (requestsPerSecond <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(burst(), tokens + (now - refilledAt) * requestsPerSecond / 1e9);
+            refilledAt = now;
+        }
+
+        private void scheduleWakeUp() {
+            if (wakeUpScheduled) {
+                return;
+            }
+            wakeUpScheduled = true;
+            long delay = (long) Math.ceil((1 - tokens) * 1e9 / requestsPerSecond);
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> {
+                synchronized (this) {
+                    wakeUpScheduled = false;
+                }
+                grant();
+            });
+        }
+
+        void release(long bytes) {
+            synchronized (this) {
+                inFlight--;
+                bytesInFlight -= bytes;
+            }
+            grant();
+        }
+
+        synchronized Stats stats() {
+            refill();
+            return new Stats(key, inFlight, bytesInFlight, waiters.size(),
+                    requestsPerSecond > 0 ? tokens : Double.POSITIVE_INFINITY, acquired, totalWaitNanos, maxWaitNanos);
+        }
+    }
+
+    private static class Waiter {
+        private final long bytes;
+        private final long createdAt = System.nanoTime();
+        private final CompletableFuture<Permit> future = new CompletableFuture<>();
+
+        Waiter(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    private static class PartitionPermit implements Permit {
+        private final Partition partition;
+        private final long bytes;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        PartitionPermit(Partition partition, long bytes) {
+            this.partition = partition;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                partition.release(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.http;
+
+import com.nanalysis.sharepoint.metrics.MetricsListener;
+import com.nanalysis.sharepoint.metrics.OperationType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Sends requests again when they fail for a transient reason.
+ * <p>
+ * Throttled requests (429 and 503) are always retried, after the delay given by their Retry-After header. Throttling
+ * also slows down all other requests to the same host sent through policies sharing the same {@link ThrottleGates},
+ * by default all policies of the JVM, so that concurrent workers and clients back off together. Transport failures
+ * and other server errors (500, 502, 504) are only retried for idempotent requests, after an exponential backoff
+ * with jitter.
+ */
+public class RetryPolicy {
+    private volatile int maxAttempts = 5;
+    private volatile Duration initialDelay = Duration.ofMillis(500);
+    private volatile Duration maxDelay = Duration.ofMinutes(2);
+    private volatile ThrottleGates throttleGates = ThrottleGates.shared();
+
+    /**
+     * A policy which never retries, but still slows down requests when throttled.
+     */
+    public static RetryPolicy none() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(1);
+        return policy;
+    }
+
+    /**
+     * @param maxAttempts the maximum number of times a request is sent, 1 to disable retries
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("At least one attempt is needed: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Set the backoff delay before the first retry of a failed request, doubled for each following retry.
+     */
+    public void setInitialDelay(Duration initialDelay) {
+        this.initialDelay = initialDelay;
+    }
+
+    /**
+     * Set the longest delay to wait before a retry. A throttled request asking to wait longer than this fails instead.
+     */
+    public void setMaxDelay(Duration maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Set where the throttling state of each host is kept. Defaults to {@link ThrottleGates#shared()}.
+     */
+    public void setThrottleGates(ThrottleGates throttleGates) {
+        this.throttleGates = throttleGates;
+    }
+
+    public ThrottleGates getThrottleGates() {
+        return throttleGates;
+    }
+
+    /**
+     * @return true if requests to the given host are currently slowed down because of throttling.
+     */
+    public boolean isThrottling(String host) {
+        return throttleGates.isThrottling(host);
+    }
+
+    /**
+     * @return the number of throttled responses received from the given host.
+     */
+    public long getThrottledCount(String host) {
+        return throttleGates.getThrottledCount(host);
+    }
+
+    /**
+     * Send a request, and send it again as long as it fails for a transient reason and attempts are left.
+     *
+     * @param idempotent whether the request can be sent again after a transport failure or a server error.
+     *                   Must be false when the body handler has side effects, such as writing to a file.
+     * @param sender     sends the request once
+     * @return the last response, or the last failure. The body of intermediate responses is discarded.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, boolean idempotent,
+                                                            Function<HttpRequest, CompletableFuture<HttpResponse<T>>> sender) {
+        return sendAsync(request, idempotent, sender, MetricsListener.NONE);
+    }
+
+    /**
+     * Same as {@link #sendAsync(HttpRequest, boolean, Function)}, notifying the listener of throttling and retries.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, boolean idempotent,
+                                                            Function<HttpRequest, CompletableFuture<HttpResponse<T>>> sender,
+                                                            MetricsListener listener) {
+        Retry<T> retry = new Retry<>(request, idempotent, sender, listener);
+        ThrottleGate gate = throttleGates.forHost(request.uri().getHost());
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<?>> current = new AtomicReference<>();
+        result.whenComplete((response, error) -> {
+            CompletableFuture<?> attempt = current.get();
+            if (result.isCancelled() && attempt != null) {
+                attempt.cancel(true);
+            }
+        });
+
+        attempt(retry, gate, 1, result, current);
+        return result;
+    }
+
+    private <T> void attempt(Retry<T> retry, ThrottleGate gate, int attempt, CompletableFuture<HttpResponse<T>> result,
+                             AtomicReference<CompletableFuture<?>> current) {
+        HttpRequest request = retry.request;
+        Function<HttpRequest, CompletableFuture<HttpResponse<T>>> sender = retry.sender;
+        long wait = gate.reserve();
+        CompletableFuture<HttpResponse<T>> sent;
+        if (wait > 0) {
+            sent = CompletableFuture.runAsync(() -> {
+            }, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS)).thenCompose(ignored -> sender.apply(request));
+        } else {
+            try {
+                sent = sender.apply(request);
+            } catch (RuntimeException e) {
+                sent = CompletableFuture.failedFuture(e);
+            }
+        }
+        current.set(sent);
+        if (result.isCancelled()) {
+            sent.cancel(true);
+        }
+
+        sent.whenComplete((response, error) -> {
+            if (result.isDone()) {
+                discard(response);
+                return;
+            }
+
+            Duration delay = retryDelay(retry, response, error, attempt, gate);
+            if (delay == null) {
+                if (error != null) {
+                    result.completeExceptionally(unwrap(error));
+                } else {
+                    if (response.statusCode() < 500 && response.statusCode() != 429) {
+                        gate.succeeded();
+                    }
+                    result.complete(response);
+                }
+                return;
+            }
+
+            discard(response);
+            CompletableFuture.delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS)
+                    .execute(() -> attempt(retry, gate, attempt + 1, result, current));
+        });
+    }
+
+    /**
+     * @return how long to wait before the next attempt, or null to stop here.
+     */
+    private Duration retryDelay(Retry<?> retry, HttpResponse<?> response, Throwable error, int attempt, ThrottleGate gate) {
+        if (error != null) {
+            boolean transientFailure = unwrap(error) instanceof IOException;
+            return retry.idempotent && transientFailure && attempt < maxAttempts ? retry.retrying(attempt, -1, backoff(attempt)) : null;
+        }
+
+        int status = response.statusCode();
+        if (status == 429 || status == 503) {
+            Duration retryAfter = response.headers().firstValue("Retry-After")
+                    .map(RetryPolicy::parseRetryAfter)
+                    .orElse(null);
+            // slow down other requests even if this one is not retried
+            Duration pause = retryAfter != null ? retryAfter : backoff(attempt);
+            gate.throttled(pause);
+            retry.throttled(pause);
+            if (attempt >= maxAttempts || (retryAfter != null && retryAfter.compareTo(maxDelay) > 0)) {
+                return null;
+            }
+            // the gate makes the next attempt wait for the Retry-After delay
+            retry.retrying(attempt, status, pause);
+            return Duration.ZERO;
+        }
+        if (retry.idempotent && (status == 500 || status == 502 || status == 504) && attempt < maxAttempts) {
+            return retry.retrying(attempt, status, backoff(attempt));
+        }
+        return null;
+    }
+
+    /**
+     * Exponential backoff with jitter: a random delay between half and all of <code>initialDelay * 2^(attempt-1)</code>,
+     * at most <code>maxDelay</code>.
+     */
+    Duration backoff(int attempt) {
+        long max = maxDelay.toMillis();
+        long exponential = initialDelay.toMillis() << Math.min(attempt - 1, 30);
+        long ceiling = exponential <= 0 || exponential > max ? max : exponential;
+        return Duration.ofMillis(ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1));
+    }
+
+    /**
+     * Parse a Retry-After header, either a number of seconds or an HTTP date.
+     *
+     * @return the delay, or null if the value is invalid
+     */
+    public static Duration parseRetryAfter(String value) {
+        String trimmed = value.trim();
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(trimmed)));
+        } catch (NumberFormatException e) {
+            // not a number of seconds, should be a date
+        }
+        try {
+            Instant date = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            Duration delay = Duration.between(Instant.now(), date);
+            return delay.isNegative() ? Duration.ZERO : delay;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A request being sent, and how to send it again.
+     */
+    private static class Retry<T> {
+        private final HttpRequest request;
+        private final boolean idempotent;
+        private final Function<HttpRequest, CompletableFuture<HttpResponse<T>>> sender;
+        private final MetricsListener listener;
+        private final OperationType type;
+
+        Retry(HttpRequest request, boolean idempotent, Function<HttpRequest, CompletableFuture<HttpResponse<T>>> sender,
+              MetricsListener listener) {
+            this.request = request;
+            this.idempotent = idempotent;
+            this.sender = sender;
+            this.listener = listener;
+            this.type = OperationType.of(request.method(), request.uri());
+        }
+
+        Duration retrying(int failedAttempt, int statusCode, Duration delay) {
+            try {
+                listener.retrying(type, request, failedAttempt + 1, statusCode, delay);
+            } catch (RuntimeException e) {
+                // a failing listener must not prevent the request from completing
+            }
+            return delay;
+        }
+
+        void throttled(Duration pause) {
+            try {
+                listener.throttled(type, request, pause);
+            } catch (RuntimeException e) {
+                // a failing listener must not prevent the request from completing
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static void discard(HttpResponse<?> response) {
+        if (response != null && response.body() instanceof InputStream) {
+            try {
+                ((InputStream) response.body()).close();
+            } catch (IOException ignored) {
+                // nothing left to read anyway
+            }
+        }
+    }
+}
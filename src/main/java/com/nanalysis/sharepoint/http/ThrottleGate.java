@@ -0,0 +1,79 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.http;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Slows down all requests to a host together once it starts throttling.
+ * <p>
+ * A throttled response pauses every request until its Retry-After delay has elapsed, and spaces request starts by an
+ * interval which doubles with each throttled response. Successful responses shrink the interval back, by 10% each,
+ * until requests are no longer spaced.
+ */
+class ThrottleGate {
+    private static final long INITIAL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long MAX_INTERVAL = TimeUnit.SECONDS.toNanos(2);
+    private static final long MIN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // System.nanoTime() based
+    private long pausedUntil;
+    private long nextStart;
+    private long interval;
+    private long throttledCount;
+
+    ThrottleGate() {
+        long now = System.nanoTime();
+        this.pausedUntil = now;
+        this.nextStart = now;
+    }
+
+    /**
+     * Reserve a start time for a request.
+     *
+     * @return how long to wait before sending, in nanoseconds
+     */
+    synchronized long reserve() {
+        long now = System.nanoTime();
+        long start = Math.max(now, Math.max(pausedUntil, nextStart));
+        nextStart = start + interval;
+        return start - now;
+    }
+
+    synchronized void throttled(Duration retryAfter) {
+        throttledCount++;
+        pausedUntil = Math.max(pausedUntil, System.nanoTime() + retryAfter.toNanos());
+        interval = interval == 0 ? INITIAL_INTERVAL : Math.min(MAX_INTERVAL, interval * 2);
+    }
+
+    synchronized void succeeded() {
+        if (interval > 0) {
+            interval -= interval / 10;
+            if (interval < MIN_INTERVAL) {
+                interval = 0;
+            }
+        }
+    }
+
+    synchronized boolean isThrottling() {
+        return interval > 0 || pausedUntil - System.nanoTime() > 0;
+    }
+
+    synchronized long getThrottledCount() {
+        return throttledCount;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.http;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The throttling state of each host, shared by the retry policies using the same instance.
+ * <p>
+ * By default, all policies of the JVM use {@link #shared()}, so that throttling seen by one client or authenticator
+ * also slows down the others. Give a policy its own instance to make it track throttling separately.
+ */
+public class ThrottleGates {
+    private static final ThrottleGates SHARED = new ThrottleGates();
+
+    private final Map<String, ThrottleGate> gates = new ConcurrentHashMap<>();
+
+    /**
+     * The throttling state used by default by all retry policies.
+     */
+    public static ThrottleGates shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return true if requests to the given host are currently slowed down because of throttling.
+     */
+    public boolean isThrottling(String host) {
+        ThrottleGate gate = gates.get(host);
+        return gate != null && gate.isThrottling();
+    }
+
+    /**
+     * @return the number of throttled responses received from the given host.
+     */
+    public long getThrottledCount(String host) {
+        ThrottleGate gate = gates.get(host);
+        return gate == null ? 0 : gate.getThrottledCount();
+    }
+
+    ThrottleGate forHost(String host) {
+        return gates.computeIfAbsent(host, key -> new ThrottleGate());
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.metrics;
+
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps counters and latency histograms per operation type in memory, without any dependency.
+ * <p>
+ * Latencies are counted in buckets whose bounds double from 1 ms to about 17 minutes, so percentiles are
+ * approximated by the upper bound of their bucket.
+ */
+public class InMemoryMetrics implements MetricsListener {
+    private final Map<OperationType, Recorder> recorders = new EnumMap<>(OperationType.class);
+
+    public InMemoryMetrics() {
+        for (OperationType type : OperationType.values()) {
+            recorders.put(type, new Recorder());
+        }
+    }
+
+    @Override
+    public void requestCompleted(OperationType type, HttpRequest request, int statusCode, Duration latency,
+                                 long bytesSent, long bytesReceived) {
+        recorders.get(type).completed(statusCode, latency.toNanos(), bytesSent, bytesReceived);
+    }
+
+    @Override
+    public void requestFailed(OperationType type, HttpRequest request, Throwable error, Duration latency) {
+        recorders.get(type).failed(latency.toNanos());
+    }
+
+    @Override
+    public void retrying(OperationType type, HttpRequest request, int attempt, int statusCode, Duration delay) {
+        recorders.get(type).retried();
+    }
+
+    @Override
+    public void throttled(OperationType type, HttpRequest request, Duration retryAfter) {
+        recorders.get(type).throttled();
+    }
+
+    @Override
+    public void authenticated(String method, Duration latency, Throwable error) {
+        Recorder recorder = recorders.get(OperationType.AUTHENTICATION);
+        if (error == null) {
+            recorder.completed(200, latency.toNanos(), 0, 0);
+        } else {
+            recorder.failed(latency.toNanos());
+        }
+    }
+
+    public OperationStats getStats(OperationType type) {
+        return recorders.get(type).snapshot(type);
+    }
+
+    /**
+     * @return the statistics of each operation type which was used at least once.
+     */
+    public List<OperationStats> getStats() {
+        List<OperationStats> stats = new ArrayList<>();
+        for (OperationType type : OperationType.values()) {
+            OperationStats snapshot = getStats(type);
+            if (snapshot.getCount() > 0 || snapshot.getFailures() > 0) {
+                stats.add(snapshot);
+            }
+        }
+        return stats;
+    }
+
+    public void reset() {
+        recorders.values().forEach(Recorder::reset);
+    }
+
+    private static class Recorder {
+        private long count;
+        private long failures;
+        private long errors;
+        private long bytesSent;
+        private long bytesReceived;
+        private long retries;
+        private long throttled;
+        private long totalNanos;
+        private long maxNanos;
+        private long[] buckets = new long[OperationStats.BUCKET_COUNT];
+        private Map<Integer, Long> statusCounts = new TreeMap<>();
+
+        synchronized void completed(int statusCode, long nanos, long sent, long received) {
+            count++;
+            if (statusCode >= 400) {
+                errors++;
+            }
+            bytesSent += Math.max(0, sent);
+            bytesReceived += Math.max(0, received);
+            statusCounts.merge(statusCode, 1L, Long::sum);
+            recordLatency(nanos);
+        }
+
+        synchronized void failed(long nanos) {
+            failures++;
+            recordLatency(nanos);
+        }
+
+        synchronized void retried() {
+            retries++;
+        }
+
+        synchronized void throttled() {
+            throttled++;
+        }
+
+        private void recordLatency(long nanos) {
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            buckets[OperationStats.bucketOf(nanos)]++;
+        }
+
+        synchronized OperationStats snapshot(OperationType type) {
+            return new OperationStats(type, count, failures, errors, bytesSent, bytesReceived, retries, throttled,
+                    totalNanos, maxNanos, buckets.clone(), new TreeMap<>(statusCounts));
+        }
+
+        synchronized void reset() {
+            count = failures = errors = bytesSent = bytesReceived = retries = throttled = totalNanos = maxNanos = 0;
+            buckets = new long[OperationStats.BUCKET_COUNT];
+            statusCounts = new TreeMap<>();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.net.http.HttpRequest;
+import java.time.Duration;
+
+/**
+ * Emits Java Flight Recorder events, to analyze requests along with the rest of the JVM activity, for example with
+ * <code>java -XX:StartFlightRecording ...</code> and JDK Mission Control.
+ * <p>
+ * When running on the module path, the <code>jdk.jfr</code> module must be added with <code>--add-modules jdk.jfr</code>.
+ */
+public class JfrMetrics implements MetricsListener {
+    @Override
+    public void requestCompleted(OperationType type, HttpRequest request, int statusCode, Duration latency,
+                                 long bytesSent, long bytesReceived) {
+        RequestEvent event = new RequestEvent();
+        if (event.isEnabled()) {
+            event.operation = type.name();
+            event.method = request.method();
+            event.path = request.uri().getPath();
+            event.statusCode = statusCode;
+            event.latency = latency.toNanos();
+            event.bytesSent = bytesSent;
+            event.bytesReceived = bytesReceived;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void requestFailed(OperationType type, HttpRequest request, Throwable error, Duration latency) {
+        RequestEvent event = new RequestEvent();
+        if (event.isEnabled()) {
+            event.operation = type.name();
+            event.method = request.method();
+            event.path = request.uri().getPath();
+            event.statusCode = -1;
+            event.latency = latency.toNanos();
+            event.error = String.valueOf(error);
+            event.commit();
+        }
+    }
+
+    @Override
+    public void retrying(OperationType type, HttpRequest request, int attempt, int statusCode, Duration delay) {
+        RetryEvent event = new RetryEvent();
+        if (event.isEnabled()) {
+            event.operation = type.name();
+            event.path = request.uri().getPath();
+            event.attempt = attempt;
+            event.statusCode = statusCode;
+            event.delay = delay.toNanos();
+            event.commit();
+        }
+    }
+
+    @Override
+    public void throttled(OperationType type, HttpRequest request, Duration retryAfter) {
+        ThrottleEvent event = new ThrottleEvent();
+        if (event.isEnabled()) {
+            event.operation = type.name();
+            event.host = request.uri().getHost();
+            event.retryAfter = retryAfter.toNanos();
+            event.commit();
+        }
+    }
+
+    @Override
+    public void authenticated(String method, Duration latency, Throwable error) {
+        AuthenticationEvent event = new AuthenticationEvent();
+        if (event.isEnabled()) {
+            event.method = method;
+            event.latency = latency.toNanos();
+            event.error = error == null ? null : String.valueOf(error);
+            event.commit();
+        }
+    }
+
+    @Name("com.nanalysis.sharepoint.Request")
+    @Label("SharePoint Request")
+    @Category("SharePoint")
+    @StackTrace(false)
+    static class RequestEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Method")
+        String method;
+        @Label("Path")
+        String path;
+        @Label("Status Code")
+        int statusCode;
+        @Label("Latency")
+        @Timespan
+        long latency;
+        @Label("Bytes Sent")
+        @DataAmount
+        long bytesSent;
+        @Label("Bytes Received")
+        @DataAmount
+        long bytesReceived;
+        @Label("Error")
+        String error;
+    }
+
+    @Name("com.nanalysis.sharepoint.Retry")
+    @Label("SharePoint Retry")
+    @Category("SharePoint")
+    @StackTrace(false)
+    static class RetryEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Path")
+        String path;
+        @Label("Attempt")
+        int attempt;
+        @Label("Status Code")
+        int statusCode;
+        @Label("Delay")
+        @Timespan
+        long delay;
+    }
+
+    @Name("com.nanalysis.sharepoint.Throttle")
+    @Label("SharePoint Throttling")
+    @Category("SharePoint")
+    @StackTrace(false)
+    static class ThrottleEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Host")
+        String host;
+        @Label("Retry After")
+        @Timespan
+        long retryAfter;
+    }
+
+    @Name("com.nanalysis.sharepoint.Authentication")
+    @Label("SharePoint Authentication")
+    @Category("SharePoint")
+    @StackTrace(false)
+    static class AuthenticationEvent extends Event {
+        @Label("Method")
+        String method;
+        @Label("Latency")
+        @Timespan
+        long latency;
+        @Label("Error")
+        String error;
+    }
+}
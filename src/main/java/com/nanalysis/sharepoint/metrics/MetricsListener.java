@@ -0,0 +1,107 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.metrics;
+
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Notified of each request sent by a client, to collect metrics or traces.
+ * <p>
+ * Methods are called from the threads completing the requests, concurrently: implementations must be thread safe
+ * and return quickly. All methods do nothing by default.
+ */
+public interface MetricsListener {
+    /** A listener which ignores everything. */
+    MetricsListener NONE = new MetricsListener() {
+    };
+
+    /**
+     * A response was received.
+     *
+     * @param latency       from sending the request to receiving the response headers
+     * @param bytesSent     the size of the request body
+     * @param bytesReceived the size of the response body as received, or as announced by the server for bodies which
+     *                      are streamed to the caller, 0 if unknown
+     */
+    default void requestCompleted(OperationType type, HttpRequest request, int statusCode, Duration latency,
+                                  long bytesSent, long bytesReceived) {
+    }
+
+    /**
+     * No response was received, for example because of a connection failure or a timeout.
+     */
+    default void requestFailed(OperationType type, HttpRequest request, Throwable error, Duration latency) {
+    }
+
+    /**
+     * A request is about to be sent again.
+     *
+     * @param attempt    the number of the next attempt, starting at 2
+     * @param statusCode the status of the failed attempt, or -1 if it failed without a response
+     */
+    default void retrying(OperationType type, HttpRequest request, int attempt, int statusCode, Duration delay) {
+    }
+
+    /**
+     * The server asked to slow down, with a 429 or 503 response.
+     */
+    default void throttled(OperationType type, HttpRequest request, Duration retryAfter) {
+    }
+
+    /**
+     * An authentication completed.
+     *
+     * @param error the failure, or null on success
+     */
+    default void authenticated(String method, Duration latency, Throwable error) {
+    }
+
+    /**
+     * @return a listener forwarding all events to each of the given listeners.
+     */
+    static MetricsListener of(MetricsListener... listeners) {
+        List<MetricsListener> all = List.of(listeners);
+        return new MetricsListener() {
+            @Override
+            public void requestCompleted(OperationType type, HttpRequest request, int statusCode, Duration latency,
+                                         long bytesSent, long bytesReceived) {
+                all.forEach(l -> l.requestCompleted(type, request, statusCode, latency, bytesSent, bytesReceived));
+            }
+
+            @Override
+            public void requestFailed(OperationType type, HttpRequest request, Throwable error, Duration latency) {
+                all.forEach(l -> l.requestFailed(type, request, error, latency));
+            }
+
+            @Override
+            public void retrying(OperationType type, HttpRequest request, int attempt, int statusCode, Duration delay) {
+                all.forEach(l -> l.retrying(type, request, attempt, statusCode, delay));
+            }
+
+            @Override
+            public void throttled(OperationType type, HttpRequest request, Duration retryAfter) {
+                all.forEach(l -> l.throttled(type, request, retryAfter));
+            }
+
+            @Override
+            public void authenticated(String method, Duration latency, Throwable error) {
+                all.forEach(l -> l.authenticated(method, latency, error));
+            }
+        };
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.metrics;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the metrics of one operation type, see {@link InMemoryMetrics}.
+ */
+public class OperationStats {
+    static final int BUCKET_COUNT = 21;
+    private static final long FIRST_BUCKET_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final OperationType type;
+    private final long count;
+    private final long failures;
+    private final long errors;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final long retries;
+    private final long throttled;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long[] buckets;
+    private final Map<Integer, Long> statusCounts;
+
+    OperationStats(OperationType type, long count, long failures, long errors, long bytesSent, long bytesReceived,
+                   long retries, long throttled, long totalNanos, long maxNanos, long[] buckets, Map<Integer, Long> statusCounts) {
+        this.type = type;
+        this.count = count;
+        this.failures = failures;
+        this.errors = errors;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.retries = retries;
+        this.throttled = throttled;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.buckets = buckets;
+        this.statusCounts = statusCounts;
+    }
+
+    /**
+     * @return the index of the bucket counting the given latency: bucket i holds latencies up to 2^i ms,
+     * the last one everything above.
+     */
+    static int bucketOf(long nanos) {
+        int bucket = 0;
+        long bound = FIRST_BUCKET_NANOS;
+        while (nanos > bound && bucket < BUCKET_COUNT - 1) {
+            bucket++;
+            bound *= 2;
+        }
+        return bucket;
+    }
+
+    public OperationType getType() {
+        return type;
+    }
+
+    /**
+     * @return the number of responses received, whatever their status.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of requests which failed without a response.
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the number of responses with an error status (400 and above).
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    public long getThrottled() {
+        return throttled;
+    }
+
+    /**
+     * @return the number of responses per status code.
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        return statusCounts;
+    }
+
+    public Duration getAverageLatency() {
+        long total = count + failures;
+        return Duration.ofNanos(total == 0 ? 0 : totalNanos / total);
+    }
+
+    public Duration getMaxLatency() {
+        return Duration.ofNanos(maxNanos);
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket holding the given percentile of latencies, capped to the max latency.
+     */
+    public Duration getLatencyPercentile(double percentile) {
+        long total = count + failures;
+        if (total == 0) {
+            return Duration.ZERO;
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        long bound = FIRST_BUCKET_NANOS;
+        for (int i = 0; i < buckets.length; i++, bound *= 2) {
+            seen += buckets[i];
+            if (seen >= rank && i < buckets.length - 1) {
+                return Duration.ofNanos(Math.min(bound, maxNanos));
+            }
+        }
+        return Duration.ofNanos(maxNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d requests, %d errors, %d failures, %d retries, %d throttled, %d bytes sent, "
+                        + "%d bytes received, latency avg %d ms, p50 %d ms, p99 %d ms, max %d ms, statuses %s",
+                type, count, errors, failures, retries, throttled, bytesSent, bytesReceived,
+                getAverageLatency().toMillis(), getLatencyPercentile(50).toMillis(), getLatencyPercentile(99).toMillis(),
+                getMaxLatency().toMillis(), statusCounts);
+    }
+}
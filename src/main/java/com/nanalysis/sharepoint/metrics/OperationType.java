@@ -0,0 +1,73 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.metrics;
+
+import java.net.URI;
+
+/**
+ * The kind of operation a request is part of, used to group metrics.
+ */
+public enum OperationType {
+    /** Listing folders or files, or reading their metadata. */
+    LIST,
+    CREATE_FOLDER,
+    DELETE,
+    /** Upload of a whole file with a single request. */
+    UPLOAD,
+    /** One request of a chunked upload. */
+    UPLOAD_CHUNK,
+    DOWNLOAD,
+    BATCH,
+    CHANGES,
+    /** Server side copy of files or folders, including copy jobs and their polling. */
+    COPY,
+    MOVE,
+    AUTHENTICATION,
+    OTHER;
+
+    /**
+     * Find the operation of a sharepoint REST request. Paths are matched on their encoded form, so file names
+     * can't be mistaken for API calls.
+     */
+    public static OperationType of(String method, URI uri) {
+        String path = uri.getRawPath();
+        if (path == null) {
+            return OTHER;
+        } else if (path.endsWith("/$batch")) {
+            return BATCH;
+        } else if (path.endsWith("/GetChanges")) {
+            return CHANGES;
+        } else if (path.contains("/copyTo(") || path.endsWith("/SP.MoveCopyUtil.CopyFolder()")
+                || path.endsWith("/site/CreateCopyJobs") || path.endsWith("/site/GetCopyJobProgress")) {
+            return COPY;
+        } else if (path.contains("/moveTo(")) {
+            return MOVE;
+        } else if (path.contains("/StartUpload(") || path.contains("/ContinueUpload(") || path.contains("/FinishUpload(")) {
+            return UPLOAD_CHUNK;
+        } else if (path.contains("/Files/Add(")) {
+            return UPLOAD;
+        } else if (method.equals("DELETE")) {
+            return DELETE;
+        } else if (method.equals("GET") && path.endsWith("/$value")) {
+            return DOWNLOAD;
+        } else if (method.equals("POST") && path.endsWith("/_api/web/folders")) {
+            return CREATE_FOLDER;
+        } else if (method.equals("GET")) {
+            return LIST;
+        }
+        return OTHER;
+    }
+}
@@ -17,5 +17,8 @@ module com.nananlysis.jcamp {
     requires org.json;
     requires java.xml;
     requires java.net.http;
+    requires static jdk.jfr;
     exports com.nanalysis.sharepoint;
+    exports com.nanalysis.sharepoint.http;
+    exports com.nanalysis.sharepoint.metrics;
 }
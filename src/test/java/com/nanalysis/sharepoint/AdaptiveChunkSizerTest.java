@@ -0,0 +1,83 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveChunkSizerTest {
+    private static final int MB = 1024 * 1024;
+
+    private final AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(10 * MB, MB, 100 * MB, Duration.ofSeconds(5));
+
+    @Test
+    public void growsOnFastLink() {
+        // 10MB in 0.1s: 100MB/s, would want 500MB chunks
+        sizer.recordSuccess(10 * MB, TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(20 * MB, sizer.nextChunkSize());
+
+        for (int i = 0; i < 10; i++) {
+            sizer.recordSuccess(sizer.nextChunkSize(), TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        assertEquals(100 * MB, sizer.nextChunkSize());
+        // large chunks do not make single-shot uploads unbounded
+        assertEquals(100L * MB, sizer.singleShotThreshold());
+    }
+
+    @Test
+    public void shrinksOnSlowLink() {
+        // 10MB in 20s: 0.5MB/s, would want 2.5MB chunks
+        sizer.recordSuccess(10 * MB, TimeUnit.SECONDS.toNanos(20));
+        assertEquals(5 * MB, sizer.nextChunkSize());
+
+        for (int i = 0; i < 10; i++) {
+            sizer.recordSuccess(sizer.nextChunkSize(), TimeUnit.SECONDS.toNanos(20));
+        }
+        assertEquals(MB, sizer.nextChunkSize());
+    }
+
+    @Test
+    public void shrinksOnFailure() {
+        sizer.recordFailure();
+        assertEquals(5 * MB, sizer.nextChunkSize());
+        assertEquals(1, sizer.getStats().getFailureCount());
+    }
+
+    @Test
+    public void fixedSizeNeverChanges() {
+        AdaptiveChunkSizer fixed = AdaptiveChunkSizer.fixed(10 * MB);
+        fixed.recordSuccess(10 * MB, 1);
+        fixed.recordFailure();
+        assertEquals(10 * MB, fixed.nextChunkSize());
+    }
+
+    @Test
+    public void exposesStats() {
+        sizer.nextChunkSize();
+        sizer.recordSuccess(10 * MB, TimeUnit.SECONDS.toNanos(1));
+
+        UploadStats stats = sizer.getStats();
+        assertEquals(1, stats.getRequestCount());
+        assertEquals(10L * MB, stats.getBytesUploaded());
+        assertEquals(10.0 * MB, stats.getThroughput(), 1);
+        assertTrue(stats.getRecentChunkSizes().contains(10 * MB));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchCodecTest {
+    @Test
+    public void encodesOneChangeSetPerWriteOperation() {
+        String body = BatchCodec.encode("batch_1", List.of(
+                new BatchCodec.Operation("DELETE", "https://x/_api/web/GetFolderByServerRelativeUrl('a')", null, "DELETE a/"),
+                new BatchCodec.Operation("POST", "https://x/_api/web/folders", "{\"ServerRelativeUrl\":\"b\"}", "CREATE b"),
+                new BatchCodec.Operation("GET", "https://x/_api/web", null, "GET web")));
+
+        assertEquals(2, body.split("Content-Type: multipart/mixed; boundary=changeset_", -1).length - 1);
+        assertTrue(body.contains("DELETE https://x/_api/web/GetFolderByServerRelativeUrl('a') HTTP/1.1\r\nAccept: application/json\r\nIf-Match: *\r\n"));
+        assertTrue(body.contains("POST https://x/_api/web/folders HTTP/1.1\r\nAccept: application/json\r\n"
+                + "Content-Type: application/json\r\n\r\n{\"ServerRelativeUrl\":\"b\"}\r\n"));
+        assertTrue(body.startsWith("--batch_1\r\n"));
+        assertTrue(body.endsWith("--batch_1--\r\n"));
+    }
+
+    @Test
+    public void decodesFlatResponses() throws IOException {
+        String response = "--batchresponse_42\r\n"
+                + "Content-Type: application/http\r\n"
+                + "Content-Transfer-Encoding: binary\r\n\r\n"
+                + "HTTP/1.1 200 OK\r\n"
+                + "CONTENT-TYPE: application/json;odata=minimalmetadata\r\n\r\n"
+                + "{\"odata.null\":true}\r\n"
+                + "--batchresponse_42\r\n"
+                + "Content-Type: application/http\r\n"
+                + "Content-Transfer-Encoding: binary\r\n\r\n"
+                + "HTTP/1.1 404 Not Found\r\n"
+                + "CONTENT-TYPE: application/json;odata=minimalmetadata\r\n\r\n"
+                + "{\"odata.error\":{\"code\":\"-2130575338\",\"message\":{\"lang\":\"en-US\",\"value\":\"File not found.\"}}}\r\n"
+                + "--batchresponse_42--\r\n";
+
+        List<BatchCodec.Response> responses = BatchCodec.decode("multipart/mixed; boundary=batchresponse_42", response);
+        assertEquals(2, responses.size());
+        assertEquals(200, responses.get(0).statusCode);
+        assertEquals("{\"odata.null\":true}", responses.get(0).body);
+        assertEquals(404, responses.get(1).statusCode);
+        assertTrue(responses.get(1).body.contains("File not found."));
+    }
+
+    @Test
+    public void decodesNestedChangeSetResponses() throws IOException {
+        String response = "--batchresponse_1\r\n"
+                + "Content-Type: multipart/mixed; boundary=\"changesetresponse_2\"\r\n\r\n"
+                + "--changesetresponse_2\r\n"
+                + "Content-Type: application/http\r\n\r\n"
+                + "HTTP/1.1 204 No Content\r\n\r\n\r\n"
+                + "--changesetresponse_2--\r\n"
+                + "--batchresponse_1\r\n"
+                + "Content-Type: application/http\r\n\r\n"
+                + "HTTP/1.1 201 Created\r\n\r\n{}\r\n"
+                + "--batchresponse_1--\r\n";
+
+        List<BatchCodec.Response> responses = BatchCodec.decode("multipart/mixed; boundary=batchresponse_1", response);
+        assertEquals(2, responses.size());
+        assertEquals(204, responses.get(0).statusCode);
+        assertEquals("", responses.get(0).body);
+        assertEquals(201, responses.get(1).statusCode);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsResponseWithoutBoundary() throws IOException {
+        BatchCodec.decode("application/json", "{}");
+    }
+}
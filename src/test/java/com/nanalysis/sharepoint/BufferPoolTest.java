@@ -0,0 +1,49 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class BufferPoolTest {
+    @Test
+    public void reusesLargeEnoughBuffers() {
+        BufferPool pool = new BufferPool(1024);
+        byte[] buffer = pool.acquire(512);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(256));
+        pool.release(buffer);
+        assertNotSame(buffer, pool.acquire(1024));
+    }
+
+    @Test
+    public void retainsAtMostMaxBytes() {
+        BufferPool pool = new BufferPool(1024);
+        byte[] first = pool.acquire(512);
+        byte[] second = pool.acquire(512);
+        byte[] third = pool.acquire(512);
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        // the third buffer did not fit, and was dropped
+        assertSame(second, pool.acquire(512));
+        assertSame(first, pool.acquire(512));
+        assertNotSame(third, pool.acquire(512));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import com.nanalysis.sharepoint.metrics.InMemoryMetrics;
+import com.nanalysis.sharepoint.metrics.OperationType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChangeFeedTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+    private Path tokenFile;
+    private final List<String> received = new ArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        server = new MockSharepointServer();
+        client = server.newClient();
+        tokenFile = folder.getRoot().toPath().resolve("changes.token");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void firstPollOnlyRecordsPosition() throws Exception {
+        server.addChange(1, "Shared Documents/old.txt", false);
+        ChangeFeed feed = new ChangeFeed(client, "Documents", tokenFile);
+
+        assertEquals(0, feed.poll(change -> received.add(change.toString())));
+        assertTrue(received.isEmpty());
+        assertEquals(feed.getToken(), Files.readString(tokenFile));
+    }
+
+    @Test
+    public void streamsChangesAcrossPages() throws Exception {
+        ChangeFeed feed = new ChangeFeed(client, "Documents", tokenFile);
+        feed.setPageSize(2);
+        feed.poll(change -> received.add(change.toString()));
+
+        server.addChange(1, "Shared Documents/a", true);
+        server.addChange(1, "Shared Documents/a/b.txt", false);
+        server.addChange(2, "Shared Documents/a/b.txt", false);
+        server.addChange(4, "Shared Documents/a/c.txt", false);
+        server.addChange(3, "Shared Documents/a/c.txt", false);
+
+        assertEquals(5, feed.poll(change -> received.add(change.toString())));
+        assertEquals(List.of("ADDED Shared Documents/a/", "ADDED Shared Documents/a/b.txt", "UPDATED Shared Documents/a/b.txt",
+                "RENAMED Shared Documents/a/c.txt", "DELETED Shared Documents/a/c.txt"), received);
+        assertEquals(0, feed.poll(change -> fail("No new change expected")));
+    }
+
+    @Test
+    public void resumesFromSavedToken() throws Exception {
+        new ChangeFeed(client, "Documents", tokenFile).poll(change -> {
+        });
+        server.addChange(1, "Shared Documents/new.txt", false);
+
+        ChangeFeed restarted = new ChangeFeed(client, "Documents", tokenFile);
+        assertEquals(1, restarted.poll(change -> received.add(change.toString())));
+        assertEquals(List.of("ADDED Shared Documents/new.txt"), received);
+    }
+
+    @Test
+    public void filtersByFolder() throws Exception {
+        ChangeFeed feed = new ChangeFeed(client, "Documents", null);
+        feed.setFolder("Shared Documents/kept");
+        feed.poll(change -> {
+        });
+
+        server.addChange(1, "Shared Documents/kept", true);
+        server.addChange(1, "Shared Documents/kept/a.txt", false);
+        server.addChange(1, "Shared Documents/kept2/b.txt", false);
+        server.addChange(1, "Shared Documents/other/c.txt", false);
+
+        assertEquals(2, feed.poll(change -> received.add(change.toString())));
+        assertEquals(List.of("ADDED Shared Documents/kept/", "ADDED Shared Documents/kept/a.txt"), received);
+    }
+
+    @Test
+    public void redeliversPageAfterConsumerFailure() throws Exception {
+        ChangeFeed feed = new ChangeFeed(client, "Documents", tokenFile);
+        feed.poll(change -> {
+        });
+        server.addChange(1, "Shared Documents/a.txt", false);
+        server.addChange(2, "Shared Documents/a.txt", false);
+
+        try {
+            feed.poll(change -> {
+                throw new IllegalStateException("consumer failure");
+            });
+            fail("Consumer failure expected");
+        } catch (IllegalStateException expected) {
+            // the position must not have moved
+        }
+
+        ChangeFeed restarted = new ChangeFeed(client, "Documents", tokenFile);
+        assertEquals(2, restarted.poll(change -> received.add(change.toString())));
+    }
+
+    @Test
+    public void reportsRequestsToMetricsListener() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        client.setMetricsListener(metrics);
+        ChangeFeed feed = new ChangeFeed(client, "Documents", null);
+        feed.poll(change -> {
+        });
+        server.addChange(1, "Shared Documents/a.txt", false);
+        feed.poll(change -> {
+        });
+
+        assertEquals(1, metrics.getStats(OperationType.LIST).getCount());
+        assertEquals(1, metrics.getStats(OperationType.CHANGES).getCount());
+        assertEquals(Map.of(200, 1L), metrics.getStats(OperationType.CHANGES).getStatusCounts());
+        assertTrue(metrics.getStats(OperationType.CHANGES).getBytesSent() > 0);
+    }
+}
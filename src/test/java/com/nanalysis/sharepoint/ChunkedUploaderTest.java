@@ -0,0 +1,170 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ChunkedUploaderTest {
+    private static final String FOLDER = "Shared Documents/data";
+    private static final int CHUNK_SIZE = 1000;
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+    private CountingPool pool;
+
+    @Before
+    public void setup() throws Exception {
+        server = new MockSharepointServer();
+        client = server.newClient();
+        pool = new CountingPool();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void sendsChunksInOrder() throws Exception {
+        byte[] content = randomBytes(3500);
+        List<Double> progress = new ArrayList<>();
+
+        upload(new ByteArrayInputStream(content), content.length, progress);
+
+        assertArrayEquals(content, server.getFile(FOLDER, "data.bin"));
+        assertEquals(List.of("Add(url='data.bin',overwrite=true)", "StartUpload", "ContinueUpload,fileOffset=1000",
+                "ContinueUpload,fileOffset=2000", "FinishUpload,fileOffset=3000"), uploadRequests());
+        assertEquals(100d, progress.get(progress.size() - 1), 0);
+        assertEquals(0, pool.outstanding);
+    }
+
+    @Test
+    public void finishesOnChunkBoundary() throws Exception {
+        byte[] content = randomBytes(3000);
+
+        upload(new ByteArrayInputStream(content), content.length, new ArrayList<>());
+
+        assertArrayEquals(content, server.getFile(FOLDER, "data.bin"));
+        assertEquals(List.of("Add(url='data.bin',overwrite=true)", "StartUpload", "ContinueUpload,fileOffset=1000",
+                "FinishUpload,fileOffset=2000"), uploadRequests());
+        assertEquals(0, pool.outstanding);
+    }
+
+    @Test
+    public void smallContentIsSentAtOnce() throws Exception {
+        byte[] content = randomBytes(800);
+
+        upload(new ByteArrayInputStream(content), content.length, new ArrayList<>());
+
+        assertArrayEquals(content, server.getFile(FOLDER, "data.bin"));
+        assertEquals(List.of("Add(url='data.bin',overwrite=true)"), uploadRequests());
+        assertEquals(0, pool.outstanding);
+    }
+
+    @Test(timeout = 10_000)
+    public void readerFailureAbortsUpload() throws Exception {
+        IllegalStateException failure = new IllegalStateException("broken input");
+        InputStream input = new ByteArrayInputStream(randomBytes(5000)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                if (pos >= 2500) {
+                    throw failure;
+                }
+                return super.read(b, off, len);
+            }
+        };
+
+        try {
+            upload(input, 5000, new ArrayList<>());
+            fail("Input failure expected");
+        } catch (IOException e) {
+            assertSame(failure, e.getCause().getCause());
+        }
+        assertEquals(0, pool.outstanding);
+    }
+
+    @Test
+    public void serverFailureReleasesBuffers() throws Exception {
+        server.failChunkAt(1000);
+        byte[] content = randomBytes(5500);
+
+        try {
+            upload(new ByteArrayInputStream(content), content.length, new ArrayList<>());
+            fail("Rejected chunk expected");
+        } catch (SharepointException e) {
+            assertEquals(400, e.getStatusCode());
+        }
+        assertEquals(0, pool.outstanding);
+    }
+
+    private void upload(InputStream input, long size, List<Double> progress) throws Exception {
+        new ChunkedUploader(client, pool, AdaptiveChunkSizer.fixed(CHUNK_SIZE), 2)
+                .upload(FOLDER, "data.bin", size, input, progress::add);
+    }
+
+    private List<String> uploadRequests() {
+        return server.getRequests().stream()
+                .filter(request -> request.startsWith("POST "))
+                .map(request -> request.substring(request.lastIndexOf('/') + 1).replaceAll("\\(uploadID='[^']*'(.*)\\)", "$1"))
+                .collect(Collectors.toList());
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Keeps track of buffers which were acquired and never given back.
+     */
+    private static class CountingPool extends BufferPool {
+        private int outstanding;
+
+        CountingPool() {
+            super(Long.MAX_VALUE);
+        }
+
+        @Override
+        synchronized byte[] acquire(int size) {
+            outstanding++;
+            return super.acquire(size);
+        }
+
+        @Override
+        synchronized void release(byte[] buffer) {
+            if (buffer != null) {
+                outstanding--;
+            }
+            super.release(buffer);
+        }
+    }
+}
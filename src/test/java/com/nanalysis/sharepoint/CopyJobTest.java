@@ -0,0 +1,127 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import com.nanalysis.sharepoint.metrics.InMemoryMetrics;
+import com.nanalysis.sharepoint.metrics.OperationType;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CopyJobTest {
+    private MockSharepointServer server;
+    private SharepointClient client;
+
+    @Before
+    public void setup() throws Exception {
+        server = new MockSharepointServer();
+        client = server.newClient();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void copiesAndMovesFilesOnTheServer() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        client.setMetricsListener(metrics);
+
+        client.copyFile("Shared Documents/a", "b.txt", "Shared Documents/c/b.txt", true);
+        client.moveFile("Shared Documents/a", "b.txt", "Archive/b.txt", false);
+        client.moveFolder("Shared Documents/a", "Archive/a");
+
+        List<String> requests = server.getRequests();
+        assertEquals("POST " + MockSharepointServer.SITE_PATH + "/_api/web/GetFolderByServerRelativeUrl('Shared Documents/a')"
+                + "/Files('b.txt')/copyTo(strNewUrl='" + MockSharepointServer.SITE_PATH + "/Shared Documents/c/b.txt',bOverWrite=true)", requests.get(0));
+        assertTrue(requests.get(1), requests.get(1).endsWith("/moveTo(newUrl='" + MockSharepointServer.SITE_PATH + "/Archive/b.txt',flags=0)"));
+        assertTrue(requests.get(2), requests.get(2).endsWith("('Shared Documents/a')/moveTo(newUrl='" + MockSharepointServer.SITE_PATH + "/Archive/a')"));
+        assertEquals(1, metrics.getStats(OperationType.COPY).getCount());
+        assertEquals(2, metrics.getStats(OperationType.MOVE).getCount());
+    }
+
+    @Test
+    public void pollsJobUntilDone() throws Exception {
+        server.setCopyJobPolls(3);
+        List<String> events = new ArrayList<>();
+        CopyJob job = new CopyJob(client, "Archive/2022");
+        job.add("Shared Documents/Reports");
+        job.add("Shared Documents/summary.txt");
+        job.setMove(true);
+        job.setPollInterval(Duration.ofMillis(1));
+        job.setLogListener(log -> events.add(log.getString("Event")));
+
+        job.run();
+
+        JSONObject request = server.getCopyJobRequest();
+        String siteUrl = server.getBaseUrl() + MockSharepointServer.SITE_PATH;
+        assertEquals(List.of(siteUrl + "/Shared Documents/Reports", siteUrl + "/Shared Documents/summary.txt"),
+                request.getJSONArray("exportObjectUris").toList());
+        assertEquals(siteUrl + "/Archive/2022", request.getString("destinationUri"));
+        assertTrue(request.getJSONObject("options").getBoolean("IsMoveMode"));
+        assertFalse(request.getJSONObject("options").getBoolean("IgnoreVersionHistory"));
+        assertEquals(List.of("JobStart", "JobEnd"), events);
+        assertEquals(3, server.getRequests().stream().filter(r -> r.endsWith("/GetCopyJobProgress")).count());
+        assertTrue(job.getErrors().isEmpty());
+    }
+
+    @Test
+    public void reportsItemErrorsOnceDone() throws Exception {
+        server.addCopyJobError("File already exists: summary.txt");
+        CopyJob job = new CopyJob(client, "https://other.sharepoint.com/sites/archive/Documents");
+        job.add("Shared Documents/summary.txt");
+        job.setPollInterval(Duration.ofMillis(1));
+
+        try {
+            job.run();
+            fail("Item errors should fail the job");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("File already exists: summary.txt"));
+        }
+        assertEquals(List.of("File already exists: summary.txt"), job.getErrors());
+        assertEquals("https://other.sharepoint.com/sites/archive/Documents", server.getCopyJobRequest().getString("destinationUri"));
+    }
+
+    @Test
+    public void givesUpAfterTimeout() throws Exception {
+        server.setCopyJobPolls(1000);
+        CopyJob job = new CopyJob(client, "Archive/2022");
+        job.add("Shared Documents/Reports");
+        job.setPollInterval(Duration.ofMillis(10));
+        job.setTimeout(Duration.ofMillis(100));
+
+        try {
+            job.run();
+            fail("The job should not be waited for after the timeout");
+        } catch (HttpTimeoutException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("still running"));
+        }
+        assertTrue(server.getRequests().stream().filter(r -> r.endsWith("/GetCopyJobProgress")).count() < 1000);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DownloadCacheTest {
+    private static final String FOLDER = "Shared Documents/reference";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+    private DownloadCache cache;
+
+    @Before
+    public void setup() throws Exception {
+        server = new MockSharepointServer();
+        client = server.newClient();
+        cache = new DownloadCache(folder.getRoot().toPath(), 1024);
+        client.setDownloadCache(cache);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void revalidatesUnchangedFiles() throws Exception {
+        server.putFile(FOLDER, "a.txt", bytes("first"));
+
+        assertEquals("first", read("a.txt"));
+        assertEquals("first", read("a.txt"));
+        assertEquals(1, cache.getDownloads());
+        assertEquals(1, cache.getHits());
+
+        server.putFile(FOLDER, "a.txt", bytes("second"));
+        assertEquals("second", read("a.txt"));
+        assertEquals(2, cache.getDownloads());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFiles() throws Exception {
+        server.putFile(FOLDER, "a.bin", new byte[400]);
+        server.putFile(FOLDER, "b.bin", new byte[400]);
+        server.putFile(FOLDER, "c.bin", new byte[400]);
+
+        read("a.bin");
+        read("b.bin");
+        // make the access order explicit, file times may be too coarse
+        setLastAccess("b.bin", 1000);
+        setLastAccess("a.bin", 2000);
+        read("c.bin");
+
+        assertEquals(2, countCachedFiles());
+        read("a.bin");
+        assertEquals(1, cache.getHits());
+        read("b.bin");
+        assertEquals(4, cache.getDownloads());
+    }
+
+    @Test
+    public void coalescesConcurrentDownloads() throws Exception {
+        server.putFile(FOLDER, "a.txt", bytes("shared"));
+        server.setLatency(Duration.ofMillis(300));
+
+        List<CompletableFuture<InputStream>> downloads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            downloads.add(client.downloadAsync(FOLDER, "a.txt"));
+        }
+        for (CompletableFuture<InputStream> download : downloads) {
+            try (InputStream input = download.get()) {
+                assertEquals("shared", new String(input.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(1, cache.getDownloads());
+    }
+
+    @Test
+    public void reportsServerErrors() throws Exception {
+        try {
+            read("missing.txt");
+            fail("Missing files should not be cached");
+        } catch (SharepointException e) {
+            assertEquals(404, e.getStatusCode());
+            assertEquals("-2147024894, System.IO.FileNotFoundException", e.getErrorCode());
+            assertTrue(e.getMessage(), e.getMessage().contains("File not found"));
+        }
+        assertEquals(0, countCachedFiles());
+    }
+
+    @Test
+    public void clearRemovesCachedFiles() throws Exception {
+        server.putFile(FOLDER, "a.txt", bytes("first"));
+        read("a.txt");
+
+        cache.clear();
+        assertEquals(0, countCachedFiles());
+        read("a.txt");
+        assertEquals(2, cache.getDownloads());
+    }
+
+    private String read(String filename) throws Exception {
+        try (InputStream input = client.download(FOLDER, filename)) {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private void setLastAccess(String filename, long millis) throws IOException {
+        String key = Hashes.sha256Hex(client.absoluteUrl(FOLDER + "/" + filename));
+        Files.setLastModifiedTime(folder.getRoot().toPath().resolve(key + ".data"), FileTime.fromMillis(millis));
+    }
+
+    private long countCachedFiles() throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            return files.filter(file -> file.toString().endsWith(".data")).count();
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import com.nanalysis.sharepoint.metrics.InMemoryMetrics;
+import com.nanalysis.sharepoint.metrics.OperationType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DownloadToTest {
+    private static final String FOLDER = "Shared Documents/data";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+    private Path target;
+
+    @Before
+    public void setup() throws Exception {
+        server = new MockSharepointServer();
+        client = server.newClient();
+        target = folder.getRoot().toPath().resolve("data.txt");
+        Files.writeString(target, "previous content");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void replacesTargetOnSuccess() throws Exception {
+        server.putFile(FOLDER, "data.txt", "new".getBytes(StandardCharsets.UTF_8));
+
+        DownloadResult result = client.downloadTo(FOLDER, "data.txt", target, "SHA-256");
+
+        assertEquals(3, result.getBytes());
+        assertEquals("new", Files.readString(target));
+        assertEquals(1, countFiles());
+    }
+
+    @Test
+    public void reportsReceivedBytesWithoutContentLength() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        client.setMetricsListener(metrics);
+        server.setChunkedDownloads(true);
+        server.putFile(FOLDER, "data.txt", new byte[5000]);
+
+        client.downloadTo(FOLDER, "data.txt", target);
+
+        assertEquals(5000, metrics.getStats(OperationType.DOWNLOAD).getBytesReceived());
+    }
+
+    @Test
+    public void failureKeepsExistingTarget() throws Exception {
+        try {
+            client.downloadTo(FOLDER, "missing.txt", target);
+            fail("Missing file expected");
+        } catch (SharepointException e) {
+            assertEquals(404, e.getStatusCode());
+        }
+
+        assertEquals("previous content", Files.readString(target));
+        assertEquals(1, countFiles());
+    }
+
+    private long countFiles() throws Exception {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            return files.count();
+        }
+    }
+}
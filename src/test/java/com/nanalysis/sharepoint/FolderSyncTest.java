@@ -0,0 +1,189 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FolderSyncTest {
+    private static final String ROOT = "Shared Documents/sync";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+    private Path local;
+
+    @Before
+    public void setup() throws Exception {
+        server = new MockSharepointServer();
+        client = server.newClient();
+        local = folder.newFolder("local").toPath();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void pushesOnlyOnce() throws Exception {
+        createLocalTree();
+
+        SyncReport first = new FolderSync(client, local, ROOT).push();
+        assertEquals(3, first.getTransferred());
+        assertEquals(2, first.getFoldersCreated());
+        assertTrue(first.getFailures().isEmpty());
+        assertArrayEquals(bytes("c"), server.getFile(ROOT + "/sub/deep", "c.txt"));
+        assertTrue(Files.exists(local.resolve(FolderSync.DEFAULT_STATE_FILE)));
+        assertNull(server.getFile(ROOT, FolderSync.DEFAULT_STATE_FILE));
+
+        int requests = server.getRequests().size();
+        SyncReport second = new FolderSync(client, local, ROOT).push();
+        assertEquals(0, second.getTransferred());
+        assertEquals(3, second.getUnchanged());
+        // the state file is trusted, the remote folder isn't even listed
+        assertEquals(requests, server.getRequests().size());
+    }
+
+    @Test
+    public void pushesModifiedFile() throws Exception {
+        createLocalTree();
+        new FolderSync(client, local, ROOT).push();
+
+        Path modified = local.resolve("sub/b.txt");
+        Files.write(modified, bytes("b, modified"));
+        Files.setLastModifiedTime(modified, FileTime.from(Instant.now().plusSeconds(10)));
+        SyncReport report = new FolderSync(client, local, ROOT).push();
+
+        assertEquals(1, report.getTransferred());
+        assertEquals(2, report.getUnchanged());
+        assertArrayEquals(bytes("b, modified"), server.getFile(ROOT + "/sub", "b.txt"));
+    }
+
+    @Test
+    public void pushDeletesExtraneousRemoteItems() throws Exception {
+        createLocalTree();
+        new FolderSync(client, local, ROOT).push();
+
+        Files.delete(local.resolve("a.txt"));
+        Files.delete(local.resolve("sub/deep/c.txt"));
+        Files.delete(local.resolve("sub/deep"));
+        FolderSync sync = new FolderSync(client, local, ROOT);
+        sync.setDeleteExtraneous(true);
+        SyncReport report = sync.push();
+
+        // the file below the deleted folder goes away with it
+        assertEquals(2, report.getDeleted());
+        assertNull(server.getFile(ROOT, "a.txt"));
+        assertNull(server.getFile(ROOT + "/sub/deep", "c.txt"));
+        assertNotNull(server.getFile(ROOT + "/sub", "b.txt"));
+    }
+
+    @Test
+    public void customStateFileIsNotUploaded() throws Exception {
+        createLocalTree();
+        Path stateFile = local.resolve("sync-state.properties");
+        FolderSync sync = new FolderSync(client, local, ROOT);
+        sync.setStateFile(stateFile);
+
+        sync.push();
+        sync.push();
+
+        assertTrue(Files.exists(stateFile));
+        assertNull(server.getFile(ROOT, "sync-state.properties"));
+    }
+
+    @Test
+    public void pullsWithRemoteModificationTimes() throws Exception {
+        createRemoteTree();
+
+        SyncReport first = new FolderSync(client, local, ROOT).pull();
+        assertEquals(2, first.getTransferred());
+        assertArrayEquals(bytes("b"), Files.readAllBytes(local.resolve("sub/b.txt")));
+        assertEquals(remoteModificationTime("a.txt"), Files.getLastModifiedTime(local.resolve("a.txt")).toInstant());
+
+        SyncReport second = new FolderSync(client, local, ROOT).pull();
+        assertEquals(0, second.getTransferred());
+        assertEquals(2, second.getUnchanged());
+        assertEquals(2, server.getRequests().stream().filter(request -> request.endsWith("/$value")).count());
+    }
+
+    @Test
+    public void pullDeletesExtraneousLocalItems() throws Exception {
+        createRemoteTree();
+        Files.createDirectories(local.resolve("extra/nested"));
+        Files.write(local.resolve("extra/nested/file.txt"), bytes("extra"));
+        Files.write(local.resolve("old.txt"), bytes("old"));
+
+        FolderSync sync = new FolderSync(client, local, ROOT);
+        sync.setDeleteExtraneous(true);
+        SyncReport report = sync.pull();
+
+        assertTrue(report.getFailures().isEmpty());
+        assertEquals(4, report.getDeleted());
+        assertFalse(Files.exists(local.resolve("extra")));
+        assertFalse(Files.exists(local.resolve("old.txt")));
+        assertTrue(Files.exists(local.resolve(FolderSync.DEFAULT_STATE_FILE)));
+        try (var files = Files.list(local)) {
+            assertEquals(List.of(".sharepoint-sync", "a.txt", "sub"),
+                    files.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList()));
+        }
+    }
+
+    private void createLocalTree() throws Exception {
+        Files.createDirectories(local.resolve("sub/deep"));
+        Files.write(local.resolve("a.txt"), bytes("a"));
+        Files.write(local.resolve("sub/b.txt"), bytes("b"));
+        Files.write(local.resolve("sub/deep/c.txt"), bytes("c"));
+    }
+
+    private void createRemoteTree() {
+        server.addFolder(ROOT);
+        server.addFolder(ROOT + "/sub");
+        server.putFile(ROOT, "a.txt", bytes("a"));
+        server.putFile(ROOT + "/sub", "b.txt", bytes("b"));
+    }
+
+    private Instant remoteModificationTime(String filename) throws Exception {
+        try (var items = client.walk(ROOT)) {
+            return items.filter(item -> item.getName().equals(filename)).findFirst().orElseThrow().getLastModified();
+        }
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}
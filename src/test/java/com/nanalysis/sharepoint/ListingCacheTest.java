@@ -0,0 +1,132 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ListingCacheTest {
+    private static final String FOLDER = "Shared Documents/data";
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+    private ListingCache cache;
+
+    @Before
+    public void setup() throws Exception {
+        server = new MockSharepointServer();
+        client = server.newClient();
+        cache = new ListingCache(100, Duration.ofMinutes(1));
+        client.setListingCache(cache);
+        server.addFolder(FOLDER + "/a");
+        server.putFile(FOLDER, "a.txt", new byte[0]);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void cachesListingsUntilTheyExpire() throws Exception {
+        cache = new ListingCache(100, Duration.ofMillis(200));
+        client.setListingCache(cache);
+
+        assertEquals(List.of("a"), client.listFolders(FOLDER));
+        assertEquals(List.of("a"), client.listFolders(FOLDER));
+        assertEquals(List.of("a.txt"), client.listFiles(FOLDER));
+        assertEquals(2, countListings());
+        assertEquals(1, cache.getHits());
+
+        Thread.sleep(250);
+        client.listFolders(FOLDER);
+        assertEquals(3, countListings());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void ownChangesInvalidateListings() throws Exception {
+        assertEquals(List.of("a.txt"), client.listFiles(FOLDER));
+        client.uploadFile(FOLDER, "b.txt", "b".getBytes(StandardCharsets.UTF_8));
+        assertEquals(List.of("a.txt", "b.txt"), client.listFiles(FOLDER));
+        client.deleteFile(FOLDER, "a.txt");
+        assertEquals(List.of("b.txt"), client.listFiles(FOLDER));
+
+        assertEquals(List.of("a"), client.listFolders(FOLDER));
+        client.createFolder(FOLDER, "b");
+        assertEquals(List.of("a", "b"), client.listFolders(FOLDER));
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void coalescesConcurrentLookups() throws Exception {
+        server.setLatency(Duration.ofMillis(300));
+
+        List<CompletableFuture<List<String>>> lookups = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            lookups.add(client.listFoldersAsync(FOLDER));
+        }
+        for (CompletableFuture<List<String>> lookup : lookups) {
+            assertEquals(List.of("a"), lookup.get());
+        }
+        assertEquals(1, countListings());
+        assertEquals(1, cache.getMisses());
+        assertEquals(7, cache.getHits());
+    }
+
+    @Test
+    public void dropsLeastRecentlyUsedListings() throws Exception {
+        cache = new ListingCache(2, Duration.ofMinutes(1));
+        client.setListingCache(cache);
+
+        client.listFolders(FOLDER);
+        client.listFiles(FOLDER);
+        client.listFolders(FOLDER + "/a");
+        assertEquals(2, cache.size());
+
+        client.listFiles(FOLDER);
+        client.listFolders(FOLDER);
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void failingLoaderDoesNotBlockLaterLookups() throws Exception {
+        CompletableFuture<List<String>> failed = cache.get(FOLDER, false, () -> {
+            throw new IllegalStateException("Simulated failure");
+        });
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals(0, cache.size());
+
+        CompletableFuture<List<String>> loaded = cache.get(FOLDER, false, () -> CompletableFuture.completedFuture(List.of("a.txt")));
+        assertEquals(List.of("a.txt"), loaded.get(1, TimeUnit.SECONDS));
+    }
+
+    private long countListings() {
+        return server.getRequests().stream().filter(request -> request.startsWith("GET ")).count();
+    }
+}
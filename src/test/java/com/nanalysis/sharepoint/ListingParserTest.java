@@ -0,0 +1,65 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ListingParserTest {
+    private final List<String> names = new ArrayList<>();
+
+    @Test
+    public void parsesItemsAndNextLink() throws IOException {
+        String nextLink = parse("{\"odata.metadata\": \"https://x/$metadata#SP.ApiData.Files12\", "
+                + "\"value\": [{\"Name\": \"a.txt\", \"Length\": \"12\"}, {\"Name\": \"b.txt\", \"Nested\": {\"x\": [1, 2]}}], "
+                + "\"odata.nextLink\": \"https://x/next?$skiptoken=abc\"}");
+
+        assertEquals(List.of("a.txt", "b.txt"), names);
+        assertEquals("https://x/next?$skiptoken=abc", nextLink);
+    }
+
+    @Test
+    public void lastPageHasNoNextLink() throws IOException {
+        assertNull(parse("{\"value\": []}"));
+        assertTrue(names.isEmpty());
+        assertNull(parse("{}"));
+    }
+
+    @Test(expected = IOException.class)
+    public void reportsODataErrors() throws IOException {
+        parse("{\"odata.error\": {\"code\": \"-1\", \"message\": {\"lang\": \"en-US\", \"value\": \"File Not Found.\"}}}");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsInvalidJson() throws IOException {
+        parse("{\"value\": [{\"Name\": \"a.txt\"} {\"Name\": \"b.txt\"}]}");
+    }
+
+    private String parse(String json) throws IOException {
+        return ListingParser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                (JSONObject item) -> names.add(item.getString("Name")));
+    }
+}
@@ -21,6 +21,8 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.function.Consumer;
 
 /**
@@ -63,6 +65,43 @@ public class ManualTests {
         System.out.println(files);
     }
 
+    @Ignore("Manual test")
+    @Test
+    public void listAsync() throws Exception {
+        client.setMaxConcurrentRequests(4);
+        var folders = client.listFoldersAsync(TEST_PATH);
+        var files = client.listFilesAsync(TEST_PATH);
+        folders.thenCombine(files, (f1, f2) -> f1.size() + " folders, " + f2.size() + " files")
+                .thenAccept(System.out::println)
+                .join();
+    }
+
+    @Ignore("Manual test")
+    @Test
+    public void walk() throws Exception {
+        try (var items = client.walk(TEST_PATH)) {
+            items.forEach(System.out::println);
+        }
+    }
+
+    @Ignore("Manual test")
+    @Test
+    public void changeFeed() throws Exception {
+        ChangeFeed feed = new ChangeFeed(client, "Documents", Path.of(System.getProperty("java.io.tmpdir"), "changes.token"));
+        feed.setFolder(TEST_PATH);
+        System.out.println(feed.poll(System.out::println) + " changes since last poll");
+    }
+
+    @Ignore("Manual test")
+    @Test
+    public void batch() throws Exception {
+        Batch batch = new Batch(client);
+        batch.createFolder(TEST_PATH, "BatchFolder");
+        batch.createFolder(TEST_PATH + "/BatchFolder", "Child");
+        batch.deleteFolder(TEST_PATH + "/BatchFolder");
+        batch.execute().forEach(System.out::println);
+    }
+
     @Ignore("Manual test")
     @Test
     public void createFolder() throws Exception {
@@ -86,6 +125,42 @@ public class ManualTests {
         System.out.println("File created");
     }
 
+    @Ignore("Manual test")
+    @Test
+    public void uploadBigFileResumable() throws Exception {
+        // interrupt during the upload, then run again to resume
+        File f = new File(BIG_FILE_LOCAL_PATH);
+        Path journal = Path.of(System.getProperty("java.io.tmpdir"), "sharepoint-manual-test.upload");
+        Consumer<Double> progress = percent -> System.out.printf("Uploading: %.2f%%%n", percent);
+        client.uploadBigFile(TEST_PATH, f.getName(), f, journal, progress);
+        System.out.println("File created");
+    }
+
+    @Ignore("Manual test")
+    @Test
+    public void uploadFilesInParallel() throws Exception {
+        File[] files = new File(BIG_FILE_LOCAL_PATH).getParentFile().listFiles(File::isFile);
+        client.uploadFiles(TEST_PATH, Arrays.asList(files), 4,
+                (index, file, error) -> System.out.println(index + ": " + file.getName() + (error == null ? "" : " " + error)));
+        System.out.println("Files created");
+    }
+
+    @Ignore("Manual test")
+    @Test
+    public void downloadTo() throws Exception {
+        Path target = Path.of(System.getProperty("java.io.tmpdir"), "test.txt");
+        DownloadResult result = client.downloadTo(TEST_PATH, "test.txt", target, "SHA-256");
+        System.out.println("File downloaded: " + result);
+    }
+
+    @Ignore("Manual test")
+    @Test
+    public void syncFolder() throws Exception {
+        FolderSync sync = new FolderSync(client, new File(BIG_FILE_LOCAL_PATH).getParentFile().toPath(), TEST_PATH + "/Mirror");
+        sync.setListener((action, path, error) -> System.out.println(action + ": " + path + (error == null ? "" : " " + error)));
+        System.out.println("Folder pushed: " + sync.push());
+    }
+
     @Ignore("Manual test")
     @Test
     public void deleteFile() throws Exception {
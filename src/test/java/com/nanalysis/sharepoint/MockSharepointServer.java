@@ -0,0 +1,695 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import com.nanalysis.sharepoint.http.HttpTransport;
+import com.nanalysis.sharepoint.http.JavaHttpTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.CookieStore;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for a sharepoint site, implementing just enough of the REST API for automated tests and benchmarks.
+ * <p>
+ * It currently simulates the change log of a single document library, paged folder listings, file uploads and
+ * downloads, server side copies and both authentication flows. Responses can be delayed by a fixed latency, bodies
+ * transferred at a limited bandwidth, and every n-th request throttled, to measure the client under realistic
+ * conditions. The benchmarks use it from the test jar.
+ */
+public class MockSharepointServer implements AutoCloseable {
+    public static final String SITE = "site";
+    public static final String SITE_PATH = "/sites/" + SITE;
+    private static final Pattern FOLDER = Pattern.compile(".*/GetFolderByServerRelativeUrl\\('([^']*)'\\)");
+    private static final Pattern FOLDER_CONTENT = Pattern.compile(".*/GetFolderByServerRelativeUrl\\('(.*)'\\)/(Folders|Files)");
+    private static final Pattern FILE = Pattern.compile(".*/GetFolderByServerRelativeUrl\\('(.*)'\\)/Files\\('(.*)'\\)");
+    private static final Pattern ADD_FILE = Pattern.compile(".*/GetFolderByServerRelativeUrl\\('(.*)'\\)/Files/Add\\(url='(.*)',overwrite=true\\)");
+    private static final Pattern UPLOAD_CHUNK = Pattern.compile(".*/GetFolderByServerRelativeUrl\\('(.*)'\\)/Files\\('(.*)'\\)/"
+            + "(StartUpload|ContinueUpload|FinishUpload)\\(uploadID='(.*?)'(?:,fileOffset=(\\d+))?\\)");
+    private static final Pattern FILE_CONTENT = Pattern.compile(".*/GetFolderByServerRelativeUrl\\('(.*)'\\)/Files\\('(.*)'\\)/\\$value");
+    /** Bodies are transferred by blocks of this size when the bandwidth is limited. */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    static {
+        // the JDK server writes headers and body separately, with Nagle's algorithm each response would wait for an ACK
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final List<JSONObject> changes = new ArrayList<>();
+    private final List<String> requests = new ArrayList<>();
+    private final Set<String> folders = new TreeSet<>();
+    private final Map<String, byte[]> files = new TreeMap<>();
+    private final Map<String, Integer> fileVersions = new HashMap<>();
+    private final Map<String, Instant> fileTimes = new HashMap<>();
+    private final Map<String, ByteArrayOutputStream> uploads = new HashMap<>();
+    private final Set<Long> failingChunkOffsets = new HashSet<>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private boolean recordRequests = true;
+    private boolean chunkedDownloads;
+    private final Map<String, Long> uploadDelays = new HashMap<>();
+    private final List<String> copyJobErrors = new ArrayList<>();
+    private int copyJobPolls = 1;
+    private int copyJobPollsLeft;
+    private JSONObject copyJobRequest;
+
+    private volatile Duration latency = Duration.ZERO;
+    private volatile long bandwidth;
+    private volatile int throttleEvery;
+
+    public MockSharepointServer() throws IOException {
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "mock-sharepoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return a client of the mock site. Requests to the Microsoft authentication endpoints are sent to this server too.
+     */
+    public SharepointClient newClient() {
+        return new SharepointClient(getBaseUrl(), SITE, new LocalTransport(JavaHttpTransport.newBuilder().build()));
+    }
+
+    /**
+     * Append an entry to the change log.
+     *
+     * @param changeType a SP.ChangeType value: 1 for added, 2 for updated, 3 for deleted...
+     * @param path the item path, relative to the site
+     */
+    public synchronized void addChange(int changeType, String path, boolean isFolder) {
+        int number = changes.size() + 1;
+        changes.add(new JSONObject()
+                .put("ChangeType", changeType)
+                .put("ChangeToken", new JSONObject().put("StringValue", changeToken(number)))
+                .put("ItemId", number)
+                .put("ServerRelativeUrl", SITE_PATH + "/" + path)
+                .put("FileSystemObjectType", isFolder ? 1 : 0)
+                .put("Time", "2022-06-01T12:00:00Z"));
+    }
+
+    public synchronized void addFolder(String path) {
+        folders.add(path);
+    }
+
+    /**
+     * Create or replace a file, changing its ETag.
+     */
+    public synchronized void putFile(String folder, String filename, byte[] content) {
+        String path = folder + "/" + filename;
+        files.put(path, content);
+        fileVersions.merge(path, 1, Integer::sum);
+        fileTimes.put(path, Instant.now().truncatedTo(ChronoUnit.SECONDS));
+    }
+
+    /**
+     * @return the content of a file, or null if it doesn't exist.
+     */
+    public synchronized byte[] getFile(String folder, String filename) {
+        return files.get(folder + "/" + filename);
+    }
+
+    /**
+     * Reject the next chunk uploaded at the given offset with a 400 error, as if the upload session had a problem.
+     */
+    public synchronized void failChunkAt(long offset) {
+        failingChunkOffsets.add(offset);
+    }
+
+    /**
+     * Forget the chunked uploads in progress, as happens when upload sessions expire.
+     */
+    public synchronized void expireUploads() {
+        uploads.clear();
+    }
+
+    /**
+     * Delay every response by the given time, to simulate the round trip to a remote tenant, or to make
+     * concurrent requests overlap.
+     */
+    public void setLatency(Duration latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Limit the transfer rate of request and response bodies, in bytes per second. 0 for no limit.
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bandwidth = bytesPerSecond;
+    }
+
+    /**
+     * Answer every n-th request with a 429 response asking to retry right away. 0 to disable throttling.
+     */
+    public void setThrottleEvery(int n) {
+        this.throttleEvery = n;
+    }
+
+    /**
+     * Send downloaded content without a Content-Length header, with chunked transfer encoding.
+     */
+    public synchronized void setChunkedDownloads(boolean chunked) {
+        this.chunkedDownloads = chunked;
+    }
+
+    /**
+     * Delay the single request uploads of files with the given name, to make them complete after later ones.
+     */
+    public synchronized void setUploadDelay(String filename, long millis) {
+        uploadDelays.put(filename, millis);
+    }
+
+    /**
+     * Set how many times copy jobs are polled before they complete.
+     */
+    public synchronized void setCopyJobPolls(int polls) {
+        this.copyJobPolls = polls;
+    }
+
+    /**
+     * Make the next copy jobs report an error for one of their items.
+     */
+    public synchronized void addCopyJobError(String message) {
+        copyJobErrors.add(message);
+    }
+
+    /**
+     * @return the body of the last request creating copy jobs.
+     */
+    public synchronized JSONObject getCopyJobRequest() {
+        return copyJobRequest;
+    }
+
+    /**
+     * Keep the method and path of each request for {@link #getRequests()}, true by default.
+     * Benchmarks turn it off, as the list grows with every request.
+     */
+    public synchronized void setRecordRequests(boolean recordRequests) {
+        this.recordRequests = recordRequests;
+    }
+
+    /**
+     * @return the method and path of each request received so far.
+     */
+    public synchronized List<String> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            synchronized (this) {
+                if (recordRequests) {
+                    requests.add(method + " " + path);
+                }
+            }
+
+            long start = System.nanoTime();
+            byte[] body = read(exchange.getRequestBody(), start);
+            sleepUntil(start + latency.toNanos());
+
+            int n = throttleEvery;
+            if (n > 0 && requestCount.incrementAndGet() % n == 0) {
+                exchange.getResponseHeaders().set("Retry-After", "0");
+                respondError(exchange, 429, "-2147024860, Microsoft.SharePoint.SPQueryThrottledException", "Request throttled");
+            } else {
+                route(exchange, method, path, body);
+            }
+        } catch (RuntimeException e) {
+            respondError(exchange, 500, "-1, Microsoft.SharePoint.SPException", String.valueOf(e));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, String method, String path, byte[] body) throws IOException {
+        Matcher file = FILE_CONTENT.matcher(path);
+        Matcher folderContent = FOLDER_CONTENT.matcher(path);
+        Matcher fileMetadata = FILE.matcher(path);
+        Matcher addFile = ADD_FILE.matcher(path);
+        Matcher uploadChunk = UPLOAD_CHUNK.matcher(path);
+        Matcher folder = FOLDER.matcher(path);
+        if (path.endsWith("/extSTS.srf") || path.contains("/_forms/default.aspx") || path.endsWith("/_api/contextinfo")
+                || path.contains("/_vti_bin/client.svc") || path.endsWith("/tokens/OAuth/2")) {
+            authenticate(exchange, path);
+        } else if (uploadChunk.matches() && method.equals("POST")) {
+            long offset = uploadChunk.group(5) == null ? 0 : Long.parseLong(uploadChunk.group(5));
+            String error = uploadChunk(uploadChunk.group(1), uploadChunk.group(2), uploadChunk.group(3), uploadChunk.group(4),
+                    offset, body);
+            if (error == null) {
+                respond(exchange, 200, "{}");
+            } else {
+                respondError(exchange, 400, "-2130575305, Microsoft.SharePoint.SPException", error);
+            }
+        } else if (file.matches() && method.equals("GET")) {
+            downloadFile(exchange, file.group(1) + "/" + file.group(2));
+        } else if (folderContent.matches() && method.equals("GET")) {
+            Map<String, String> query = query(exchange.getRequestURI());
+            int top = Integer.parseInt(query.getOrDefault("$top", String.valueOf(Integer.MAX_VALUE)));
+            int skip = Integer.parseInt(query.getOrDefault("$skiptoken", "0"));
+            JSONObject listing = listFolder(folderContent.group(1), folderContent.group(2).equals("Folders"), skip, top);
+            if (listing.has("odata.nextLink")) {
+                listing.put("odata.nextLink", getBaseUrl() + exchange.getRequestURI().getRawPath() + listing.getString("odata.nextLink"));
+            }
+            respond(exchange, 200, listing.toString());
+        } else if (addFile.matches() && method.equals("POST")) {
+            pause(getUploadDelay(addFile.group(2)));
+            putFile(addFile.group(1), addFile.group(2), body);
+            respond(exchange, 200, "{}");
+        } else if (fileMetadata.matches() && method.equals("DELETE") && removeFile(fileMetadata.group(1), fileMetadata.group(2))) {
+            respond(exchange, 200, "{}");
+        } else if (path.endsWith("/_api/web/folders") && method.equals("POST")) {
+            addFolder(new JSONObject(new String(body, StandardCharsets.UTF_8)).getString("ServerRelativeUrl"));
+            respond(exchange, 201, "{}");
+        } else if (path.endsWith("/GetChanges") && method.equals("POST")) {
+            JSONObject query = new JSONObject(new String(body, StandardCharsets.UTF_8)).getJSONObject("query");
+            respond(exchange, 200, getChanges(query).toString());
+        } else if (path.contains("/_api/web/lists/GetByTitle(") && "$select=CurrentChangeToken".equals(exchange.getRequestURI().getQuery())) {
+            String current;
+            synchronized (this) {
+                current = changeToken(changes.size());
+            }
+            respond(exchange, 200, new JSONObject().put("CurrentChangeToken", new JSONObject().put("StringValue", current)).toString());
+        } else if ((path.contains("/copyTo(") || path.contains("/moveTo(") || path.endsWith("/SP.MoveCopyUtil.CopyFolder()"))
+                && method.equals("POST")) {
+            respond(exchange, 200, "{}");
+        } else if (path.endsWith("/_api/site/CreateCopyJobs") && method.equals("POST")) {
+            respond(exchange, 200, createCopyJob(new JSONObject(new String(body, StandardCharsets.UTF_8))).toString());
+        } else if (path.endsWith("/_api/site/GetCopyJobProgress") && method.equals("POST")) {
+            JSONObject job = new JSONObject(new String(body, StandardCharsets.UTF_8)).getJSONObject("copyJobInfo");
+            respond(exchange, 200, getCopyJobProgress(job).toString());
+        } else if (folder.matches() && method.equals("GET") && folderExists(folder.group(1))) {
+            respond(exchange, 200, listFolderContent(folder.group(1)).toString());
+        } else if (folder.matches() && method.equals("DELETE") && removeFolder(folder.group(1))) {
+            respond(exchange, 200, "{}");
+        } else {
+            respondError(exchange, 404, "-2147024894, System.IO.FileNotFoundException", "Not found: " + path);
+        }
+    }
+
+    /**
+     * Answer the requests of both authentication flows, accepting any credentials.
+     */
+    private void authenticate(HttpExchange exchange, String path) throws IOException {
+        if (path.endsWith("/extSTS.srf")) {
+            exchange.getResponseHeaders().set("Content-Type", "text/xml");
+            send(exchange, 200, ("<S:Envelope xmlns:S=\"http://www.w3.org/2003/05/soap-envelope\"><S:Body>"
+                    + "<BinarySecurityToken>t=mock</BinarySecurityToken></S:Body></S:Envelope>").getBytes(StandardCharsets.UTF_8));
+        } else if (path.contains("/_forms/default.aspx")) {
+            exchange.getResponseHeaders().add("Set-Cookie", "FedAuth=mock; Path=/");
+            send(exchange, 200, new byte[0]);
+        } else if (path.endsWith("/_api/contextinfo")) {
+            respond(exchange, 200, new JSONObject().put("FormDigestValue", UUID.randomUUID().toString())
+                    .put("FormDigestTimeoutSeconds", 1800).toString());
+        } else if (path.contains("/_vti_bin/client.svc")) {
+            // realm discovery
+            exchange.getResponseHeaders().set("WWW-Authenticate",
+                    "Bearer realm=\"00000000-0000-0000-0000-000000000000\",client_id=\"00000003-0000-0ff1-ce00-000000000000\"");
+            send(exchange, 401, new byte[0]);
+        } else {
+            respond(exchange, 200, new JSONObject().put("access_token", UUID.randomUUID().toString())
+                    .put("expires_in", "3600").toString());
+        }
+    }
+
+    /**
+     * @return null if the chunk was accepted, an error message otherwise.
+     */
+    private synchronized String uploadChunk(String folder, String filename, String step, String uploadId, long offset, byte[] content) {
+        if (failingChunkOffsets.remove(offset)) {
+            return "Simulated failure at offset " + offset;
+        }
+
+        ByteArrayOutputStream upload = uploads.get(uploadId);
+        if (step.equals("StartUpload")) {
+            upload = new ByteArrayOutputStream();
+            uploads.put(uploadId, upload);
+        } else if (upload == null || upload.size() != offset) {
+            return "Unknown upload session or unexpected offset " + offset;
+        }
+
+        upload.write(content, 0, content.length);
+        if (step.equals("FinishUpload")) {
+            uploads.remove(uploadId);
+            putFile(folder, filename, upload.toByteArray());
+        }
+        return null;
+    }
+
+    private synchronized JSONObject getChanges(JSONObject query) {
+        String start = query.getJSONObject("ChangeTokenStart").getString("StringValue");
+        int from = Integer.parseInt(start.substring(start.lastIndexOf(';') + 1));
+        int limit = query.optInt("FetchLimit", Integer.MAX_VALUE);
+
+        JSONArray value = new JSONArray();
+        for (int i = from; i < changes.size() && value.length() < limit; i++) {
+            value.put(changes.get(i));
+        }
+        return new JSONObject().put("value", value);
+    }
+
+    private synchronized boolean removeFile(String folder, String filename) {
+        return files.remove(folder + "/" + filename) != null;
+    }
+
+    private synchronized boolean folderExists(String folder) {
+        return folders.contains(folder);
+    }
+
+    private synchronized boolean removeFolder(String folder) {
+        if (!folders.remove(folder)) {
+            return false;
+        }
+        folders.removeIf(path -> path.startsWith(folder + "/"));
+        files.keySet().removeIf(path -> path.startsWith(folder + "/"));
+        return true;
+    }
+
+    private synchronized long getUploadDelay(String filename) {
+        return uploadDelays.getOrDefault(filename, 0L);
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return a page of the files or sub-folders of a folder, with a relative next link if there are more.
+     */
+    private synchronized JSONObject listFolder(String folder, boolean listFolders, int skip, int top) {
+        List<String> children = new ArrayList<>();
+        for (String path : listFolders ? folders : files.keySet()) {
+            int index = path.lastIndexOf('/');
+            if (index >= 0 && path.substring(0, index).equals(folder)) {
+                children.add(path);
+            }
+        }
+
+        JSONArray value = new JSONArray();
+        for (int i = skip; i < children.size() && value.length() < top; i++) {
+            value.put(listFolders ? folderJson(children.get(i)) : fileJson(children.get(i)));
+        }
+        JSONObject page = new JSONObject().put("value", value);
+        if (skip + value.length() < children.size()) {
+            page.put("odata.nextLink", "?$top=" + top + "&$skiptoken=" + (skip + value.length()));
+        }
+        return page;
+    }
+
+    /**
+     * @return the folders and files directly below a folder, as returned with $expand=Folders,Files.
+     */
+    private synchronized JSONObject listFolderContent(String folder) {
+        JSONArray subFolders = new JSONArray();
+        for (String path : folders) {
+            if (path.startsWith(folder + "/") && path.indexOf('/', folder.length() + 1) < 0) {
+                subFolders.put(folderJson(path));
+            }
+        }
+
+        JSONArray folderFiles = new JSONArray();
+        for (String path : files.keySet()) {
+            if (path.startsWith(folder + "/") && path.indexOf('/', folder.length() + 1) < 0) {
+                folderFiles.put(fileJson(path));
+            }
+        }
+        return new JSONObject().put("Folders", subFolders).put("Files", folderFiles);
+    }
+
+    private static JSONObject folderJson(String path) {
+        return new JSONObject()
+                .put("Name", path.substring(path.lastIndexOf('/') + 1))
+                .put("ServerRelativeUrl", SITE_PATH + "/" + path)
+                .put("TimeLastModified", "2022-06-01T12:00:00Z");
+    }
+
+    private synchronized JSONObject fileJson(String path) {
+        return new JSONObject()
+                .put("Name", path.substring(path.lastIndexOf('/') + 1))
+                .put("Length", files.get(path).length)
+                .put("TimeLastModified", fileTimes.get(path).toString())
+                .put("ETag", etag(path));
+    }
+
+    private synchronized String etag(String path) {
+        return "\"{00000000-0000-0000-0000-000000000001}," + fileVersions.get(path) + "\"";
+    }
+
+    private void downloadFile(HttpExchange exchange, String path) throws IOException {
+        byte[] content;
+        String etag;
+        boolean chunked;
+        synchronized (this) {
+            chunked = chunkedDownloads;
+            content = files.get(path);
+            etag = etag(path);
+        }
+
+        if (content == null) {
+            respondError(exchange, 404, "-2147024894, System.IO.FileNotFoundException", "File not found: " + path);
+            return;
+        }
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        int start = 0;
+        int end = content.length - 1;
+        boolean partial = range != null && (ifRange == null || ifRange.equals(etag));
+        if (partial) {
+            // bytes=start-end
+            String[] bounds = range.substring(range.indexOf('=') + 1).split("-");
+            start = Integer.parseInt(bounds[0]);
+            end = Math.min(end, Integer.parseInt(bounds[1]));
+            if (start >= content.length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+        }
+
+        int length = end - start + 1;
+        exchange.sendResponseHeaders(partial ? 206 : 200, length == 0 ? -1 : chunked ? 0 : length);
+        write(exchange, content, start, length);
+    }
+
+    private synchronized JSONObject createCopyJob(JSONObject body) {
+        copyJobRequest = body;
+        copyJobPollsLeft = copyJobPolls;
+        return new JSONObject().put("value", new JSONArray().put(new JSONObject()
+                .put("odata.type", "SP.CopyMigrationInfo")
+                .put("EncryptionKey", "a2V5")
+                .put("JobId", "00000000-0000-0000-0000-000000000001")
+                .put("JobQueueUri", "https://queue.example.com/job")));
+    }
+
+    private synchronized JSONObject getCopyJobProgress(JSONObject job) {
+        if (!job.getString("JobId").equals("00000000-0000-0000-0000-000000000001") || job.has("odata.type")) {
+            throw new IllegalArgumentException("Unexpected copy job: " + job);
+        }
+
+        JSONArray logs = new JSONArray();
+        if (copyJobPollsLeft == copyJobPolls) {
+            logs.put(new JSONObject().put("Event", "JobStart").toString());
+        }
+        if (--copyJobPollsLeft > 0) {
+            return new JSONObject().put("JobState", 4).put("Logs", logs);
+        }
+
+        copyJobErrors.forEach(message -> logs.put(new JSONObject().put("Event", "JobError").put("Message", message).toString()));
+        copyJobErrors.clear();
+        logs.put(new JSONObject().put("Event", "JobEnd").put("ObjectsProcessed", 3).toString());
+        return new JSONObject().put("JobState", 0).put("Logs", logs);
+    }
+
+    private static String changeToken(int number) {
+        return "1;3;00000000-0000-0000-0000-000000000000;637900000000000000;" + number;
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = uri.getRawQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0) {
+                    parameters.put(decode(parameter.substring(0, equals)), decode(parameter.substring(equals + 1)));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value.replace("+", "%2B"), StandardCharsets.UTF_8);
+    }
+
+    private void respondError(HttpExchange exchange, int status, String code, String message) throws IOException {
+        respond(exchange, status, new JSONObject().put("odata.error", new JSONObject()
+                .put("code", code)
+                .put("message", new JSONObject().put("value", message))).toString());
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        send(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void send(HttpExchange exchange, int status, byte[] bytes) throws IOException {
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        write(exchange, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Write a response body once its headers are sent, at the configured bandwidth.
+     */
+    private void write(HttpExchange exchange, byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            // already complete: closing the body again would let the server read the next request twice
+            return;
+        }
+        long start = System.nanoTime();
+        try (OutputStream output = exchange.getResponseBody()) {
+            for (int written = 0; written < length; ) {
+                int block = Math.min(BLOCK_SIZE, length - written);
+                output.write(bytes, offset + written, block);
+                written += block;
+                pace(start, written);
+            }
+        }
+    }
+
+    private byte[] read(InputStream input, long start) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BLOCK_SIZE];
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+            content.write(buffer, 0, read);
+            pace(start, content.size());
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Wait long enough for the bytes transferred since the start to match the bandwidth.
+     */
+    private void pace(long start, long transferred) {
+        long rate = bandwidth;
+        if (rate > 0) {
+            sleepUntil(start + TimeUnit.SECONDS.toNanos(1) * transferred / rate);
+        }
+    }
+
+    /**
+     * Sends the requests for the Microsoft authentication endpoints to the mock server instead.
+     */
+    private class LocalTransport implements HttpTransport {
+        private final HttpTransport delegate;
+
+        LocalTransport(HttpTransport delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+            URI uri = request.uri();
+            if (!uri.getScheme().equals("https")) {
+                return delegate.sendAsync(request, bodyHandler);
+            }
+
+            URI local = URI.create(getBaseUrl() + uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery()));
+            HttpRequest.Builder builder = HttpRequest.newBuilder(local)
+                    .method(request.method(), request.bodyPublisher().orElse(HttpRequest.BodyPublishers.noBody()));
+            request.headers().map().forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+            return delegate.sendAsync(builder.build(), bodyHandler);
+        }
+
+        @Override
+        public CookieStore getCookieStore() {
+            return delegate.getCookieStore();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ParallelUploaderTest {
+    private static final String FOLDER = "Shared Documents/data";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+
+    @Before
+    public void setup() throws Exception {
+        server = new MockSharepointServer();
+        client = server.newClient();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void reportsCompletionsInSubmissionOrder() throws Exception {
+        List<File> files = createFiles(5);
+        // the first upload completes last
+        server.setUploadDelay("file0.txt", 300);
+        List<String> completed = new ArrayList<>();
+
+        new ParallelUploader(client, 4).upload(FOLDER, files, (index, file, error) -> {
+            assertNull(error);
+            completed.add(index + ":" + file.getName());
+        });
+
+        assertEquals(List.of("0:file0.txt", "1:file1.txt", "2:file2.txt", "3:file3.txt", "4:file4.txt"), completed);
+        for (File file : files) {
+            assertArrayEquals(Files.readAllBytes(file.toPath()), server.getFile(FOLDER, file.getName()));
+        }
+    }
+
+    @Test
+    public void attemptsAllFilesBeforeFailing() throws Exception {
+        List<File> files = createFiles(4);
+        files.add(1, new File(folder.getRoot(), "missing.txt"));
+        List<Exception> errors = new ArrayList<>();
+
+        try {
+            new ParallelUploader(client, 2).upload(FOLDER, files, (index, file, error) -> errors.add(error));
+            fail("Failed upload expected");
+        } catch (IOException e) {
+            assertEquals("1 of 5 uploads failed", e.getMessage().substring(0, e.getMessage().indexOf(',')));
+        }
+
+        assertEquals(5, errors.size());
+        assertNotNull(errors.get(1));
+        assertNull(errors.get(4));
+        assertNotNull(server.getFile(FOLDER, "file3.txt"));
+    }
+
+    private List<File> createFiles(int count) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            File file = folder.newFile("file" + i + ".txt");
+            Files.writeString(file.toPath(), "content " + i);
+            files.add(file);
+        }
+        return files;
+    }
+}
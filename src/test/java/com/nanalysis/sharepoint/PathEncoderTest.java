@@ -0,0 +1,64 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PathEncoderTest {
+    @Test
+    public void keepsUnreservedCharactersAndSlashes() {
+        String path = "Shared_Documents/folder-1/file.v2~.txt";
+        assertSame(path, PathEncoder.encode(path));
+    }
+
+    @Test
+    public void encodesEverythingElse() {
+        assertEquals("Shared%20Documents/a%2Bb%20%28copy%29.txt", PathEncoder.encode("Shared Documents/a+b (copy).txt"));
+        assertEquals("it%27s%20100%25%20%231%3F%26", PathEncoder.encode("it's 100% #1?&"));
+        assertEquals("r%C3%A9sum%C3%A9%F0%9F%93%84", PathEncoder.encode("r\u00e9sum\u00e9\ud83d\udcc4"));
+    }
+
+    @Test
+    public void encodedPathsAreValidAndDecodeToTheOriginal() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder path = new StringBuilder();
+            for (int j = 0; j < 20; j++) {
+                path.append((char) (random.nextBoolean() ? 32 + random.nextInt(95) : 160 + random.nextInt(2000)));
+            }
+            String encoded = PathEncoder.encode(path.toString());
+            URI.create("https://example.com/_api/web/GetFolderByServerRelativeUrl('" + encoded + "')");
+            assertEquals(path.toString(), URLDecoder.decode(encoded, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        for (int i = 0; i < PathEncoder.CACHE_SIZE + 100; i++) {
+            PathEncoder.encode("folder " + i);
+        }
+        assertTrue(PathEncoder.cacheSize() <= PathEncoder.CACHE_SIZE);
+    }
+}
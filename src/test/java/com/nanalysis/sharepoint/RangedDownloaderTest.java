@@ -0,0 +1,129 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RangedDownloaderTest {
+    private static final String FOLDER = "Shared Documents/data";
+    private static final int SEGMENT_SIZE = 1000;
+    private static final String FIRST_ETAG = "\"{00000000-0000-0000-0000-000000000001},1\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+    private Path target;
+    private Path progressFile;
+
+    @Before
+    public void setup() throws Exception {
+        server = new MockSharepointServer();
+        client = server.newClient();
+        client.setDownloadSegmentSize(SEGMENT_SIZE);
+        target = folder.getRoot().toPath().resolve("data.bin");
+        progressFile = folder.getRoot().toPath().resolve("data.bin.download");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void downloadsSegmentsConcurrently() throws Exception {
+        byte[] content = randomBytes(10_500, 1);
+        server.putFile(FOLDER, "data.bin", content);
+
+        client.downloadSegmented(FOLDER, "data.bin", target, 4);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(11, countDownloads());
+        assertFalse(Files.exists(progressFile));
+    }
+
+    @Test
+    public void resumesUnchangedFile() throws Exception {
+        byte[] content = randomBytes(10_000, 1);
+        server.putFile(FOLDER, "data.bin", content);
+        // first half already downloaded by a previous attempt
+        byte[] partial = new byte[content.length];
+        System.arraycopy(content, 0, partial, 0, 5 * SEGMENT_SIZE);
+        Files.write(target, partial);
+        writeProgress(content.length, FIRST_ETAG, "0,1,2,3,4");
+
+        client.downloadSegmented(FOLDER, "data.bin", target, 2);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(5, countDownloads());
+        assertFalse(Files.exists(progressFile));
+    }
+
+    @Test
+    public void restartsWhenRemoteFileChanged() throws Exception {
+        byte[] first = randomBytes(10_000, 1);
+        server.putFile(FOLDER, "data.bin", first);
+        Files.write(target, Arrays.copyOf(first, 3 * SEGMENT_SIZE));
+        writeProgress(first.length, FIRST_ETAG, "0,1,2");
+
+        byte[] second = randomBytes(8_000, 2);
+        server.putFile(FOLDER, "data.bin", second);
+        client.downloadSegmented(FOLDER, "data.bin", target, 2);
+
+        assertArrayEquals(second, Files.readAllBytes(target));
+        // one request rejecting the stale progress, then all segments of the new version
+        assertEquals(9, countDownloads());
+        assertFalse(Files.exists(progressFile));
+    }
+
+    private void writeProgress(long size, String etag, String done) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("segmentSize", String.valueOf(SEGMENT_SIZE));
+        properties.setProperty("size", String.valueOf(size));
+        properties.setProperty("etag", etag);
+        properties.setProperty("done", done);
+        try (Writer writer = Files.newBufferedWriter(progressFile)) {
+            properties.store(writer, null);
+        }
+    }
+
+    private long countDownloads() {
+        return server.getRequests().stream().filter(request -> request.startsWith("GET ") && request.endsWith("/$value")).count();
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RemoteTreeWalkerTest {
+    private static final String ROOT = "Shared Documents/tree";
+    private static final int FOLDERS = 20;
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+
+    @Before
+    public void setup() throws Exception {
+        server = new MockSharepointServer();
+        client = server.newClient();
+        server.addFolder(ROOT);
+        for (int i = 0; i < FOLDERS; i++) {
+            server.addFolder(ROOT + "/folder" + i);
+            server.putFile(ROOT + "/folder" + i, "file.txt", new byte[i]);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void listsWholeTree() {
+        List<String> paths;
+        try (Stream<RemoteItem> items = new RemoteTreeWalker(client, 4, 100).walk(ROOT)) {
+            paths = items.map(RemoteItem::getPath).sorted().collect(Collectors.toList());
+        }
+
+        assertEquals(2 * FOLDERS, paths.size());
+        assertTrue(paths.contains(ROOT + "/folder7"));
+        assertTrue(paths.contains(ROOT + "/folder7/file.txt"));
+        assertEquals(FOLDERS + 1, listings());
+    }
+
+    @Test
+    public void pausesWhileItemsAreNotConsumed() throws Exception {
+        try (Stream<RemoteItem> items = new RemoteTreeWalker(client, 4, 5).walk(ROOT)) {
+            Iterator<RemoteItem> iterator = items.iterator();
+            iterator.next();
+            Thread.sleep(200);
+            // the root listing alone fills the buffer
+            assertEquals(1, listings());
+
+            int count = 1;
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            assertEquals(2 * FOLDERS, count);
+            assertEquals(FOLDERS + 1, listings());
+        }
+    }
+
+    @Test
+    public void closingStopsCrawl() throws Exception {
+        server.setLatency(Duration.ofMillis(50));
+        Stream<RemoteItem> items = new RemoteTreeWalker(client, 2, 100).walk(ROOT);
+        items.iterator().next();
+        items.close();
+        Thread.sleep(300);
+
+        // the root listing, and the folders already being listed when closing
+        assertTrue(listings() <= 3);
+    }
+
+    @Test
+    public void reportsMissingRoot() {
+        try (Stream<RemoteItem> items = new RemoteTreeWalker(client, 2, 100).walk("Shared Documents/missing")) {
+            items.count();
+            fail("Missing folder expected");
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getCause() instanceof SharepointException);
+        }
+    }
+
+    private long listings() {
+        return server.getRequests().stream().filter(request -> request.startsWith("GET ")).count();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SharepointExceptionTest {
+    @Test
+    public void parsesODataErrors() {
+        SharepointException e = SharepointException.fromResponse(404, "{\"odata.error\":{\"code\":\"-2147024894, "
+                + "System.IO.FileNotFoundException\",\"message\":{\"lang\":\"en-US\",\"value\":\"File Not Found.\"}}}", null);
+        assertEquals(404, e.getStatusCode());
+        assertEquals("-2147024894, System.IO.FileNotFoundException", e.getErrorCode());
+        assertEquals("File Not Found.", e.getMessage());
+        assertFalse(e.isRetryable());
+
+        e = SharepointException.fromResponse(400, "{\"error\":{\"code\":\"invalidRequest\",\"message\":\"Bad path\"}}", null);
+        assertEquals("invalidRequest", e.getErrorCode());
+        assertEquals("Bad path", e.getMessage());
+    }
+
+    @Test
+    public void keepsRetryHints() {
+        SharepointException e = SharepointException.fromResponse(429, "<html>Too many requests</html>", "120");
+        assertEquals("Unknown error: <html>Too many requests</html>", e.getMessage());
+        assertNull(e.getErrorCode());
+        assertEquals(Duration.ofSeconds(120), e.getRetryAfter());
+        assertTrue(e.isThrottled());
+        assertTrue(e.isRetryable());
+
+        e = SharepointException.fromResponse(502, "", null);
+        assertEquals("HTTP error 502", e.getMessage());
+        assertNull(e.getRetryAfter());
+        assertTrue(e.isRetryable());
+    }
+
+    @Test
+    public void errorBodiesAreCapped() {
+        ErrorBodySubscriber subscriber = new ErrorBodySubscriber(10);
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+                fail("The body should be drained");
+            }
+        });
+        subscriber.onNext(List.of(ByteBuffer.wrap("0123456".getBytes(StandardCharsets.UTF_8))));
+        subscriber.onNext(List.of(ByteBuffer.wrap("789abcdef".getBytes(StandardCharsets.UTF_8))));
+        subscriber.onComplete();
+
+        assertEquals("0123456789", subscriber.getBody().toCompletableFuture().join());
+    }
+
+    @Test
+    public void clientReportsServerErrors() throws Exception {
+        try (MockSharepointServer server = new MockSharepointServer()) {
+            server.newClient().deleteFile("Shared Documents", "missing.txt");
+            fail("Missing file expected");
+        } catch (SharepointException e) {
+            assertEquals(404, e.getStatusCode());
+            assertEquals("-2147024894, System.IO.FileNotFoundException", e.getErrorCode());
+            assertTrue(e.getMessage().startsWith("Not found: "));
+        }
+    }
+}
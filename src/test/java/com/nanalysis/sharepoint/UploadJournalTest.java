@@ -0,0 +1,128 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UploadJournalTest {
+    private static final String FOLDER = "Shared Documents/data";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockSharepointServer server;
+    private SharepointClient client;
+    private File file;
+    private byte[] content;
+    private Path journal;
+
+    @Before
+    public void setup() throws Exception {
+        server = new MockSharepointServer();
+        client = server.newClient();
+        client.setChunkSizer(AdaptiveChunkSizer.fixed(1000));
+        content = new byte[4500];
+        new Random(1).nextBytes(content);
+        file = folder.newFile("data.bin");
+        Files.write(file.toPath(), content);
+        journal = folder.getRoot().toPath().resolve("journal").resolve("data.upload");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void resumesAfterFailure() throws Exception {
+        server.failChunkAt(3000);
+        uploadExpectingFailure();
+        assertTrue(Files.exists(journal));
+
+        client.uploadBigFile(FOLDER, "data.bin", file, journal, progress -> {
+        });
+
+        assertArrayEquals(content, server.getFile(FOLDER, "data.bin"));
+        assertEquals(List.of("ContinueUpload,fileOffset=3000", "FinishUpload,fileOffset=4000"), chunkRequests().subList(4, 6));
+        assertEquals(6, chunkRequests().size());
+        assertFalse(Files.exists(journal));
+    }
+
+    @Test
+    public void restartsWhenSessionExpired() throws Exception {
+        server.failChunkAt(3000);
+        uploadExpectingFailure();
+        server.expireUploads();
+
+        client.uploadBigFile(FOLDER, "data.bin", file, journal, progress -> {
+        });
+
+        assertArrayEquals(content, server.getFile(FOLDER, "data.bin"));
+        // rejected resume attempt, then a complete new upload
+        assertEquals(List.of("ContinueUpload,fileOffset=3000", "StartUpload"), chunkRequests().subList(4, 6));
+        assertEquals(10, chunkRequests().size());
+        assertFalse(Files.exists(journal));
+    }
+
+    @Test
+    public void restartsWhenFileChanged() throws Exception {
+        server.failChunkAt(3000);
+        uploadExpectingFailure();
+        content[0]++;
+        Files.write(file.toPath(), content);
+
+        client.uploadBigFile(FOLDER, "data.bin", file, journal, progress -> {
+        });
+
+        assertArrayEquals(content, server.getFile(FOLDER, "data.bin"));
+        assertEquals("StartUpload", chunkRequests().get(4));
+        assertEquals(9, chunkRequests().size());
+    }
+
+    private void uploadExpectingFailure() throws Exception {
+        try {
+            client.uploadBigFile(FOLDER, "data.bin", file, journal, progress -> {
+            });
+            fail("Rejected chunk expected");
+        } catch (SharepointException e) {
+            assertEquals(400, e.getStatusCode());
+        }
+    }
+
+    private List<String> chunkRequests() {
+        return server.getRequests().stream()
+                .filter(request -> request.contains("Upload(uploadID="))
+                .map(request -> request.substring(request.lastIndexOf('/') + 1).replaceAll("\\(uploadID='[^']*'(.*)\\)", "$1"))
+                .collect(Collectors.toList());
+    }
+}
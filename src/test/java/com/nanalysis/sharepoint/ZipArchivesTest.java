@@ -0,0 +1,95 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZipArchivesTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path source;
+
+    @Before
+    public void setup() throws IOException {
+        source = folder.newFolder("source").toPath();
+        Files.writeString(source.resolve("a.txt"), "a");
+        Files.createDirectories(source.resolve("sub/empty"));
+        Files.writeString(source.resolve("sub/b.txt"), "b");
+    }
+
+    @Test
+    public void extractsWhatWasWritten() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ZipArchives.write(source, archive);
+
+        Path target = folder.getRoot().toPath().resolve("target");
+        assertEquals(2, ZipArchives.extract(new ByteArrayInputStream(archive.toByteArray()), target));
+        assertEquals("a", Files.readString(target.resolve("a.txt")));
+        assertEquals("b", Files.readString(target.resolve("sub/b.txt")));
+        assertTrue(Files.isDirectory(target.resolve("sub/empty")));
+        assertEquals(Files.getLastModifiedTime(source.resolve("a.txt")).toMillis() / 2000,
+                Files.getLastModifiedTime(target.resolve("a.txt")).toMillis() / 2000);
+    }
+
+    @Test
+    public void rejectsEntriesOutsideOfTarget() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("../escaped.txt"));
+            zip.write("x".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+
+        Path target = folder.getRoot().toPath().resolve("target");
+        try {
+            ZipArchives.extract(new ByteArrayInputStream(archive.toByteArray()), target);
+            fail("Entry outside of the target directory should be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("../escaped.txt"));
+        }
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve("escaped.txt")));
+    }
+
+    @Test
+    public void uploadsAndDownloadsArchives() throws Exception {
+        try (MockSharepointServer server = new MockSharepointServer()) {
+            SharepointClient client = server.newClient();
+            client.uploadArchive("Shared Documents/runs", "run-1.zip", source);
+
+            Path target = folder.getRoot().toPath().resolve("target");
+            assertEquals(2, client.downloadArchive("Shared Documents/runs", "run-1.zip", target));
+            assertEquals("b", Files.readString(target.resolve("sub/b.txt")));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.nanalysis.sharepoint.auth;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RealmDiscoveryTest {
+    private static final String HOST = "tenant.sharepoint.com";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger discoveries = new AtomicInteger();
+
+    private Supplier<CompletableFuture<RealmDiscovery.Realm>> discoverer() {
+        return () -> {
+            discoveries.incrementAndGet();
+            return CompletableFuture.completedFuture(new RealmDiscovery.Realm("realm", "resource", Instant.MAX));
+        };
+    }
+
+    @Test
+    public void discoversOncePerHost() throws Exception {
+        RealmDiscovery discovery = new RealmDiscovery(Duration.ofHours(1));
+        assertEquals("realm", discovery.getAsync(HOST, discoverer()).get().getTenantId());
+        assertEquals("resource", discovery.getAsync(HOST, discoverer()).get().getResourceId());
+        assertEquals(1, discoveries.get());
+
+        discovery.getAsync("other.sharepoint.com", discoverer()).get();
+        assertEquals(2, discoveries.get());
+    }
+
+    @Test
+    public void concurrentLookupsShareOneDiscovery() throws Exception {
+        RealmDiscovery discovery = new RealmDiscovery(Duration.ofHours(1));
+        CompletableFuture<RealmDiscovery.Realm> response = new CompletableFuture<>();
+        List<CompletableFuture<RealmDiscovery.Realm>> lookups = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            lookups.add(discovery.getAsync(HOST, () -> {
+                discoveries.incrementAndGet();
+                return response;
+            }));
+        }
+
+        response.complete(new RealmDiscovery.Realm("realm", "resource", Instant.MAX));
+        for (CompletableFuture<RealmDiscovery.Realm> lookup : lookups) {
+            assertEquals("realm", lookup.get().getTenantId());
+        }
+        assertEquals(1, discoveries.get());
+    }
+
+    @Test
+    public void discoversAgainAfterExpiry() throws Exception {
+        RealmDiscovery discovery = new RealmDiscovery(Duration.ofMillis(50));
+        discovery.getAsync(HOST, discoverer()).get();
+        Thread.sleep(100);
+        discovery.getAsync(HOST, discoverer()).get();
+        assertEquals(2, discoveries.get());
+    }
+
+    @Test
+    public void failuresAreNotCached() throws Exception {
+        RealmDiscovery discovery = new RealmDiscovery(Duration.ofHours(1));
+        try {
+            discovery.getAsync(HOST, () -> CompletableFuture.failedFuture(new IOException("Unreachable"))).get();
+            fail("Discovery failure expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+
+        discovery.getAsync(HOST, discoverer()).get();
+        assertEquals(1, discoveries.get());
+    }
+
+    @Test
+    public void invalidatedHostIsDiscoveredAgain() throws Exception {
+        RealmDiscovery discovery = new RealmDiscovery(Duration.ofHours(1));
+        discovery.getAsync(HOST, discoverer()).get();
+        discovery.invalidate(HOST);
+        discovery.getAsync(HOST, discoverer()).get();
+        assertEquals(2, discoveries.get());
+    }
+
+    @Test
+    public void reusesPersistedRealms() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("realms.properties");
+        RealmDiscovery first = new RealmDiscovery(Duration.ofHours(1));
+        first.setCacheFile(file);
+        first.getAsync(HOST, discoverer()).get();
+
+        RealmDiscovery second = new RealmDiscovery(Duration.ofHours(1));
+        second.setCacheFile(file);
+        assertEquals("realm", second.getAsync(HOST, discoverer()).get().getTenantId());
+        assertEquals(1, discoveries.get());
+    }
+}
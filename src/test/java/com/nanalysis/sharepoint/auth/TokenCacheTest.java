@@ -0,0 +1,99 @@
+package com.nanalysis.sharepoint.auth;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.CookieManager;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TokenCacheTest {
+    private static final URI SITE = URI.create("https://tenant.sharepoint.com");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private final AccessToken token = new AccessToken("secret-token", Instant.now(), Instant.now().plus(Duration.ofHours(1)));
+
+    @Before
+    public void setup() {
+        file = folder.getRoot().toPath().resolve("token.cache");
+    }
+
+    @Test
+    public void restoresTokenAndCookies() throws Exception {
+        HttpCookie cookie = new HttpCookie("FedAuth", "session");
+        cookie.setDomain("tenant.sharepoint.com");
+        cookie.setPath("/");
+        cookie.setMaxAge(3600);
+        new TokenCache(file, "password").store(token, List.of(cookie));
+
+        CookieStore cookies = new CookieManager().getCookieStore();
+        AccessToken loaded = new TokenCache(file, "password").load(cookies, SITE);
+        assertEquals("secret-token", loaded.getValue());
+        assertEquals(token.getExpiresAt().toEpochMilli(), loaded.getExpiresAt().toEpochMilli());
+        assertEquals(1, cookies.get(SITE).size());
+        assertEquals("session", cookies.get(SITE).get(0).getValue());
+    }
+
+    @Test
+    public void savingAgainDoesNotExtendCookies() throws Exception {
+        HttpCookie cookie = new HttpCookie("FedAuth", "session");
+        cookie.setDomain("tenant.sharepoint.com");
+        cookie.setPath("/");
+        cookie.setMaxAge(3);
+        TokenCache cache = new TokenCache(file, "password");
+        cache.store(token, List.of(cookie));
+        Thread.sleep(1500);
+        cache.store(token, List.of(cookie));
+
+        // expired 3s after creation, even though the last save was 1.5s later
+        Thread.sleep(1700);
+        CookieStore cookies = new CookieManager().getCookieStore();
+        new TokenCache(file, "password").load(cookies, SITE);
+        assertTrue(cookies.get(SITE).isEmpty());
+    }
+
+    @Test
+    public void contentIsEncrypted() throws Exception {
+        new TokenCache(file, "password").store(token, List.of());
+        assertFalse(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).contains("secret-token"));
+    }
+
+    @Test
+    public void ignoresCacheOfOtherCredentials() throws Exception {
+        new TokenCache(file, "password").store(token, List.of());
+        assertNull(new TokenCache(file, "other").load(new CookieManager().getCookieStore(), SITE));
+    }
+
+    @Test
+    public void ignoresTamperedCache() throws Exception {
+        new TokenCache(file, "password").store(token, List.of());
+        byte[] content = Files.readAllBytes(file);
+        content[content.length - 1] ^= 1;
+        Files.write(file, content);
+        assertNull(new TokenCache(file, "password").load(new CookieManager().getCookieStore(), SITE));
+    }
+
+    @Test
+    public void ignoresExpiredToken() throws Exception {
+        AccessToken expired = new AccessToken("old", Instant.now().minusSeconds(7200), Instant.now().minusSeconds(3600));
+        new TokenCache(file, "password").store(expired, List.of());
+        assertNull(new TokenCache(file, "password").load(new CookieManager().getCookieStore(), SITE));
+    }
+}
@@ -0,0 +1,127 @@
+package com.nanalysis.sharepoint.auth;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TokenManagerTest {
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final List<AccessToken> notified = new ArrayList<>();
+    private TokenManager manager;
+
+    @After
+    public void tearDown() {
+        if (manager != null) {
+            manager.close();
+        }
+    }
+
+    private static AccessToken token(String value, Duration lifetime) {
+        Instant now = Instant.now();
+        return new AccessToken(value, now, now.plus(lifetime));
+    }
+
+    private TokenManager newManager(Duration lifetime) {
+        manager = new TokenManager(() -> token("t" + fetches.incrementAndGet(), lifetime), token -> {
+            synchronized (notified) {
+                notified.add(token);
+            }
+        });
+        return manager;
+    }
+
+    @Test
+    public void authenticatesWhenStartedWithoutToken() throws Exception {
+        newManager(Duration.ofHours(1)).start(null);
+        assertEquals("t1", manager.currentValue());
+        assertEquals(1, fetches.get());
+        assertEquals(1, notified.size());
+    }
+
+    @Test
+    public void reusesValidInitialToken() throws Exception {
+        newManager(Duration.ofHours(1)).start(token("cached", Duration.ofHours(1)));
+        assertEquals("cached", manager.currentValue());
+        assertEquals(0, fetches.get());
+    }
+
+    @Test
+    public void authenticatesWhenInitialTokenIsAboutToExpire() throws Exception {
+        Instant issuedAt = Instant.now().minus(Duration.ofHours(1));
+        newManager(Duration.ofHours(1)).start(new AccessToken("cached", issuedAt, Instant.now().plusSeconds(60)));
+        assertEquals("t1", manager.currentValue());
+    }
+
+    @Test
+    public void refreshesBeforeExpiry() throws Exception {
+        newManager(Duration.ofMillis(400)).start(null);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (fetches.get() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue("Expected background refreshes, got " + fetches.get(), fetches.get() >= 3);
+        assertNotEquals("t1", manager.currentValue());
+    }
+
+    @Test
+    public void concurrentRefreshesShareOneAuthentication() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        manager = new TokenManager(() -> {
+            if (fetches.incrementAndGet() > 1) {
+                release.await();
+            }
+            return token("t" + fetches.get(), Duration.ofHours(1));
+        }, token -> {
+        });
+        manager.start(null);
+
+        CompletableFuture<AccessToken> first = manager.refreshAsync("t1");
+        for (int i = 0; i < 5; i++) {
+            assertSame(first, manager.refreshAsync("t1"));
+        }
+        release.countDown();
+        assertEquals("t2", first.get(5, TimeUnit.SECONDS).getValue());
+        assertEquals(2, fetches.get());
+
+        // the token was already replaced since "t1" was rejected, no need to authenticate again
+        assertEquals("t2", manager.refreshAsync("t1").get().getValue());
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void keepsCurrentTokenWhenRefreshFails() throws Exception {
+        manager = new TokenManager(() -> {
+            if (fetches.incrementAndGet() > 1) {
+                throw new IOException("Service unavailable");
+            }
+            return token("t1", Duration.ofHours(1));
+        }, token -> {
+        });
+        manager.start(null);
+
+        try {
+            manager.refreshAsync(null).get(5, TimeUnit.SECONDS);
+            fail("Refresh failure expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals("t1", manager.currentValue());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JavaHttpTransportTest {
+    private HttpServer server;
+
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.createContext("/session", exchange -> {
+            exchange.getResponseHeaders().add("Set-Cookie", "FedAuth=session; Path=/");
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void appliesDefaultRequestTimeout() throws Exception {
+        HttpTransport transport = JavaHttpTransport.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .requestTimeout(Duration.ofMillis(200))
+                .build();
+
+        try {
+            transport.sendAsync(HttpRequest.newBuilder(uri("/slow")).build(), HttpResponse.BodyHandlers.discarding())
+                    .get(5, TimeUnit.SECONDS);
+            fail("Timeout expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HttpTimeoutException);
+        }
+    }
+
+    @Test
+    public void keepsSessionCookies() throws Exception {
+        HttpTransport transport = JavaHttpTransport.newBuilder().build();
+        HttpResponse<Void> response = transport.sendAsync(HttpRequest.newBuilder(uri("/session")).build(),
+                HttpResponse.BodyHandlers.discarding()).get(5, TimeUnit.SECONDS);
+
+        assertEquals(204, response.statusCode());
+        assertEquals(1, transport.getCookieStore().getCookies().size());
+        assertEquals("session", transport.getCookieStore().getCookies().get(0).getValue());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.http;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestGovernorTest {
+    private static final URI SITE_A = URI.create("https://tenant.sharepoint.com/sites/A/_api/web");
+    private static final URI SITE_B = URI.create("https://tenant.sharepoint.com/sites/B/_api/web");
+    private static final URI OTHER_HOST = URI.create("https://other.sharepoint.com/sites/A/_api/web");
+
+    @Test
+    public void limitsRequestsInFlight() throws Exception {
+        RequestGovernor governor = new RequestGovernor(RequestGovernor.Scope.HOST, 0, 2, 0);
+        CompletableFuture<RequestGovernor.Permit> first = governor.acquire(SITE_A, 0);
+        CompletableFuture<RequestGovernor.Permit> second = governor.acquire(SITE_B, 0);
+        CompletableFuture<RequestGovernor.Permit> third = governor.acquire(SITE_A, 0);
+        assertTrue(first.isDone() && second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(1, governor.getStats(SITE_A).getWaiting());
+
+        // other hosts have their own limits
+        assertTrue(governor.acquire(OTHER_HOST, 0).isDone());
+
+        first.get().release();
+        // releasing twice has no effect
+        first.get().release();
+        assertTrue(third.isDone());
+        assertEquals(2, governor.getStats(SITE_A).getInFlight());
+        assertEquals(3, governor.getStats(SITE_A).getAcquired());
+    }
+
+    @Test
+    public void rejectsRequestsBeyondMaxWaiting() throws Exception {
+        RequestGovernor governor = new RequestGovernor(RequestGovernor.Scope.HOST, 0, 1, 0);
+        governor.setMaxWaiting(1);
+        CompletableFuture<RequestGovernor.Permit> first = governor.acquire(SITE_A, 0);
+        CompletableFuture<RequestGovernor.Permit> second = governor.acquire(SITE_A, 0);
+        CompletableFuture<RequestGovernor.Permit> third = governor.acquire(SITE_A, 0);
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        try {
+            third.get();
+            fail("Rejection expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        first.get().release();
+        assertTrue(second.isDone());
+        // the waiting slot is free again
+        assertFalse(governor.acquire(SITE_A, 0).isCompletedExceptionally());
+    }
+
+    @Test
+    public void siteScopeSeparatesSites() {
+        RequestGovernor governor = new RequestGovernor(RequestGovernor.Scope.SITE, 0, 1, 0);
+        assertTrue(governor.acquire(SITE_A, 0).isDone());
+        assertTrue(governor.acquire(SITE_B, 0).isDone());
+        assertFalse(governor.acquire(SITE_A, 0).isDone());
+        assertEquals("tenant.sharepoint.com/sites/A", governor.getStats().get(0).getPartition());
+    }
+
+    @Test
+    public void limitsBytesInFlight() throws Exception {
+        RequestGovernor governor = new RequestGovernor(RequestGovernor.Scope.HOST, 0, 0, 100);
+        CompletableFuture<RequestGovernor.Permit> first = governor.acquire(SITE_A, 60);
+        CompletableFuture<RequestGovernor.Permit> second = governor.acquire(SITE_A, 60);
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(60, governor.getStats(SITE_A).getBytesInFlight());
+
+        first.get().release();
+        assertTrue(second.isDone());
+        second.get().release();
+
+        // a body bigger than the limit is sent alone
+        assertTrue(governor.acquire(SITE_A, 500).isDone());
+    }
+
+    @Test
+    public void limitsRequestRate() throws Exception {
+        RequestGovernor governor = new RequestGovernor(RequestGovernor.Scope.HOST, 20, 0, 0);
+        long start = System.nanoTime();
+        List<CompletableFuture<RequestGovernor.Permit>> permits = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            permits.add(governor.acquire(SITE_A, 0));
+        }
+        CompletableFuture.allOf(permits.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+        // a burst of 20, then 10 more at 20 per second
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Too fast: " + elapsedMillis + " ms", elapsedMillis >= 400);
+        assertTrue(governor.getStats(SITE_A).getMaxWait().toMillis() >= 400);
+    }
+
+    @Test
+    public void cancelledWaiterDoesNotHoldPermit() throws Exception {
+        RequestGovernor governor = new RequestGovernor(RequestGovernor.Scope.HOST, 0, 1, 0);
+        CompletableFuture<RequestGovernor.Permit> first = governor.acquire(SITE_A, 0);
+        CompletableFuture<RequestGovernor.Permit> cancelled = governor.acquire(SITE_A, 0);
+        CompletableFuture<RequestGovernor.Permit> last = governor.acquire(SITE_A, 0);
+        cancelled.cancel(true);
+
+        first.get().release();
+        assertTrue(last.isDone());
+        assertEquals(1, governor.getStats(SITE_A).getInFlight());
+        assertEquals(0, governor.getStats(SITE_A).getWaiting());
+    }
+}
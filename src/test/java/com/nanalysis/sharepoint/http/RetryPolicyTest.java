@@ -0,0 +1,232 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.http;
+
+import com.nanalysis.sharepoint.metrics.InMemoryMetrics;
+import com.nanalysis.sharepoint.metrics.MetricsListener;
+import com.nanalysis.sharepoint.metrics.OperationType;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final Deque<Integer> statuses = new ArrayDeque<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private HttpServer server;
+    private RetryPolicy policy;
+
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            Integer status;
+            synchronized (statuses) {
+                status = statuses.poll();
+            }
+            byte[] body = "done".getBytes(StandardCharsets.UTF_8);
+            if (status == null) {
+                status = 200;
+            } else if (status == 429) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+
+        policy = new RetryPolicy();
+        policy.setInitialDelay(Duration.ofMillis(10));
+        // kept apart from the throttling state shared by the other tests
+        policy.setThrottleGates(new ThrottleGates());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private HttpRequest request(String method) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/test"))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .build();
+    }
+
+    private HttpResponse<String> send(String method, boolean idempotent) throws Exception {
+        return policy.sendAsync(request(method), idempotent, r -> httpClient.sendAsync(r, HttpResponse.BodyHandlers.ofString()))
+                .get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void retriesThrottledRequestAfterRetryAfter() throws Exception {
+        statuses.add(429);
+        long start = System.nanoTime();
+        HttpResponse<String> response = send("POST", false);
+
+        assertEquals(200, response.statusCode());
+        assertEquals("done", response.body());
+        assertEquals(2, requests.get());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+        assertEquals(1, policy.getThrottledCount("127.0.0.1"));
+    }
+
+    @Test
+    public void retriesServerErrorsOfIdempotentRequests() throws Exception {
+        statuses.add(502);
+        statuses.add(500);
+        assertEquals(200, send("GET", true).statusCode());
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void doesNotRetryServerErrorsOfOtherRequests() throws Exception {
+        statuses.add(502);
+        assertEquals(502, send("POST", false).statusCode());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        policy.setMaxAttempts(3);
+        for (int i = 0; i < 5; i++) {
+            statuses.add(503);
+        }
+        assertEquals(503, send("GET", true).statusCode());
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void retriesTransportFailuresOfIdempotentRequests() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        HttpResponse<String> response = policy.sendAsync(request("GET"), true, r -> attempts.incrementAndGet() < 3
+                ? CompletableFuture.failedFuture(new IOException("Connection reset"))
+                : httpClient.sendAsync(r, HttpResponse.BodyHandlers.ofString())).get(10, TimeUnit.SECONDS);
+        assertEquals(200, response.statusCode());
+        assertEquals(3, attempts.get());
+
+        try {
+            policy.sendAsync(request("POST"), false, r -> CompletableFuture
+                    .<HttpResponse<String>>failedFuture(new IOException("Connection reset"))).get(10, TimeUnit.SECONDS);
+            fail("Transport failure expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void throttlingSlowsDownOtherRequests() throws Exception {
+        statuses.add(429);
+        send("GET", true);
+
+        // the host is still being throttled: the next request is spaced from the previous one
+        assertTrue(policy.isThrottling("127.0.0.1"));
+        assertEquals(200, send("GET", true).statusCode());
+    }
+
+    @Test
+    public void policiesShareThrottling() throws Exception {
+        assertSame(ThrottleGates.shared(), new RetryPolicy().getThrottleGates());
+
+        RetryPolicy other = new RetryPolicy();
+        other.setThrottleGates(policy.getThrottleGates());
+        statuses.add(429);
+        send("GET", true);
+
+        assertTrue(other.isThrottling("127.0.0.1"));
+        assertEquals(1, other.getThrottledCount("127.0.0.1"));
+    }
+
+    @Test
+    public void reportsRetriesAndThrottling() throws Exception {
+        statuses.add(429);
+        statuses.add(502);
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        HttpResponse<String> response = policy.sendAsync(request("GET"), true,
+                r -> httpClient.sendAsync(r, HttpResponse.BodyHandlers.ofString()), metrics).get(10, TimeUnit.SECONDS);
+
+        assertEquals(200, response.statusCode());
+        assertEquals(2, metrics.getStats(OperationType.LIST).getRetries());
+        assertEquals(1, metrics.getStats(OperationType.LIST).getThrottled());
+    }
+
+    @Test
+    public void failingListenerDoesNotBreakRetries() throws Exception {
+        statuses.add(429);
+        MetricsListener failing = new MetricsListener() {
+            @Override
+            public void retrying(OperationType type, HttpRequest request, int attempt, int statusCode, Duration delay) {
+                throw new IllegalStateException("broken listener");
+            }
+
+            @Override
+            public void throttled(OperationType type, HttpRequest request, Duration retryAfter) {
+                throw new IllegalStateException("broken listener");
+            }
+        };
+        HttpResponse<String> response = policy.sendAsync(request("GET"), true,
+                r -> httpClient.sendAsync(r, HttpResponse.BodyHandlers.ofString()), failing).get(10, TimeUnit.SECONDS);
+
+        assertEquals(200, response.statusCode());
+    }
+
+    @Test
+    public void parsesRetryAfter() {
+        assertEquals(Duration.ofSeconds(120), RetryPolicy.parseRetryAfter("120"));
+        assertEquals(Duration.ZERO, RetryPolicy.parseRetryAfter("-5"));
+        assertNull(RetryPolicy.parseRetryAfter("soon"));
+
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(60));
+        Duration delay = RetryPolicy.parseRetryAfter(date);
+        assertTrue(delay.getSeconds() > 50 && delay.getSeconds() <= 60);
+    }
+
+    @Test
+    public void backoffGrowsWithJitter() {
+        for (int attempt = 1; attempt < 40; attempt++) {
+            Duration delay = policy.backoff(attempt);
+            long ceiling = Math.min(Duration.ofMinutes(2).toMillis(), 10L << Math.min(attempt - 1, 30));
+            assertTrue(delay.toMillis() >= ceiling / 2 && delay.toMillis() <= ceiling);
+        }
+    }
+}
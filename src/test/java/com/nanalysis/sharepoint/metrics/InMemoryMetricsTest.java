@@ -0,0 +1,100 @@
+/*
+ * sharepoint-client: access files hosted on sharepoint from Java.
+ * Copyright (C) 2022 - Nanalysis Scientific Corp.
+ * -
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nanalysis.sharepoint.metrics;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryMetricsTest {
+    private static final String SITE = "https://example.sharepoint.com/sites/site/_api/web";
+    private final HttpRequest request = HttpRequest.newBuilder(URI.create(SITE + "/folders")).build();
+
+    @Test
+    public void classifiesOperations() {
+        assertEquals(OperationType.LIST, OperationType.of("GET", URI.create(SITE + "/GetFolderByServerRelativeUrl('/sites/site/a')/Files")));
+        assertEquals(OperationType.DOWNLOAD, OperationType.of("GET", URI.create(SITE + "/GetFileByServerRelativeUrl('/sites/site/a.txt')/$value")));
+        assertEquals(OperationType.CREATE_FOLDER, OperationType.of("POST", URI.create("https://example.sharepoint.com/sites/site/_api/web/folders")));
+        assertEquals(OperationType.DELETE, OperationType.of("DELETE", URI.create(SITE + "/GetFileByServerRelativeUrl('/sites/site/a.txt')")));
+        assertEquals(OperationType.UPLOAD, OperationType.of("POST", URI.create(SITE + "/GetFolderByServerRelativeUrl('/sites/site')/Files/Add(url='a.txt',overwrite=true)")));
+        assertEquals(OperationType.UPLOAD_CHUNK, OperationType.of("POST", URI.create(SITE + "/GetFileByServerRelativeUrl('/sites/site/a.txt')/ContinueUpload(uploadId=guid'x',fileOffset=0)")));
+        assertEquals(OperationType.BATCH, OperationType.of("POST", URI.create("https://example.sharepoint.com/sites/site/_api/$batch")));
+        assertEquals(OperationType.CHANGES, OperationType.of("POST", URI.create(SITE + "/lists/GetByTitle('Documents')/GetChanges")));
+        // a file named like an API call is still a download
+        assertEquals(OperationType.DOWNLOAD, OperationType.of("GET", URI.create(SITE + "/GetFileByServerRelativeUrl('/sites/site/%24batch')/$value")));
+    }
+
+    @Test
+    public void countsRequestsPerOperation() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        metrics.requestCompleted(OperationType.LIST, request, 200, Duration.ofMillis(3), 0, 100);
+        metrics.requestCompleted(OperationType.LIST, request, 404, Duration.ofMillis(5), 0, 50);
+        metrics.requestFailed(OperationType.LIST, request, new IOException("reset"), Duration.ofMillis(7));
+        metrics.retrying(OperationType.LIST, request, 2, -1, Duration.ofMillis(10));
+        metrics.throttled(OperationType.UPLOAD, request, Duration.ofSeconds(1));
+        metrics.authenticated("api", Duration.ofMillis(20), null);
+
+        OperationStats list = metrics.getStats(OperationType.LIST);
+        assertEquals(2, list.getCount());
+        assertEquals(1, list.getErrors());
+        assertEquals(1, list.getFailures());
+        assertEquals(1, list.getRetries());
+        assertEquals(150, list.getBytesReceived());
+        assertEquals(Map.of(200, 1L, 404, 1L), list.getStatusCounts());
+        assertEquals(Duration.ofMillis(5), list.getAverageLatency());
+        assertEquals(Duration.ofMillis(7), list.getMaxLatency());
+        assertEquals(1, metrics.getStats(OperationType.UPLOAD).getThrottled());
+        assertEquals(1, metrics.getStats(OperationType.AUTHENTICATION).getCount());
+
+        List<OperationStats> used = metrics.getStats();
+        assertEquals(2, used.size());
+
+        metrics.reset();
+        assertTrue(metrics.getStats().isEmpty());
+    }
+
+    @Test
+    public void approximatesPercentilesWithBuckets() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        for (int i = 0; i < 99; i++) {
+            metrics.requestCompleted(OperationType.DOWNLOAD, request, 200, Duration.ofMillis(3), 0, 0);
+        }
+        metrics.requestCompleted(OperationType.DOWNLOAD, request, 200, Duration.ofMillis(900), 0, 0);
+
+        OperationStats stats = metrics.getStats(OperationType.DOWNLOAD);
+        assertEquals(Duration.ofMillis(4), stats.getLatencyPercentile(50));
+        assertEquals(Duration.ofMillis(4), stats.getLatencyPercentile(99));
+        assertEquals(Duration.ofMillis(900), stats.getLatencyPercentile(100));
+    }
+
+    @Test
+    public void compositeForwardsToAllListeners() {
+        InMemoryMetrics first = new InMemoryMetrics();
+        InMemoryMetrics second = new InMemoryMetrics();
+        MetricsListener.of(first, second).requestCompleted(OperationType.BATCH, request, 200, Duration.ZERO, 10, 0);
+
+        assertEquals(10, first.getStats(OperationType.BATCH).getBytesSent());
+        assertEquals(10, second.getStats(OperationType.BATCH).getBytesSent());
+    }
+}